@@ -0,0 +1,56 @@
+#Tests the C extension, mixing 16-bit compressed instructions with 32-bit instructions,
+#which are then only aligned to 2 bytes. Sums the squares of 5..1 and stores them on the stack
+	.text
+	c.li	s0, 5
+	c.li	a0, 0
+	addi	sp, sp, -32
+	c.addi4spn	s1, sp, 8
+loop:
+	c.mv	a1, s0
+	c.jal	square
+	c.add	a0, a1
+	c.sw	a1, 0(s1)
+	c.addi	s1, 4
+	c.addi	s0, -1
+	c.bnez	s0, loop
+	c.beqz	s0, loaded
+	c.li	a0, -1
+loaded:
+	c.lwsp	a2, 8(sp)
+	c.swsp	a0, 4(sp)
+	c.addi4spn	s1, sp, 4
+	c.lw	a3, 0(s1)
+	c.lw	a4, 16(s1)
+	c.lui	a5, 0x12
+	c.addi	a5, 31
+	c.slli	a5, 4
+	c.mv	s0, a5
+	c.srli	s0, 8
+	c.andi	s0, -16
+	c.li	s1, -16
+	c.srai	s1, 2
+	c.mv	a1, a2
+	c.sub	a1, a4
+	c.xor	a2, a3
+	c.or	a3, a4
+	c.and	a4, a1
+	c.addi16sp	sp, 32
+	c.beqz	s1, fail
+	auipc	t1, 0
+	addi	t1, t1, 14	#Address of func
+	c.jalr	t1
+	c.j	end
+fail:
+	c.li	a0, -1
+func:
+	c.li	t2, 7
+	c.jr	ra
+end:
+	c.mv	a7, t2
+	c.nop
+	mv	a6, a0
+	li	a0, 10
+	ecall
+square:
+	mul	a1, a1, a1
+	c.jr	ra
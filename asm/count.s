@@ -0,0 +1,9 @@
+#Counts to 0x3000 in a tight loop, executing about 25000 instructions
+	.text
+	li	t0, 0
+	lui	t1, 0x3
+loop:
+	addi	t0, t0, 1
+	blt	t0, t1, loop
+	li	a0, 10
+	ecall
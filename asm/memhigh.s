@@ -0,0 +1,21 @@
+#Accesses memory far above the first MiB, at the very top of the address space,
+#and across a page boundary
+	.text
+	lui	sp, 0x80000
+	li	t0, 0x12345678
+	sw	t0, -4(sp)
+	sw	t0, 0(sp)
+	lw	a1, -4(sp)
+	lh	a2, 2(sp)
+#Top of the address space
+	li	t1, -4
+	sw	t0, 0(t1)
+	lw	a3, 0(t1)
+	lbu	a4, 3(t1)
+#Across the page boundary at 0x10001000
+	lui	s0, 0x10001
+	sw	t0, -2(s0)
+	lw	a5, -2(s0)
+	lhu	a6, 0(s0)
+	li	a0, 10
+	ecall
@@ -0,0 +1,25 @@
+#Tests the M extension, including division by zero and overflow
+	.text
+	li	s0, 7
+	li	s1, -3
+	lui	s2, 0x80000
+	li	s3, -1
+	mul	t0, s0, s1
+	mulh	t1, s2, s2
+	mulhu	t2, s3, s3
+	mulhsu	t3, s3, s3
+	div	t4, s0, s1
+	rem	t5, s0, s1
+	divu	t6, s3, s0
+	remu	a1, s3, s0
+	div	a2, s0, zero
+	divu	a3, s0, zero
+	rem	a4, s0, zero
+	remu	a5, s1, zero
+	div	a6, s2, s3
+	rem	a7, s2, s3
+	mulhsu	s4, s1, s0
+	mulhu	s5, s2, s0
+	mul	s6, s2, s3
+	li	a0, 10
+	ecall
@@ -0,0 +1,14 @@
+#Exercises the hazards of a 5-stage pipeline: A load used right away, a multiplication, a loop branch and a jump
+	.text
+	li	t0, 10
+loop:
+	lw	t2, 0(zero)
+	add	t3, t2, t3	#Load-use stall
+	mul	t4, t3, t3
+	addi	t0, t0, -1
+	bne	t0, zero, loop
+	jal	ra, exit
+	li	a0, 1	#Skipped
+exit:
+	li	a0, 10
+	ecall
@@ -0,0 +1,18 @@
+#Reads an instruction from the console over code which has already been translated, right after the read call
+	.text
+	li	s0, 0x80	#The first read goes to data
+	li	t2, 0
+loop:
+	li	a0, 14	#read
+	li	a1, 0	#Console
+	mv	a2, s0
+	li	a3, 4
+	ecall
+	li	t0, 1	#Replaced by the second read
+	add	s1, s1, t0
+	li	s0, 0x1c	#The second read goes to the instruction after the ecall
+	addi	t2, t2, 1
+	li	t3, 2
+	blt	t2, t3, loop
+	li	a0, 10
+	ecall
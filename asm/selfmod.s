@@ -0,0 +1,15 @@
+#Overwrites an instruction that has already been executed, then executes it again.
+#Checks that the simulator does not keep running the stale (cached) instruction
+	.text
+	li	t0, 0
+	la	t1, patch
+	li	t2, 0x00558593 #Encoding of "addi a1, a1, 5"
+loop:
+patch:
+	addi	a1, a1, 1
+	sw	t2, 0(t1)
+	addi	t0, t0, 1
+	li	t3, 2
+	blt	t0, t3, loop
+	li	a0, 10
+	ecall
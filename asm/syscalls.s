@@ -0,0 +1,62 @@
+#Tests the environment calls: Prints to the console, grows the heap,
+#writes a file, reads it back into the heap and exits with a code
+	.text
+	li	a0, 4		#print_string
+	la	a1, message
+	ecall
+	li	a0, 1		#print_int
+	li	a1, -42
+	ecall
+	li	a0, 11		#print_char
+	li	a1, 10
+	ecall
+	li	a0, 9		#sbrk
+	li	a1, 16
+	ecall
+	mv	s0, a0
+	li	a0, 9
+	li	a1, 0
+	ecall
+	mv	s1, a0
+	li	a0, 13		#open for writing
+	la	a1, name
+	li	a2, 1
+	ecall
+	mv	s2, a0
+	li	a0, 15		#write
+	mv	a1, s2
+	la	a2, message
+	li	a3, 6
+	ecall
+	mv	s3, a0
+	li	a0, 16		#close
+	mv	a1, s2
+	ecall
+	mv	s4, a0
+	li	a0, 13		#open for reading
+	la	a1, name
+	li	a2, 0
+	ecall
+	mv	s5, a0
+	li	a0, 14		#read into the heap
+	mv	a1, s5
+	mv	a2, s0
+	li	a3, 16
+	ecall
+	mv	s6, a0
+	lw	s7, 0(s0)
+	li	a0, 16
+	mv	a1, s5
+	ecall
+	li	a0, 15		#write the heap to the console
+	li	a1, 1
+	mv	a2, s0
+	mv	a3, s6
+	ecall
+	li	a0, 17		#exit2
+	li	a1, 3
+	ecall
+message:
+	.string "Hello\n"
+name:
+	.string "syscalls.tmp"
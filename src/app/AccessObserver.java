@@ -0,0 +1,23 @@
+package app;
+
+/**
+ * Receives every instruction fetch, load and store of a program, such as a {@link CacheHierarchy} or a {@link CacheSweep}.
+ * Attached with {@link RiscV#setAccessObserver(AccessObserver)}, after which the program runs in the interpreter
+ */
+public interface AccessObserver {
+
+	/**
+	 * Called before an instruction is executed
+	 * @param pc The address of the instruction
+	 * @param length The length of the instruction in bytes
+	 */
+	void fetch(int pc, int length);
+
+	/**
+	 * Called before a load or store is executed
+	 * @param addr The address accessed
+	 * @param width The number of bytes accessed
+	 * @param write True for a store
+	 */
+	void data(int addr, int width, boolean write);
+}
@@ -0,0 +1,139 @@
+package app;
+
+/**
+ * A set of addresses in the 32-bit address space, stored as one bit per byte address.
+ * Used for breakpoints and watchpoints, such that checking an address is a couple of array lookups
+ * no matter how many addresses are in the set.
+ *
+ * Like {@link Memory}, the bits are split in 4KiB pages stored in a two-level table,
+ * and a page is only allocated once an address on it is added
+ */
+public class AddressSet {
+
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+	private static final int DIR_BITS = 10; //Upper 10 bits of the page number index the directory
+	private static final int DIR_SIZE = 1 << DIR_BITS;
+	private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / 64;
+
+	private long[][][] table;
+	private int size;
+
+	public AddressSet() {
+		clear();
+	}
+
+	/**
+	 * Checks whether an address is in the set
+	 * @param addr The address
+	 * @return True if the address is in the set
+	 */
+	public boolean contains(int addr) {
+		long[][] dir = table[addr >>> (PAGE_BITS + DIR_BITS)];
+		if(dir == null) {
+			return false;
+		}
+		long[] bits = dir[(addr >>> PAGE_BITS) & (DIR_SIZE - 1)];
+		return bits != null && (bits[(addr & PAGE_MASK) >>> 6] & (1L << addr)) != 0;
+	}
+
+	/**
+	 * Checks whether any address in the range {@code [addr, addr+length)} is in the set
+	 * @param addr The first address of the range
+	 * @param length The number of addresses in the range
+	 * @return True if any of the addresses is in the set
+	 */
+	public boolean containsAny(int addr, int length) {
+		for(int i = 0; i < length; i++) {
+			if(contains(addr + i)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds an address to the set
+	 * @param addr The address
+	 * @return True if the address was not already in the set
+	 */
+	public boolean add(int addr) {
+		long[][] dir = table[addr >>> (PAGE_BITS + DIR_BITS)];
+		if(dir == null) {
+			dir = table[addr >>> (PAGE_BITS + DIR_BITS)] = new long[DIR_SIZE][];
+		}
+		long[] bits = dir[(addr >>> PAGE_BITS) & (DIR_SIZE - 1)];
+		if(bits == null) {
+			bits = dir[(addr >>> PAGE_BITS) & (DIR_SIZE - 1)] = new long[WORDS_PER_PAGE];
+		}
+		int word = (addr & PAGE_MASK) >>> 6;
+		if((bits[word] & (1L << addr)) != 0) {
+			return false;
+		}
+		bits[word] |= 1L << addr;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes an address from the set
+	 * @param addr The address
+	 * @return True if the address was in the set
+	 */
+	public boolean remove(int addr) {
+		if(!contains(addr)) {
+			return false;
+		}
+		table[addr >>> (PAGE_BITS + DIR_BITS)][(addr >>> PAGE_BITS) & (DIR_SIZE - 1)][(addr & PAGE_MASK) >>> 6] &= ~(1L << addr);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Removes all addresses from the set
+	 */
+	public void clear() {
+		table = new long[DIR_SIZE][][];
+		size = 0;
+	}
+
+	/**
+	 * @return True if the set holds no addresses
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return The number of addresses in the set
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return All addresses in the set, in unsigned ascending order
+	 */
+	public int[] toArray() {
+		int[] addresses = new int[size];
+		int count = 0;
+		for(int d = 0; d < DIR_SIZE && count < size; d++) {
+			if(table[d] == null) {
+				continue;
+			}
+			for(int p = 0; p < DIR_SIZE; p++) {
+				long[] bits = table[d][p];
+				if(bits == null) {
+					continue;
+				}
+				int base = ((d << DIR_BITS) | p) << PAGE_BITS;
+				for(int w = 0; w < WORDS_PER_PAGE; w++) {
+					for(long word = bits[w]; word != 0; word &= word - 1) {
+						addresses[count++] = base + w * 64 + Long.numberOfTrailingZeros(word);
+					}
+				}
+			}
+		}
+		return addresses;
+	}
+}
@@ -1,8 +1,218 @@
 package app;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.ObjectName;
+
 public class App {
 	public static void main(String[] args) throws Exception {
-		RiscV rv = new RiscV();		
-		rv.run();
+		if(args.length == 0) {
+			RiscV rv = new RiscV();		
+			registerStatistics(rv);
+			rv.run();
+		} else if(args.length >= 2 && args[0].equals("--headless")) {
+			runHeadless(args);
+		} else if(args.length >= 2 && args[0].equals("--batch")) {
+			runBatch(args);
+		} else {
+			usage();
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java -jar App.jar [--headless <program> [options] | --batch <dir|manifest> [options]]");
+		System.out.println("  Without arguments, the simulator asks for a program and starts the interactive CLI");
+		System.out.println("  --headless <program>: Run <program>.bin to completion without user input, using the block engine and JIT");
+		System.out.println("    --profile: Print the hottest code when the program exits, and write its call stacks to profile.folded");
+		System.out.println("    --trace <file>: Write a binary trace of every instruction to <file>, to be read with app.TraceReader");
+		System.out.println("    --compress: Compress the trace and checkpoints");
+		System.out.println("    --checkpoint <file>: Save the simulator state to <file> every --every instructions, and when stopped by --limit. Give <file> as the program to resume");
+		System.out.println("    --every N: Number of instructions between checkpoints. Defaults to only saving when stopped by --limit");
+		System.out.println("    --limit N: Stop once N instructions have been retired in total, eg. to save a checkpoint after boot code");
+		System.out.println("    --time-limit S: Stop after S seconds. A program stopped by a limit dumps its registers, prints \"Stopped by the ... limit\" on standard error and exits with status 2");
+		System.out.println("    Otherwise the exit status is the code given to exit2, which may also be 2. Only a limit prints to standard error");
+		System.out.println("    --cache: Model the caches and print their hits, misses and AMAT. Runs in the interpreter");
+		System.out.println("    --l1i, --l1d, --l2 SIZE:WAYS:LINE[:LRU|PLRU|RANDOM[:CYCLES]]: Configure a cache, eg. 32K:8:64:PLRU. Implies --cache. --l2 none leaves out the L2");
+		System.out.println("    --memory-latency N: Cycles taken by memory. Defaults to " + CacheHierarchy.DEFAULT_MEMORY_LATENCY);
+		System.out.println("    --branches: Predict every branch and print the misprediction rates of " + BranchModel.DEFAULT_PREDICTORS);
+		System.out.println("    --predictors static,bimodal[:BITS],gshare[:BITS[:HISTORY]],tournament[:BITS],tage[:BITS]: The predictors to compare. Implies --branches");
+		System.out.println("    --pipeline: Time a 5-stage pipeline and print its cycles, CPI and stalls. Uses the caches if modelled. Runs in the interpreter");
+		System.out.println("    --pipeline-predictor SPEC: The branch predictor of the pipeline, as for --predictors. Defaults to predicting not taken. Implies --pipeline");
+		System.out.println("  --batch <dir|manifest>: Run every program in a directory or manifest in parallel, comparing with <program>.res");
+		System.out.println("    --threads N: Number of programs to run at once. Defaults to the number of processors");
+		System.out.println("    --limit N: Number of instructions a program may execute before it is stopped");
+		System.out.println("    --time-limit S: Number of seconds a program may run before it is stopped");
+		System.exit(1);
+	}
+
+	/**
+	 * Runs a program to completion without any user interaction, then prints and writes the register dump.
+	 * The program may also be a checkpoint, in which case the simulation continues where the checkpoint was saved
+	 * @param args The command line arguments, starting with "--headless" and the name of the program without the .bin extension
+	 */
+	private static void runHeadless(String[] args) throws Exception {
+		boolean profile = false;
+		boolean compress = false;
+		File trace = null;
+		File checkpoint = null;
+		long every = Long.MAX_VALUE;
+		long limit = Long.MAX_VALUE;
+		long timeLimit = 0;
+		boolean cache = false;
+		String l1i = null, l1d = null, l2 = null;
+		int memoryLatency = CacheHierarchy.DEFAULT_MEMORY_LATENCY;
+		String predictors = null;
+		boolean pipeline = false;
+		String pipelinePredictor = null;
+		for(int i = 2; i < args.length; i++) {
+			if(args[i].equals("--profile")) {
+				profile = true;
+			} else if(args[i].equals("--compress")) {
+				compress = true;
+			} else if(args[i].equals("--trace") && i + 1 < args.length) {
+				trace = new File(args[++i]);
+			} else if(args[i].equals("--checkpoint") && i + 1 < args.length) {
+				checkpoint = new File(args[++i]);
+			} else if(args[i].equals("--every") && i + 1 < args.length) {
+				every = Long.parseLong(args[++i]);
+			} else if(args[i].equals("--limit") && i + 1 < args.length) {
+				limit = Long.parseLong(args[++i]);
+			} else if(args[i].equals("--time-limit") && i + 1 < args.length) {
+				timeLimit = Long.parseLong(args[++i]) * 1000;
+			} else if(args[i].equals("--cache")) {
+				cache = true;
+			} else if(args[i].equals("--l1i") && i + 1 < args.length) {
+				l1i = args[++i];
+				cache = true;
+			} else if(args[i].equals("--l1d") && i + 1 < args.length) {
+				l1d = args[++i];
+				cache = true;
+			} else if(args[i].equals("--l2") && i + 1 < args.length) {
+				l2 = args[++i];
+				cache = true;
+			} else if(args[i].equals("--memory-latency") && i + 1 < args.length) {
+				memoryLatency = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("--branches")) {
+				predictors = predictors == null ? BranchModel.DEFAULT_PREDICTORS : predictors;
+			} else if(args[i].equals("--predictors") && i + 1 < args.length) {
+				predictors = args[++i];
+			} else if(args[i].equals("--pipeline")) {
+				pipeline = true;
+			} else if(args[i].equals("--pipeline-predictor") && i + 1 < args.length) {
+				pipelinePredictor = args[++i];
+				pipeline = true;
+			} else {
+				usage();
+			}
+		}
+
+		RiscV rv = new RiscV(args[1]);
+		rv.setBlockMode(true);
+		rv.setJitThreshold(RiscV.DEFAULT_JIT_THRESHOLD);
+		rv.setProfiling(profile);
+		if(trace != null) {
+			rv.startTrace(trace, compress);
+		}
+		CacheHierarchy caches = null;
+		if(cache) {
+			CacheHierarchy defaults = CacheHierarchy.defaults(true);
+			caches = new CacheHierarchy(l1i == null ? defaults.getL1i() : Cache.parse("L1I", l1i, 1),
+				l1d == null ? defaults.getL1d() : Cache.parse("L1D", l1d, 1),
+				"none".equals(l2) ? null : l2 == null ? defaults.getL2() : Cache.parse("L2", l2, 10), memoryLatency);
+		}
+		if(pipeline) { //The pipeline passes the accesses through the caches itself, to be stalled by their latency
+			rv.setPipelineModel(new PipelineModel(caches, pipelinePredictor == null ? null : BranchPredictor.parse(pipelinePredictor)));
+		} else if(caches != null) {
+			rv.setCaches(caches);
+		}
+		if(predictors != null) {
+			rv.setBranchModel(new BranchModel(BranchPredictor.parseList(predictors), BranchModel.DEFAULT_BTB_BITS));
+		}
+		registerStatistics(rv);
+		long start = System.nanoTime();
+		long executed = 0;
+		rv.setInstructionLimit(limit);
+		do {
+			if(timeLimit > 0) { //The time limit applies to each call, so give it what is left of the total
+				rv.setTimeLimit(Math.max(1, timeLimit - (System.nanoTime() - start) / 1000000));
+			}
+			executed += rv.runHeadless(every);
+			if(checkpoint != null && rv.isRunning()) { //Also saves when stopped by a limit
+				rv.writeCheckpoint(checkpoint, compress);
+			}
+		} while(rv.getStatus() == RiscV.Status.RUNNING);
+		rv.stopTrace();
+		long time = System.nanoTime() - start;
+
+		System.out.printf("Executed %d instructions in %.3f s\n", executed, time / 1e9);
+		if(rv.isRunning()) { //On standard error, which the program cannot write to, so it tells a limit from exit2(2)
+			System.err.printf("Stopped by the %s at PC 0x%08x, before the program exited\n",
+				rv.getStatus() == RiscV.Status.TIME_LIMIT ? "time limit" : "instruction limit", rv.getPC());
+		}
+		rv.dumpRegisters();
+		rv.writeRegisterDump(new File("regdump.res"));
+		System.out.printf("\n");
+		rv.getStatistics().printSummary(System.out);
+		if(caches != null) {
+			System.out.printf("\n");
+			caches.printSummary(System.out);
+		}
+		if(rv.getPipelineModel() != null) {
+			System.out.printf("\n");
+			rv.getPipelineModel().printSummary(System.out);
+		}
+		if(rv.getBranchModel() != null) {
+			System.out.printf("\n");
+			rv.getBranchModel().printSummary(System.out, 10);
+		}
+		if(profile) {
+			rv.writeProfile(new File("profile.folded"));
+		}
+		if(rv.isRunning()) {
+			System.exit(2);
+		}
+		if(rv.getExitCode() != 0) { //Given by the program with exit2
+			System.exit(rv.getExitCode());
+		}
+	}
+
+	/**
+	 * Publishes the execution statistics of a simulator through JMX, as app:type=Statistics
+	 * @param rv The simulator
+	 */
+	private static void registerStatistics(RiscV rv) throws Exception {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(rv.getStatistics(), new ObjectName("app:type=Statistics"));
+	}
+
+	/**
+	 * Runs a batch of programs in parallel and prints a summary. Exits with status 1 if any program did not pass
+	 * @param args The command line arguments, starting with "--batch"
+	 */
+	private static void runBatch(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long limit = BatchRunner.DEFAULT_LIMIT;
+		long timeLimit = 0;
+		for(int i = 2; i < args.length; i += 2) {
+			if(i + 1 == args.length) {
+				usage();
+			} else if(args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[i + 1]);
+			} else if(args[i].equals("--limit")) {
+				limit = Long.parseLong(args[i + 1]);
+			} else if(args[i].equals("--time-limit")) {
+				timeLimit = Long.parseLong(args[i + 1]) * 1000;
+			} else {
+				usage();
+			}
+		}
+
+		List<File> programs = BatchRunner.findPrograms(new File(args[1]));
+		long start = System.nanoTime();
+		List<BatchRunner.Result> results = new BatchRunner(threads, limit, timeLimit).run(programs);
+		long time = System.nanoTime() - start;
+		if(!BatchRunner.printSummary(results, time)) {
+			System.exit(1);
+		}
 	}
 }
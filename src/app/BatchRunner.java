@@ -0,0 +1,234 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many programs concurrently, eg. a regression suite of test programs.
+ *
+ * Every program is run headless by its own simulator on a work-stealing pool, using the block engine and JIT.
+ * If a register dump {@code <name>.res} exists next to a program, the final registers are compared against it.
+ * Programs may be given as a directory, in which case every .bin and .elf file in it is run,
+ * or as a manifest listing one program per line
+ */
+public class BatchRunner {
+
+	/** The default number of instructions a program may execute before it is stopped */
+	public static final long DEFAULT_LIMIT = 1L << 32;
+
+	/** The outcome of running a single program */
+	public enum Status {
+		PASS, //Registers matched the .res file
+		FAIL, //Registers did not match the .res file
+		DONE, //Exited, but there was no .res file to compare with
+		TIMEOUT, //Did not exit within the instruction or time limit
+		ERROR //The program or its .res file could not be read
+	}
+
+	/** The result of running a single program */
+	public static class Result {
+		public final File program;
+		public final Status status;
+		public final long instructions;
+		public final long nanos;
+		public final String message; //Details on a failure or error, otherwise null
+
+		Result(File program, Status status, long instructions, long nanos, String message) {
+			this.program = program;
+			this.status = status;
+			this.instructions = instructions;
+			this.nanos = nanos;
+			this.message = message;
+		}
+	}
+
+	private final int threads;
+	private final long limit;
+	private final long timeLimit;
+
+	/**
+	 * Creates a batch runner
+	 * @param threads The number of programs to run in parallel
+	 * @param limit The maximum number of instructions each program may execute
+	 */
+	public BatchRunner(int threads, long limit) {
+		this(threads, limit, 0);
+	}
+
+	/**
+	 * Creates a batch runner which also limits the time each program may run, such that a program stuck in a loop
+	 * does not hold on to a thread for long
+	 * @param threads The number of programs to run in parallel
+	 * @param limit The maximum number of instructions each program may execute
+	 * @param timeLimit The maximum time in milliseconds each program may run, 0 for no limit
+	 */
+	public BatchRunner(int threads, long limit, long timeLimit) {
+		this.threads = threads;
+		this.limit = limit;
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * Finds the programs to run
+	 * @param source A directory holding the programs, or a manifest file listing one program per line.
+	 * Blank lines and lines starting with # are ignored, and relative paths are relative to the manifest.
+	 * As for {@link RiscV#RiscV(String)}, the .bin extension may be left out
+	 * @return The programs, sorted by name if read from a directory
+	 * @throws IOException If the directory or manifest could not be read
+	 */
+	public static List<File> findPrograms(File source) throws IOException {
+		List<File> programs = new ArrayList<File>();
+		if(source.isDirectory()) {
+			File[] files = source.listFiles((dir, name) -> name.endsWith(".bin") || name.endsWith(".elf"));
+			if(files == null) {
+				throw new IOException("Could not list " + source);
+			}
+			Arrays.sort(files);
+			programs.addAll(Arrays.asList(files));
+			return programs;
+		}
+		for(String line : Files.readAllLines(source.toPath())) {
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			File file = new File(line);
+			if(!file.isAbsolute()) {
+				file = new File(source.getAbsoluteFile().getParentFile(), line);
+			}
+			if(!file.isFile()) {
+				file = new File(file.getPath() + ".bin");
+			}
+			programs.add(file);
+		}
+		return programs;
+	}
+
+	/**
+	 * Runs all programs, spreading them over the threads of the pool
+	 * @param programs The programs to run
+	 * @return The results, in the same order as {@code programs}
+	 */
+	public List<Result> run(List<File> programs) {
+		List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(programs.size());
+		for(File program : programs) {
+			tasks.add(() -> run(program));
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Result> results = new ArrayList<Result>(programs.size());
+			for(Future<Result> future : pool.invokeAll(tasks)) {
+				results.add(future.get()); //run(File) does not throw, so this only waits
+			}
+			return results;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Runs a single program in a simulator of its own, and compares the result with its .res file if there is one
+	 * @param program The program to run
+	 * @return The result
+	 */
+	public Result run(File program) {
+		long start = System.nanoTime();
+		try {
+			RiscV rv = new RiscV(program);
+			rv.setBlockMode(true);
+			rv.setJitThreshold(RiscV.DEFAULT_JIT_THRESHOLD);
+			rv.setInstructionLimit(limit);
+			rv.setTimeLimit(timeLimit);
+			long executed = rv.runHeadless();
+			long time = System.nanoTime() - start;
+			if(rv.isRunning()) {
+				String message = rv.getStatus() == RiscV.Status.TIME_LIMIT ? "Did not exit within " + timeLimit + " ms"
+					: "Did not exit within " + limit + " instructions";
+				return new Result(program, Status.TIMEOUT, executed, time, String.format("%s, stopped at PC 0x%08x", message, rv.getPC()));
+			}
+
+			File resFile = resultFile(program);
+			if(!resFile.isFile()) {
+				return new Result(program, Status.DONE, executed, time, null);
+			}
+			int[] expected = readRegisterDump(resFile);
+			int[] actual = rv.getReg();
+			for(int i = 0; i < 32; i++) {
+				if(expected[i] != actual[i]) {
+					String message = String.format("Reg[%d]=0x%08x, expected 0x%08x", i, actual[i], expected[i]);
+					return new Result(program, Status.FAIL, executed, time, message);
+				}
+			}
+			return new Result(program, Status.PASS, executed, time, null);
+		} catch (Exception e) { //Anything going wrong only fails this program, not the whole batch
+			return new Result(program, Status.ERROR, 0, System.nanoTime() - start, e.toString());
+		}
+	}
+
+	/**
+	 * Finds the expected register dump of a program: The program file with its extension replaced by .res
+	 * @param program The program
+	 * @return The .res file, which may not exist
+	 */
+	private static File resultFile(File program) {
+		String name = program.getPath();
+		int dot = name.lastIndexOf('.');
+		if(dot > name.lastIndexOf(File.separatorChar)) {
+			name = name.substring(0, dot);
+		}
+		return new File(name + ".res");
+	}
+
+	/**
+	 * Reads a register dump, holding the 32 registers as 4 little-endian bytes each.
+	 * Registers missing from a short file are 0
+	 * @param file The file to read
+	 * @return The registers
+	 * @throws IOException If the file could not be read
+	 */
+	private static int[] readRegisterDump(File file) throws IOException {
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		int[] reg = new int[32];
+		for(int i = 0; i < 32 && data.remaining() >= 4; i++) {
+			reg[i] = data.getInt();
+		}
+		return reg;
+	}
+
+	/**
+	 * Prints failing programs, followed by a summary of all results
+	 * @param results The results to summarize
+	 * @param wallNanos The wall-clock time taken by the whole batch
+	 * @return True if no program failed, timed out or gave an error
+	 */
+	public static boolean printSummary(List<Result> results, long wallNanos) {
+		int[] counts = new int[Status.values().length];
+		long instructions = 0;
+		long cpuNanos = 0;
+		for(Result result : results) {
+			counts[result.status.ordinal()]++;
+			instructions += result.instructions;
+			cpuNanos += result.nanos;
+			if(result.message != null) {
+				System.out.printf("%-7s %s: %s\n", result.status, result.program.getPath(), result.message);
+			}
+		}
+		System.out.printf("%d programs: %d passed, %d failed, %d without .res, %d timed out, %d errors\n", results.size(),
+			counts[Status.PASS.ordinal()], counts[Status.FAIL.ordinal()], counts[Status.DONE.ordinal()],
+			counts[Status.TIMEOUT.ordinal()], counts[Status.ERROR.ordinal()]);
+		System.out.printf("Executed %d instructions in %.3f s wall time, %.3f s simulation time (%.1f MIPS)\n",
+			instructions, wallNanos / 1e9, cpuNanos / 1e9, wallNanos == 0 ? 0.0 : instructions * 1e3 / wallNanos);
+		return counts[Status.FAIL.ordinal()] + counts[Status.TIMEOUT.ordinal()] + counts[Status.ERROR.ordinal()] == 0;
+	}
+}
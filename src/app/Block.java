@@ -0,0 +1,81 @@
+package app;
+
+/**
+ * A basic block of guest code: a run of instructions that ends in a branch, a jump or an ECALL.
+ * Blocks are translated once by {@link RiscV} and then executed as a unit, without checking for user input
+ * or updating the PC between the instructions of the block.
+ *
+ * Every block keeps a link to the blocks that follow it, such that the successor can be found
+ * without looking it up by address once the link has been established
+ */
+public class Block {
+
+	/** The maximum number of instructions in a block. Longer runs of straight-line code are split in several blocks */
+	public static final int MAX_LENGTH = 64;
+
+	final int start; //Address of the first instruction in the block
+	final Instruction[] body; //Instructions that do not change control flow
+	final Instruction exit; //Branch, jump or ECALL ending the block. Null if the block was split due to its length
+	final int exitPC; //Address of the exit instruction, or the address following the body if exit is null
+	final int fallthrough; //Address of the next block when the exit is not taken
+	final int target; //Address of the next block when the exit is taken. Only meaningful for branches and JAL
+
+	Block next; //Successor when falling through
+	Block taken; //Successor when the branch or JAL is taken
+	Block indirect; //Most recent successor of a JALR
+
+	int executions; //Number of times the block has been interpreted, used to find hot blocks
+	long count; //Number of times the block has run to its end, see Statistics
+	long takenCount; //Number of times the exit did not continue at the fallthrough address
+	CompiledBlock compiled; //The block compiled to bytecode by the JitCompiler, or null if still interpreted
+
+	Block(int start, Instruction[] body, Instruction exit, int exitPC) {
+		this.start = start;
+		this.body = body;
+		this.exit = exit;
+		this.exitPC = exitPC;
+		this.fallthrough = exit == null ? exitPC : exitPC + exit.length;
+		this.target = exit == null ? exitPC : exitPC + exit.imm;
+	}
+
+	/**
+	 * Checks whether an operation ends a basic block
+	 * @param op The operation to check
+	 * @return True if the operation may change control flow, ie. it is a branch, jump or ECALL
+	 */
+	public static boolean endsBlock(RiscvOp op) {
+		switch(op) {
+			case BEQ:
+			case BNE:
+			case BLT:
+			case BGE:
+			case BLTU:
+			case BGEU:
+			case JAL:
+			case JALR:
+			case ECALL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return The number of instructions in this block, including the exit instruction
+	 */
+	public int length() {
+		return exit == null ? body.length : body.length + 1;
+	}
+
+	/**
+	 * Counts the instructions of the body which come before an address, since compressed instructions
+	 * make the count differ from the distance divided by 4
+	 * @param pc The address of an instruction in the body, or the address following the body
+	 * @return The number of instructions from the start of the block up to {@code pc}
+	 */
+	int countBefore(int pc) {
+		int count = 0;
+		for(int addr = start; addr != pc; addr += body[count++].length);
+		return count;
+	}
+}
@@ -0,0 +1,279 @@
+package app;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evaluates branch predictors on a running program, side by side in a single run. Attached with
+ * {@link RiscV#setBranchModel(BranchModel)}, and told about every branch and jump as it is executed, by the
+ * interpreter, the block engine and the JIT alike, since the simulator reports control flow at the exit of each block.
+ *
+ * Every conditional branch is predicted by each of the {@link BranchPredictor}s, whose mispredictions are counted
+ * in total and per branch. The targets of taken branches and jumps are predicted by a branch target buffer (BTB),
+ * except for returns, which are predicted by a return address stack (RAS). Like in the {@link Profiler}, JAL and JALR
+ * writing ra or t0 are calls, and JALR through ra or t0 is a return. The BTB and RAS are shared by the predictors,
+ * since they do not depend on the predicted direction
+ */
+public class BranchModel {
+
+	public static final String DEFAULT_PREDICTORS = "static,bimodal,gshare,tournament,tage";
+	public static final int DEFAULT_BTB_BITS = 10;
+	private static final int RAS_DEPTH = 16;
+
+	private final BranchPredictor[] predictors;
+	private final long[] mispredictions; //By predictor
+	private final Counters[] mispredictionsByPC; //By predictor, then by address of the branch
+	private final Counters executions = new Counters(); //Conditional branches, by address
+	private final Counters taken = new Counters();
+	private long branches;
+	private long takenBranches;
+
+	//Direct-mapped branch target buffer, indexed by halfword address and tagged with the full address
+	private final int[] btbTags;
+	private final int[] btbTargets;
+	private long btbLookups;
+	private long btbMisses;
+
+	//Return address stack. When full, the oldest entry is overwritten
+	private final int[] ras = new int[RAS_DEPTH];
+	private int rasTop; //Index of the next entry to push
+	private int rasDepth; //Number of valid entries
+	private long returns;
+	private long returnMisses;
+
+	/**
+	 * @param predictors The direction predictors to evaluate
+	 * @param btbBits The log2 of the number of entries in the BTB
+	 */
+	public BranchModel(BranchPredictor[] predictors, int btbBits) {
+		this.predictors = predictors.clone();
+		mispredictions = new long[predictors.length];
+		mispredictionsByPC = new Counters[predictors.length];
+		for(int i = 0; i < predictors.length; i++) {
+			mispredictionsByPC[i] = new Counters();
+		}
+		btbTags = new int[1 << btbBits];
+		btbTargets = new int[btbTags.length];
+		Arrays.fill(btbTags, 1); //Odd, so never the address of an instruction
+	}
+
+	/**
+	 * Counts the exit of a block
+	 * @param block The block which was executed in full, including its exit
+	 * @param next The address of the instruction executed after the block
+	 */
+	void block(Block block, int next) {
+		if(block.exit != null) {
+			instruction(block.exitPC, block.exit, next);
+		}
+	}
+
+	/**
+	 * Predicts an instruction if it is a branch or jump, and trains the predictors with its outcome
+	 * @param pc The address of the instruction
+	 * @param inst The instruction
+	 * @param next The address of the instruction executed after it
+	 */
+	void instruction(int pc, Instruction inst, int next) {
+		switch(inst.op) {
+			case BEQ:
+			case BNE:
+			case BLT:
+			case BGE:
+			case BLTU:
+			case BGEU:
+				conditional(pc, pc + inst.imm, next != pc + inst.length);
+				if(next != pc + inst.length) {
+					target(pc, next);
+				}
+				break;
+			case JAL:
+				if(isLink(inst.rd)) {
+					push(pc + inst.length);
+				}
+				target(pc, next);
+				break;
+			case JALR:
+				if(isLink(inst.rs1) && inst.rd != inst.rs1) { //A return, or a coroutine swap if it also links
+					returns++;
+					if(pop() != next) {
+						returnMisses++;
+					}
+				} else {
+					target(pc, next);
+				}
+				if(isLink(inst.rd)) {
+					push(pc + inst.length);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static boolean isLink(int reg) {
+		return reg == 1 || reg == 5; //ra and t0
+	}
+
+	private void conditional(int pc, int target, boolean outcome) {
+		branches++;
+		executions.add(pc, 1);
+		if(outcome) {
+			takenBranches++;
+			taken.add(pc, 1);
+		}
+		for(int i = 0; i < predictors.length; i++) {
+			if(predictors[i].predict(pc, target) != outcome) {
+				mispredictions[i]++;
+				mispredictionsByPC[i].add(pc, 1);
+			}
+			predictors[i].update(pc, target, outcome);
+		}
+	}
+
+	/**
+	 * Looks up a taken branch or jump in the BTB, and updates it with the actual target
+	 */
+	private void target(int pc, int next) {
+		int index = (pc >>> 1) & (btbTags.length - 1);
+		btbLookups++;
+		if(btbTags[index] != pc || btbTargets[index] != next) {
+			btbMisses++;
+			btbTags[index] = pc;
+			btbTargets[index] = next;
+		}
+	}
+
+	private void push(int returnAddress) {
+		ras[rasTop] = returnAddress;
+		rasTop = (rasTop + 1) % RAS_DEPTH;
+		rasDepth = Math.min(rasDepth + 1, RAS_DEPTH);
+	}
+
+	/**
+	 * @return The predicted return address, or 1 if the stack is empty, which never matches
+	 */
+	private int pop() {
+		if(rasDepth == 0) {
+			return 1;
+		}
+		rasDepth--;
+		rasTop = (rasTop + RAS_DEPTH - 1) % RAS_DEPTH;
+		return ras[rasTop];
+	}
+
+	/** @return The predictors, in the order they were given */
+	public BranchPredictor[] getPredictors() {
+		return predictors.clone();
+	}
+
+	/** @return The number of conditional branches executed */
+	public long getBranches() {
+		return branches;
+	}
+
+	public long getTakenBranches() {
+		return takenBranches;
+	}
+
+	/**
+	 * @param predictor The index of a predictor
+	 * @return The number of conditional branches it mispredicted
+	 */
+	public long getMispredictions(int predictor) {
+		return mispredictions[predictor];
+	}
+
+	/**
+	 * @param predictor The index of a predictor
+	 * @param pc The address of a branch
+	 * @return The number of times the predictor mispredicted the branch
+	 */
+	public long getMispredictions(int predictor, int pc) {
+		return mispredictionsByPC[predictor].get(pc);
+	}
+
+	/**
+	 * @param predictor The index of a predictor
+	 * @return The fraction of conditional branches it mispredicted, 0 if there were none
+	 */
+	public double getMissRate(int predictor) {
+		return branches == 0 ? 0 : (double) mispredictions[predictor] / branches;
+	}
+
+	/**
+	 * @param pc The address of a branch
+	 * @return The number of times the conditional branch was executed
+	 */
+	public long getExecutions(int pc) {
+		return executions.get(pc);
+	}
+
+	/** @return The number of taken branches and jumps, except returns, whose target was looked up in the BTB */
+	public long getBtbLookups() {
+		return btbLookups;
+	}
+
+	/** @return The number of lookups which did not find the right target */
+	public long getBtbMisses() {
+		return btbMisses;
+	}
+
+	public long getReturns() {
+		return returns;
+	}
+
+	/** @return The number of returns whose address was not on top of the RAS */
+	public long getReturnMisses() {
+		return returnMisses;
+	}
+
+	/**
+	 * Prints the misprediction rate of every predictor, the BTB and the RAS, followed by the branches
+	 * mispredicted most often, summed over all predictors
+	 * @param out The stream to print to
+	 * @param count The maximum number of branches to print
+	 */
+	public void printSummary(PrintStream out, int count) {
+		out.printf("Branch prediction: %d conditional branches, %.1f%% taken\n", branches,
+			branches == 0 ? 0.0 : 100.0 * takenBranches / branches);
+		out.printf("  %-16s %14s %8s\n", "Predictor", "Mispredicted", "Miss %");
+		for(int i = 0; i < predictors.length; i++) {
+			out.printf("  %-16s %14d %7.2f%%\n", predictors[i].getName(), mispredictions[i], 100 * getMissRate(i));
+		}
+		out.printf("BTB: %d entries, %d lookups, %d misses (%.2f%%)\n", btbTags.length, btbLookups, btbMisses,
+			btbLookups == 0 ? 0.0 : 100.0 * btbMisses / btbLookups);
+		out.printf("RAS: %d entries, %d returns, %d mispredicted (%.2f%%)\n", RAS_DEPTH, returns, returnMisses,
+			returns == 0 ? 0.0 : 100.0 * returnMisses / returns);
+
+		List<long[]> worst = executions.entries();
+		for(long[] entry : worst) { //The second field becomes the sum of the mispredictions
+			long missed = 0;
+			for(Counters counters : mispredictionsByPC) {
+				missed += counters.get((int) entry[0]);
+			}
+			entry[1] = missed;
+		}
+		worst.removeIf(entry -> entry[1] == 0);
+		worst.sort((a, b) -> Long.compare(b[1], a[1]));
+		if(worst.isEmpty()) {
+			return;
+		}
+		out.printf("Most mispredicted branches (miss %% by predictor):\n");
+		out.printf("  %-10s %12s %8s", "PC", "Executed", "Taken %");
+		for(BranchPredictor predictor : predictors) {
+			out.printf(" %14s", predictor.getName());
+		}
+		out.printf("\n");
+		for(long[] entry : worst.subList(0, Math.min(count, worst.size()))) {
+			int pc = (int) entry[0];
+			long executed = executions.get(pc);
+			out.printf("  0x%08x %12d %7.1f%%", pc, executed, 100.0 * taken.get(pc) / executed);
+			for(Counters counters : mispredictionsByPC) {
+				out.printf(" %13.2f%%", 100.0 * counters.get(pc) / executed);
+			}
+			out.printf("\n");
+		}
+	}
+}
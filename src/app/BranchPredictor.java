@@ -0,0 +1,358 @@
+package app;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Predicts the direction of conditional branches, for evaluation with a {@link BranchModel}.
+ * The model asks for a prediction with {@link #predict(int, int)} and then tells the outcome with
+ * {@link #update(int, int, boolean)}, always for the same branch, so a predictor may keep state between the two.
+ *
+ * All tables are primitive arrays of saturating counters indexed by halfword address, since compressed branches
+ * are only halfword aligned. Global histories hold the outcomes of the most recent conditional branches, newest
+ * in the lowest bit
+ */
+public abstract class BranchPredictor {
+
+	private final String name;
+
+	/**
+	 * @param name The name of the predictor in reports, eg. "gshare:12:12"
+	 */
+	protected BranchPredictor(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Predicts a conditional branch
+	 * @param pc The address of the branch
+	 * @param target The address the branch goes to if taken
+	 * @return True if the branch is predicted taken
+	 */
+	public abstract boolean predict(int pc, int target);
+
+	/**
+	 * Trains the predictor with the outcome of the branch just predicted
+	 * @param pc The address of the branch
+	 * @param target The address the branch goes to if taken
+	 * @param taken True if the branch was taken
+	 */
+	public abstract void update(int pc, int target, boolean taken);
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Creates a predictor from a description: "static", "bimodal[:BITS]", "gshare[:BITS[:HISTORY]]",
+	 * "tournament[:BITS]" or "tage[:BITS]", where BITS is the log2 of the number of entries of each table
+	 * (12 by default, 10 for the tagged tables of TAGE) and HISTORY the number of outcomes in the global history
+	 * @param spec The description
+	 * @return The predictor
+	 * @throws IllegalArgumentException If the description is malformed
+	 */
+	public static BranchPredictor parse(String spec) {
+		String[] fields = spec.split(":");
+		String kind = fields[0].toLowerCase(Locale.ROOT);
+		int maxFields = kind.equals("static") ? 1 : kind.equals("gshare") ? 3 : 2;
+		if(fields.length > maxFields) {
+			throw new IllegalArgumentException("Too many fields in predictor " + spec);
+		}
+		int bits = fields.length > 1 ? Integer.parseInt(fields[1]) : kind.equals("tage") ? 10 : 12;
+		if(bits < 2 || bits > 24) {
+			throw new IllegalArgumentException("Table sizes must be between 2 and 24 bits, got " + spec);
+		}
+		switch(kind) {
+			case "static":
+				return new Static();
+			case "bimodal":
+				return new Bimodal(bits);
+			case "gshare":
+				return new Gshare(bits, fields.length > 2 ? Integer.parseInt(fields[2]) : bits);
+			case "tournament":
+				return new Tournament(bits);
+			case "tage":
+				return new Tage(bits);
+			default:
+				throw new IllegalArgumentException("Unknown predictor " + spec + ", expected static, bimodal, gshare, tournament or tage");
+		}
+	}
+
+	/**
+	 * Creates the predictors of a comma separated list of descriptions, see {@link #parse(String)}
+	 * @param specs The descriptions
+	 * @return The predictors
+	 */
+	public static BranchPredictor[] parseList(String specs) {
+		String[] fields = specs.split(",");
+		BranchPredictor[] predictors = new BranchPredictor[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			predictors[i] = parse(fields[i].trim());
+		}
+		return predictors;
+	}
+
+	/**
+	 * @return The next value of a 2-bit saturating counter, where 2 and 3 predict taken
+	 */
+	static byte train(byte counter, boolean taken) {
+		return taken ? (counter < 3 ? (byte) (counter + 1) : counter) : (counter > 0 ? (byte) (counter - 1) : counter);
+	}
+
+	/**
+	 * Backward taken, forward not taken: Predicts that loops keep looping, without any state
+	 */
+	public static class Static extends BranchPredictor {
+
+		public Static() {
+			super("static");
+		}
+
+		@Override
+		public boolean predict(int pc, int target) {
+			return Integer.compareUnsigned(target, pc) <= 0;
+		}
+
+		@Override
+		public void update(int pc, int target, boolean taken) {
+		}
+	}
+
+	/**
+	 * A table of 2-bit counters indexed by the address of the branch
+	 */
+	public static class Bimodal extends BranchPredictor {
+
+		private final byte[] counters;
+		private final int mask;
+
+		/**
+		 * @param bits The log2 of the number of counters
+		 */
+		public Bimodal(int bits) {
+			super("bimodal:" + bits);
+			counters = new byte[1 << bits];
+			mask = counters.length - 1;
+			Arrays.fill(counters, (byte) 1); //Weakly not taken
+		}
+
+		@Override
+		public boolean predict(int pc, int target) {
+			return counters[(pc >>> 1) & mask] >= 2;
+		}
+
+		@Override
+		public void update(int pc, int target, boolean taken) {
+			int index = (pc >>> 1) & mask;
+			counters[index] = train(counters[index], taken);
+		}
+	}
+
+	/**
+	 * A table of 2-bit counters indexed by the address of the branch xor the global history
+	 */
+	public static class Gshare extends BranchPredictor {
+
+		private final byte[] counters;
+		private final int mask;
+		private final int historyMask;
+		private int history;
+
+		/**
+		 * @param bits The log2 of the number of counters
+		 * @param historyLength The number of outcomes in the history, at most 32
+		 */
+		public Gshare(int bits, int historyLength) {
+			super("gshare:" + bits + ":" + historyLength);
+			if(historyLength < 0 || historyLength > 32) {
+				throw new IllegalArgumentException("The history of gshare holds at most 32 outcomes");
+			}
+			counters = new byte[1 << bits];
+			mask = counters.length - 1;
+			historyMask = historyLength == 32 ? -1 : (1 << historyLength) - 1;
+			Arrays.fill(counters, (byte) 1);
+		}
+
+		@Override
+		public boolean predict(int pc, int target) {
+			return counters[index(pc)] >= 2;
+		}
+
+		@Override
+		public void update(int pc, int target, boolean taken) {
+			int index = index(pc);
+			counters[index] = train(counters[index], taken);
+			history = history << 1 | (taken ? 1 : 0);
+		}
+
+		private int index(int pc) {
+			return ((pc >>> 1) ^ (history & historyMask)) & mask;
+		}
+	}
+
+	/**
+	 * Chooses between a bimodal and a gshare predictor per branch, with a table of 2-bit counters
+	 * trained towards whichever was right when they disagree, like the Alpha 21264
+	 */
+	public static class Tournament extends BranchPredictor {
+
+		private final Bimodal bimodal;
+		private final Gshare gshare;
+		private final byte[] choosers; //2 and 3 choose gshare
+		private final int mask;
+		private boolean bimodalPrediction; //Of the branch being predicted
+		private boolean gsharePrediction;
+
+		/**
+		 * @param bits The log2 of the number of entries of each table
+		 */
+		public Tournament(int bits) {
+			super("tournament:" + bits);
+			bimodal = new Bimodal(bits);
+			gshare = new Gshare(bits, bits);
+			choosers = new byte[1 << bits];
+			mask = choosers.length - 1;
+			Arrays.fill(choosers, (byte) 2);
+		}
+
+		@Override
+		public boolean predict(int pc, int target) {
+			bimodalPrediction = bimodal.predict(pc, target);
+			gsharePrediction = gshare.predict(pc, target);
+			return choosers[(pc >>> 1) & mask] >= 2 ? gsharePrediction : bimodalPrediction;
+		}
+
+		@Override
+		public void update(int pc, int target, boolean taken) {
+			if(bimodalPrediction != gsharePrediction) {
+				int index = (pc >>> 1) & mask;
+				choosers[index] = train(choosers[index], gsharePrediction == taken);
+			}
+			bimodal.update(pc, target, taken);
+			gshare.update(pc, target, taken);
+		}
+	}
+
+	/**
+	 * A small TAGE predictor: A bimodal base predictor and four tables tagged with the address and global histories
+	 * of 5, 11, 23 and 47 outcomes. The prediction comes from the matching table with the longest history.
+	 * A misprediction allocates an entry in a table with a longer history, preferring entries which have not been
+	 * useful recently. Every entry has a 3-bit signed counter, a 9-bit tag and a 2-bit usefulness counter
+	 */
+	public static class Tage extends BranchPredictor {
+
+		private static final int[] HISTORY_LENGTHS = {5, 11, 23, 47};
+		private static final int TABLES = HISTORY_LENGTHS.length;
+		private static final int TAG_BITS = 9;
+		private static final int RESET_INTERVAL = 1 << 18; //Branches between halving every usefulness counter
+
+		private final Bimodal base;
+		private final int bits;
+		private final short[] tags; //Indexed by table << bits | index, -1 if empty
+		private final byte[] counters; //-4 to 3, non-negative predicts taken
+		private final byte[] useful; //0 to 3
+		private long history;
+		private long branches;
+
+		//State of the branch being predicted
+		private final int[] indices = new int[TABLES];
+		private final int[] tagsOf = new int[TABLES];
+		private int provider; //Table of the longest matching entry, or -1 if none matched
+		private boolean alternate; //Prediction of the next longest match, or the base predictor
+		private boolean prediction;
+
+		/**
+		 * @param bits The log2 of the number of entries of each tagged table. The base predictor has 4 times as many
+		 */
+		public Tage(int bits) {
+			super("tage:" + bits);
+			this.bits = bits;
+			base = new Bimodal(bits + 2);
+			tags = new short[TABLES << bits];
+			counters = new byte[tags.length];
+			useful = new byte[tags.length];
+			Arrays.fill(tags, (short) -1);
+		}
+
+		@Override
+		public boolean predict(int pc, int target) {
+			int half = pc >>> 1;
+			provider = -1;
+			int alternateTable = -1;
+			for(int t = TABLES - 1; t >= 0; t--) {
+				indices[t] = t << bits | ((half ^ half >>> bits ^ fold(history, HISTORY_LENGTHS[t], bits)) & ((1 << bits) - 1));
+				tagsOf[t] = (half ^ fold(history, HISTORY_LENGTHS[t], TAG_BITS) ^ fold(history, HISTORY_LENGTHS[t], TAG_BITS - 1) << 1)
+					& ((1 << TAG_BITS) - 1);
+				if(tags[indices[t]] == tagsOf[t]) {
+					if(provider < 0) {
+						provider = t;
+					} else if(alternateTable < 0) {
+						alternateTable = t;
+					}
+				}
+			}
+			boolean basePrediction = base.predict(pc, target);
+			alternate = alternateTable >= 0 ? counters[indices[alternateTable]] >= 0 : basePrediction;
+			prediction = provider >= 0 ? counters[indices[provider]] >= 0 : basePrediction;
+			return prediction;
+		}
+
+		@Override
+		public void update(int pc, int target, boolean taken) {
+			if(provider >= 0) {
+				int entry = indices[provider];
+				if(prediction != alternate) {
+					useful[entry] = (byte) (prediction == taken ? Math.min(useful[entry] + 1, 3) : Math.max(useful[entry] - 1, 0));
+				}
+				counters[entry] = (byte) (taken ? Math.min(counters[entry] + 1, 3) : Math.max(counters[entry] - 1, -4));
+			} else {
+				base.update(pc, target, taken);
+			}
+
+			if(prediction != taken && provider < TABLES - 1) {
+				boolean allocated = false;
+				for(int t = provider + 1; t < TABLES && !allocated; t++) {
+					int entry = indices[t];
+					if(useful[entry] == 0) {
+						tags[entry] = (short) tagsOf[t];
+						counters[entry] = (byte) (taken ? 0 : -1); //Weakly towards the outcome
+						allocated = true;
+					}
+				}
+				if(!allocated) { //Every candidate is useful. Age them, such that a later misprediction can allocate
+					for(int t = provider + 1; t < TABLES; t++) {
+						useful[indices[t]]--;
+					}
+				}
+			}
+
+			history = history << 1 | (taken ? 1 : 0);
+			if(++branches % RESET_INTERVAL == 0) {
+				for(int i = 0; i < useful.length; i++) {
+					useful[i] >>= 1;
+				}
+			}
+		}
+
+		/**
+		 * Folds the most recent outcomes of a history into a number of bits by xoring its pieces
+		 * @param history The history
+		 * @param length The number of outcomes to fold, at most 64
+		 * @param bits The number of bits to fold them into
+		 * @return The folded history
+		 */
+		private static int fold(long history, int length, int bits) {
+			long outcomes = length == 64 ? history : history & ((1L << length) - 1);
+			int folded = 0;
+			for(; outcomes != 0; outcomes >>>= bits) {
+				folded ^= (int) outcomes;
+			}
+			return folded & ((1 << bits) - 1);
+		}
+	}
+}
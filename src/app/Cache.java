@@ -0,0 +1,304 @@
+package app;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * One level of a set-associative cache in a {@link CacheHierarchy}. Only which lines are present is modelled,
+ * the data itself stays in {@link Memory}. Misses allocate the line, also for stores, and dirty lines are written
+ * back to the next level when they are evicted.
+ *
+ * The state is kept in primitive arrays indexed by {@code set * ways + way}: The line address of each way, or -1 if
+ * the way is empty, and whether it is dirty. LRU keeps the time of the last access of each way, and PLRU keeps
+ * a binary tree of ways - 1 bits per set, pointing towards the half of the set to evict from next
+ */
+public class Cache {
+
+	/** How the way to evict is chosen when a set is full */
+	public enum Replacement {
+		LRU, //The least recently used way
+		PLRU, //An approximation of LRU using one bit per node of a binary tree over the ways
+		RANDOM //A pseudo-random way
+	}
+
+	private final String name;
+	private final int size;
+	private final int ways;
+	private final int lineSize;
+	private final Replacement policy;
+	private final int latency; //Cycles taken by a hit
+
+	private final int lineBits;
+	private final int setMask;
+	private final int[] tags; //Line address held by each way, -1 if empty
+	private final boolean[] dirty;
+	private final long[] lastUse; //Only allocated for LRU
+	private final long[] plru; //Only allocated for PLRU, one tree per set
+	private long clock; //Incremented by every access, used as the time of last use
+	private long random = 0x2545F4914F6CDD1DL; //State of the xorshift generator used by RANDOM
+
+	Cache next; //The next level, or null if misses go to memory
+	int memoryLatency; //Cycles taken by memory, set by the CacheHierarchy
+
+	private long reads;
+	private long writes;
+	private long readMisses;
+	private long writeMisses;
+	private long writebacks;
+
+	/**
+	 * @param name The name of the cache in reports, eg. "L1D"
+	 * @param size The capacity in bytes
+	 * @param ways The associativity
+	 * @param lineSize The number of bytes in a line
+	 * @param policy The replacement policy
+	 * @param latency The number of cycles taken by a hit
+	 * @throws IllegalArgumentException If a size is not a power of two, or the cache holds less than one set
+	 */
+	public Cache(String name, int size, int ways, int lineSize, Replacement policy, int latency) {
+		if(Integer.bitCount(size) != 1 || Integer.bitCount(ways) != 1 || Integer.bitCount(lineSize) != 1) {
+			throw new IllegalArgumentException(name + ": The size, associativity and line size must be powers of two");
+		}
+		if(lineSize < 4 || size < ways * lineSize) {
+			throw new IllegalArgumentException(name + ": Lines must hold at least a word, and the cache at least one set");
+		}
+		if(policy == Replacement.PLRU && ways > 64) {
+			throw new IllegalArgumentException(name + ": PLRU supports at most 64 ways");
+		}
+		this.name = name;
+		this.size = size;
+		this.ways = ways;
+		this.lineSize = lineSize;
+		this.policy = policy;
+		this.latency = latency;
+		lineBits = Integer.numberOfTrailingZeros(lineSize);
+		setMask = size / (ways * lineSize) - 1;
+		tags = new int[size / lineSize];
+		dirty = new boolean[tags.length];
+		lastUse = policy == Replacement.LRU ? new long[tags.length] : null;
+		plru = policy == Replacement.PLRU ? new long[setMask + 1] : null;
+		invalidate();
+	}
+
+	/**
+	 * Creates a cache from a description like "32K:4:64:LRU:1": The size, with an optional K or M suffix,
+	 * the associativity and the line size, optionally followed by the replacement policy (LRU by default)
+	 * and the hit latency in cycles
+	 * @param name The name of the cache in reports
+	 * @param spec The description
+	 * @param latency The hit latency used if the description does not give one
+	 * @return The cache
+	 * @throws IllegalArgumentException If the description is malformed
+	 */
+	public static Cache parse(String name, String spec, int latency) {
+		String[] fields = spec.split(":");
+		if(fields.length < 3 || fields.length > 5) {
+			throw new IllegalArgumentException(name + ": Expected SIZE:WAYS:LINE[:POLICY[:LATENCY]], got " + spec);
+		}
+		Replacement policy = fields.length > 3 ? Replacement.valueOf(fields[3].toUpperCase(Locale.ROOT)) : Replacement.LRU;
+		if(fields.length > 4) {
+			latency = Integer.parseInt(fields[4]);
+		}
+		return new Cache(name, parseSize(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), policy, latency);
+	}
+
+	/**
+	 * @param size A number of bytes, optionally followed by K or M
+	 * @return The number of bytes
+	 * @throws NumberFormatException If the size is not a number
+	 */
+	static int parseSize(String size) {
+		String digits = size.toUpperCase(Locale.ROOT);
+		int scale = digits.endsWith("K") ? 1 << 10 : digits.endsWith("M") ? 1 << 20 : 1;
+		return Integer.parseInt(scale == 1 ? digits : digits.substring(0, digits.length() - 1)) * scale;
+	}
+
+	/**
+	 * Accesses the bytes from addr to addr + width - 1, which may span two lines
+	 * @param addr The first address accessed
+	 * @param width The number of bytes accessed
+	 * @param write True for a store
+	 * @return The number of cycles taken, including the levels below on a miss
+	 */
+	public int access(int addr, int width, boolean write) {
+		int cycles = access(addr, write);
+		if(((addr ^ (addr + width - 1)) >>> lineBits) != 0) {
+			cycles += access(addr + width - 1, write);
+		}
+		return cycles;
+	}
+
+	/**
+	 * Accesses the line holding an address
+	 * @param addr The address accessed
+	 * @param write True for a store
+	 * @return The number of cycles taken, including the levels below on a miss
+	 */
+	private int access(int addr, boolean write) {
+		int line = addr >>> lineBits;
+		int base = (line & setMask) * ways;
+		clock++;
+		if(write) {
+			writes++;
+		} else {
+			reads++;
+		}
+		for(int way = 0; way < ways; way++) {
+			if(tags[base + way] == line) {
+				touch(base, way);
+				dirty[base + way] |= write;
+				return latency;
+			}
+		}
+
+		if(write) {
+			writeMisses++;
+		} else {
+			readMisses++;
+		}
+		int way = victim(base);
+		int evicted = tags[base + way];
+		if(evicted != -1 && dirty[base + way]) {
+			writebacks++;
+			if(next != null) { //Written back through a buffer, so the latency is not added
+				next.access(evicted << lineBits, true);
+			}
+		}
+		tags[base + way] = line;
+		dirty[base + way] = write;
+		touch(base, way);
+		return latency + (next == null ? memoryLatency : next.access(addr, false));
+	}
+
+	/**
+	 * Chooses the way to fill on a miss. Empty ways are always filled first
+	 * @param base The index of the first way of the set
+	 * @return The way
+	 */
+	private int victim(int base) {
+		for(int way = 0; way < ways; way++) {
+			if(tags[base + way] == -1) {
+				return way;
+			}
+		}
+		switch(policy) {
+			case LRU:
+				int oldest = 0;
+				for(int way = 1; way < ways; way++) {
+					if(lastUse[base + way] < lastUse[base + oldest]) {
+						oldest = way;
+					}
+				}
+				return oldest;
+			case PLRU:
+				long bits = plru[base / ways];
+				int node = 1;
+				while(node < ways) { //Follow the bits down the tree. The leaves are ways + way
+					node = 2 * node + (int) ((bits >>> node) & 1);
+				}
+				return node - ways;
+			default:
+				random ^= random << 13;
+				random ^= random >>> 7;
+				random ^= random << 17;
+				return (int) ((random >>> 33) & (ways - 1));
+		}
+	}
+
+	/**
+	 * Records an access to a way for the replacement policy
+	 * @param base The index of the first way of the set
+	 * @param way The way accessed
+	 */
+	private void touch(int base, int way) {
+		if(lastUse != null) {
+			lastUse[base + way] = clock;
+		} else if(plru != null) {
+			int set = base / ways;
+			long bits = plru[set];
+			for(int node = ways + way; node > 1; node >>>= 1) { //Point every node on the path away from the way
+				int parent = node >>> 1;
+				if((node & 1) == 0) {
+					bits |= 1L << parent;
+				} else {
+					bits &= ~(1L << parent);
+				}
+			}
+			plru[set] = bits;
+		}
+	}
+
+	/**
+	 * Empties the cache, without writing back dirty lines. The counts are kept
+	 */
+	public void invalidate() {
+		Arrays.fill(tags, -1);
+		Arrays.fill(dirty, false);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** @return The capacity in bytes */
+	public int getSize() {
+		return size;
+	}
+
+	public int getWays() {
+		return ways;
+	}
+
+	public int getLineSize() {
+		return lineSize;
+	}
+
+	public Replacement getPolicy() {
+		return policy;
+	}
+
+	/** @return The number of cycles taken by a hit */
+	public int getLatency() {
+		return latency;
+	}
+
+	/** @return The number of lines accessed, including write backs from the level above */
+	public long getAccesses() {
+		return reads + writes;
+	}
+
+	public long getMisses() {
+		return readMisses + writeMisses;
+	}
+
+	public long getReadMisses() {
+		return readMisses;
+	}
+
+	public long getWriteMisses() {
+		return writeMisses;
+	}
+
+	/** @return The number of dirty lines written back to the next level or memory */
+	public long getWritebacks() {
+		return writebacks;
+	}
+
+	/** @return The fraction of accesses which missed, 0 if there were none */
+	public double getMissRate() {
+		return getAccesses() == 0 ? 0 : (double) getMisses() / getAccesses();
+	}
+
+	/**
+	 * @return The configuration, eg. "32KiB, 8-way, 64B lines, LRU, 1 cycle hits"
+	 */
+	String describe() {
+		String capacity = size >= 1 << 10 ? (size >> 10) + "KiB" : size + "B";
+		return String.format("%s, %d-way, %dB lines, %s, %d cycle hits", capacity, ways, lineSize, policy, latency);
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + describe();
+	}
+}
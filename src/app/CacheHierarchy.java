@@ -0,0 +1,146 @@
+package app;
+
+import java.io.PrintStream;
+
+/**
+ * A model of the memory hierarchy seen by a program: Separate L1 instruction and data caches, and an optional L2
+ * shared by both, in front of memory with a fixed latency. Attached with {@link RiscV#setCaches(CacheHierarchy)},
+ * after which every instruction fetch, load and store is passed through it, or given to a {@link PipelineModel},
+ * which stalls for the cycles the accesses take. The model only counts hits and misses and the cycles they would take,
+ * so the program runs exactly as without it.
+ *
+ * The average memory access time (AMAT) is the number of cycles taken by all accesses divided by the number of accesses,
+ * ie. the L1 latency plus the cost of its misses, given by the levels below
+ */
+public class CacheHierarchy implements AccessObserver {
+
+	public static final int DEFAULT_MEMORY_LATENCY = 100;
+
+	private final Cache l1i;
+	private final Cache l1d;
+	private final Cache l2; //Null if there is no L2
+	private final int memoryLatency;
+
+	private long fetches;
+	private long fetchCycles;
+	private long dataAccesses;
+	private long dataCycles;
+
+	/**
+	 * @param l1i The L1 instruction cache
+	 * @param l1d The L1 data cache
+	 * @param l2 The L2 cache, or null to go straight to memory on L1 misses
+	 * @param memoryLatency The number of cycles taken by an access to memory
+	 */
+	public CacheHierarchy(Cache l1i, Cache l1d, Cache l2, int memoryLatency) {
+		this.l1i = l1i;
+		this.l1d = l1d;
+		this.l2 = l2;
+		this.memoryLatency = memoryLatency;
+		l1i.next = l2;
+		l1d.next = l2;
+		for(Cache cache : new Cache[] {l1i, l1d, l2}) {
+			if(cache != null) {
+				cache.memoryLatency = memoryLatency;
+			}
+		}
+	}
+
+	/**
+	 * Creates the default hierarchy: 32KiB 8-way L1 caches taking 1 cycle, and a 256KiB 8-way L2 taking 10 cycles,
+	 * all with 64 byte lines and LRU replacement
+	 * @param withL2 False to leave out the L2
+	 * @return The hierarchy
+	 */
+	public static CacheHierarchy defaults(boolean withL2) {
+		return new CacheHierarchy(new Cache("L1I", 32 << 10, 8, 64, Cache.Replacement.LRU, 1),
+			new Cache("L1D", 32 << 10, 8, 64, Cache.Replacement.LRU, 1),
+			withL2 ? new Cache("L2", 256 << 10, 8, 64, Cache.Replacement.LRU, 10) : null, DEFAULT_MEMORY_LATENCY);
+	}
+
+	@Override
+	public void fetch(int pc, int length) {
+		fetchTime(pc, length);
+	}
+
+	@Override
+	public void data(int addr, int width, boolean write) {
+		dataTime(addr, width, write);
+	}
+
+	/**
+	 * Fetches an instruction, like {@link #fetch(int, int)}
+	 * @param pc The address of the instruction
+	 * @param length The length of the instruction in bytes
+	 * @return The number of cycles taken
+	 */
+	int fetchTime(int pc, int length) {
+		int cycles = l1i.access(pc, length, false);
+		fetches++;
+		fetchCycles += cycles;
+		return cycles;
+	}
+
+	/**
+	 * Loads or stores data, like {@link #data(int, int, boolean)}
+	 * @param addr The first address accessed
+	 * @param width The number of bytes accessed
+	 * @param write True for a store
+	 * @return The number of cycles taken
+	 */
+	int dataTime(int addr, int width, boolean write) {
+		int cycles = l1d.access(addr, width, write);
+		dataAccesses++;
+		dataCycles += cycles;
+		return cycles;
+	}
+
+	public Cache getL1i() {
+		return l1i;
+	}
+
+	public Cache getL1d() {
+		return l1d;
+	}
+
+	/** @return The L2 cache, or null if there is none */
+	public Cache getL2() {
+		return l2;
+	}
+
+	public int getMemoryLatency() {
+		return memoryLatency;
+	}
+
+	/** @return The average number of cycles taken by an instruction fetch */
+	public double getInstructionAmat() {
+		return fetches == 0 ? 0 : (double) fetchCycles / fetches;
+	}
+
+	/** @return The average number of cycles taken by a load or store */
+	public double getDataAmat() {
+		return dataAccesses == 0 ? 0 : (double) dataCycles / dataAccesses;
+	}
+
+	/** @return The average number of cycles taken by any access, fetches and data alike */
+	public double getAmat() {
+		long accesses = fetches + dataAccesses;
+		return accesses == 0 ? 0 : (double) (fetchCycles + dataCycles) / accesses;
+	}
+
+	/**
+	 * Prints the configuration, hits and misses of every cache and the AMAT
+	 * @param out The stream to print to
+	 */
+	public void printSummary(PrintStream out) {
+		out.printf("Cache hierarchy, memory latency %d cycles:\n", memoryLatency);
+		out.printf("  %-5s %14s %14s %8s %12s\n", "Cache", "Accesses", "Misses", "Miss %", "Writebacks");
+		for(Cache cache : new Cache[] {l1i, l1d, l2}) {
+			if(cache != null) {
+				out.printf("  %-5s %14d %14d %7.2f%% %12d   %s\n", cache.getName(), cache.getAccesses(), cache.getMisses(),
+					100 * cache.getMissRate(), cache.getWritebacks(), cache.describe());
+			}
+		}
+		out.printf("AMAT: %.3f cycles (instructions %.3f, data %.3f)\n", getAmat(), getInstructionAmat(), getDataAmat());
+	}
+}
@@ -0,0 +1,430 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates many cache configurations against one stream of accesses, such that a design space of sizes,
+ * associativities and line sizes is explored without running the program once per configuration.
+ * The stream is either observed live, by attaching the sweep with {@link RiscV#setAccessObserver(AccessObserver)},
+ * or replayed from a trace written by {@link TraceWriter}.
+ *
+ * Accesses are collected in chunks, and every chunk is handed to all configurations at once, split across the threads
+ * of a fork/join pool while the next chunk is being collected. LRU configurations with the same line size and number
+ * of sets are evaluated together in one pass: Each set keeps a stack of its lines, most recently used first, and a hit
+ * at depth d of the stack is a hit in every such cache with more than d ways. Other replacement policies are simulated
+ * with a {@link Cache} per configuration.
+ *
+ * Can also be run from the command line. Run without arguments for usage
+ */
+public class CacheSweep implements AccessObserver {
+
+	/** Which accesses are fed to the caches */
+	public enum Stream {
+		INSTRUCTIONS,
+		DATA,
+		UNIFIED
+	}
+
+	private static final int CHUNK = 1 << 16; //Accesses collected before they are handed to the configurations
+	private static final int WRITE = 0x80; //Set in the info of stores
+	private static final int WIDTH = 0x7F; //The bits of the info holding the width
+
+	/**
+	 * The outcome of one configuration
+	 */
+	public static class Result {
+		public final int size;
+		public final int ways;
+		public final int lineSize;
+		public final Cache.Replacement policy;
+		public final long accesses; //Lines accessed, ie. accesses spanning two lines count twice
+		public final long misses;
+
+		Result(int size, int ways, int lineSize, Cache.Replacement policy, long accesses, long misses) {
+			this.size = size;
+			this.ways = ways;
+			this.lineSize = lineSize;
+			this.policy = policy;
+			this.accesses = accesses;
+			this.misses = misses;
+		}
+
+		/** @return The fraction of accesses which missed, 0 if there were none */
+		public double getMissRate() {
+			return accesses == 0 ? 0 : (double) misses / accesses;
+		}
+	}
+
+	private final Stream stream;
+	private final List<Pass> passes = new ArrayList<Pass>();
+	private final ForkJoinPool pool;
+	private int[] addresses = new int[CHUNK];
+	private byte[] info = new byte[CHUNK];
+	private int count;
+	private int[] spareAddresses = new int[CHUNK]; //The chunk being processed while the next one is collected
+	private byte[] spareInfo = new byte[CHUNK];
+	private ForkJoinTask<?> pending; //Processing of the previous chunk, or null
+
+	/**
+	 * Sets up every combination of the given sizes, associativities and line sizes.
+	 * Combinations where the cache would hold less than one set are left out
+	 * @param sizes The capacities in bytes
+	 * @param ways The associativities
+	 * @param lineSizes The line sizes in bytes
+	 * @param policy The replacement policy of every configuration
+	 * @param stream The accesses to feed to the caches
+	 * @param threads The number of threads evaluating the configurations
+	 * @throws IllegalArgumentException If a size is not a power of two, or a line is smaller than a word
+	 */
+	public CacheSweep(int[] sizes, int[] ways, int[] lineSizes, Cache.Replacement policy, Stream stream, int threads) {
+		this.stream = stream;
+		Map<Long, TreeSet<Integer>> groups = new TreeMap<Long, TreeSet<Integer>>(); //Associativities by {line size, sets}
+		for(int size : sizes) {
+			for(int way : ways) {
+				for(int lineSize : lineSizes) {
+					if(Integer.bitCount(size) != 1 || Integer.bitCount(way) != 1 || Integer.bitCount(lineSize) != 1 || lineSize < 4) {
+						throw new IllegalArgumentException("Sizes, associativities and line sizes must be powers of two, and lines at least 4 bytes");
+					}
+					if(size < way * lineSize) {
+						continue;
+					}
+					if(policy == Cache.Replacement.LRU) {
+						long key = (long) lineSize << 32 | size / (way * lineSize);
+						groups.computeIfAbsent(key, k -> new TreeSet<Integer>()).add(way);
+					} else {
+						passes.add(new CachePass(new Cache("Sweep", size, way, lineSize, policy, 1)));
+					}
+				}
+			}
+		}
+		for(Map.Entry<Long, TreeSet<Integer>> group : groups.entrySet()) {
+			int[] associativities = group.getValue().stream().mapToInt(Integer::intValue).toArray();
+			passes.add(new StackPass((int) (group.getKey() >>> 32), (int) (long) group.getKey(), associativities));
+		}
+		pool = new ForkJoinPool(threads);
+	}
+
+	@Override
+	public void fetch(int pc, int length) {
+		if(stream != Stream.DATA) {
+			add(pc, length);
+		}
+	}
+
+	@Override
+	public void data(int addr, int width, boolean write) {
+		if(stream != Stream.INSTRUCTIONS) {
+			add(addr, write ? width | WRITE : width);
+		}
+	}
+
+	private void add(int addr, int accessInfo) {
+		addresses[count] = addr;
+		info[count] = (byte) accessInfo;
+		if(++count == CHUNK) {
+			handOver();
+		}
+	}
+
+	/**
+	 * Feeds every access of a trace to the configurations
+	 * @param trace The trace, positioned before its first record
+	 * @throws IOException If the trace could not be read
+	 */
+	public void replay(TraceReader trace) throws IOException {
+		while(trace.next()) {
+			Instruction inst = trace.getDecoded();
+			fetch(trace.getPC(), inst.length);
+			if(trace.isMemoryAccess()) {
+				data(trace.getAddress(), 1 << (inst.funct3 & 3), inst.opcode == Instruction.Stype);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the configurations to process the chunk handed over before, then hands over the current chunk
+	 * and starts collecting the next one in the other buffer
+	 */
+	private void handOver() {
+		if(pending != null) {
+			pending.join();
+		}
+		int[] chunkAddresses = addresses;
+		byte[] chunkInfo = info;
+		int chunkCount = count;
+		pending = pool.submit(new Split(passes, 0, passes.size(), chunkAddresses, chunkInfo, chunkCount));
+		addresses = spareAddresses;
+		info = spareInfo;
+		spareAddresses = chunkAddresses;
+		spareInfo = chunkInfo;
+		count = 0;
+	}
+
+	/**
+	 * Processes the remaining accesses and stops the threads. No more accesses may be fed afterwards
+	 * @return The result of every configuration, by line size, size and associativity
+	 */
+	public List<Result> finish() {
+		handOver();
+		pending.join();
+		pool.shutdown();
+		List<Result> results = new ArrayList<Result>();
+		for(Pass pass : passes) {
+			pass.results(results);
+		}
+		results.sort((a, b) -> a.lineSize != b.lineSize ? Integer.compare(a.lineSize, b.lineSize)
+			: a.size != b.size ? Integer.compare(a.size, b.size) : Integer.compare(a.ways, b.ways));
+		return results;
+	}
+
+	/**
+	 * @return The number of passes made over each chunk, which is less than the number of configurations
+	 *         when LRU configurations share a pass
+	 */
+	public int getPasses() {
+		return passes.size();
+	}
+
+	/**
+	 * Prints the results as a table
+	 * @param out The stream to print to
+	 * @param results The results of {@link #finish()}
+	 */
+	public static void printResults(PrintStream out, List<Result> results) {
+		out.printf("%10s %5s %5s %-7s %14s %14s %8s\n", "Size", "Ways", "Line", "Policy", "Accesses", "Misses", "Miss %");
+		for(Result result : results) {
+			out.printf("%10d %5d %5d %-7s %14d %14d %7.3f%%\n", result.size, result.ways, result.lineSize, result.policy,
+				result.accesses, result.misses, 100 * result.getMissRate());
+		}
+	}
+
+	/**
+	 * A pass over every chunk, evaluating one or more configurations
+	 */
+	private static abstract class Pass {
+
+		/**
+		 * Feeds a chunk of accesses to the configurations
+		 * @param addresses The addresses accessed
+		 * @param info The width of each access, with {@link #WRITE} set for stores
+		 * @param count The number of accesses in the chunk
+		 */
+		abstract void run(int[] addresses, byte[] info, int count);
+
+		/**
+		 * @param results The list to add the result of every configuration to
+		 */
+		abstract void results(List<Result> results);
+	}
+
+	/**
+	 * Evaluates every LRU cache with a given line size and number of sets, using the stack distance of each access.
+	 * Only the depth of the most associative cache is kept per set, since deeper lines miss in all of them
+	 */
+	private static class StackPass extends Pass {
+
+		private final int lineBits;
+		private final int sets;
+		private final int[] ways; //Ascending
+		private final int depth;
+		private final int[] stacks; //Line addresses of each set, most recently used first, -1 if empty
+		private final long[] hits; //Number of accesses found at each depth
+		private long accesses;
+
+		StackPass(int lineSize, int sets, int[] ways) {
+			lineBits = Integer.numberOfTrailingZeros(lineSize);
+			this.sets = sets;
+			this.ways = ways;
+			depth = ways[ways.length - 1];
+			stacks = new int[sets * depth];
+			Arrays.fill(stacks, -1);
+			hits = new long[depth];
+		}
+
+		@Override
+		void run(int[] addresses, byte[] info, int count) {
+			for(int i = 0; i < count; i++) {
+				int addr = addresses[i];
+				int last = addr + (info[i] & WIDTH) - 1;
+				access(addr >>> lineBits);
+				if(((addr ^ last) >>> lineBits) != 0) {
+					access(last >>> lineBits);
+				}
+			}
+		}
+
+		private void access(int line) {
+			accesses++;
+			int base = (line & (sets - 1)) * depth;
+			int d = 0;
+			while(d < depth && stacks[base + d] != line) {
+				d++;
+			}
+			if(d < depth) {
+				hits[d]++;
+			} else { //A miss in every configuration. The least recently used line falls off the stack
+				d = depth - 1;
+			}
+			System.arraycopy(stacks, base, stacks, base + 1, d);
+			stacks[base] = line;
+		}
+
+		@Override
+		void results(List<Result> results) {
+			int lineSize = 1 << lineBits;
+			for(int way : ways) {
+				long hit = 0;
+				for(int d = 0; d < way; d++) {
+					hit += hits[d];
+				}
+				results.add(new Result(sets * way * lineSize, way, lineSize, Cache.Replacement.LRU, accesses, accesses - hit));
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a single configuration by simulating it
+	 */
+	private static class CachePass extends Pass {
+
+		private final Cache cache;
+
+		CachePass(Cache cache) {
+			this.cache = cache;
+		}
+
+		@Override
+		void run(int[] addresses, byte[] info, int count) {
+			for(int i = 0; i < count; i++) {
+				cache.access(addresses[i], info[i] & WIDTH, (info[i] & WRITE) != 0);
+			}
+		}
+
+		@Override
+		void results(List<Result> results) {
+			results.add(new Result(cache.getSize(), cache.getWays(), cache.getLineSize(), cache.getPolicy(),
+				cache.getAccesses(), cache.getMisses()));
+		}
+	}
+
+	/**
+	 * Runs a range of passes over a chunk, splitting the range until each task runs one pass
+	 */
+	private static class Split extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Pass> passes;
+		private final int from;
+		private final int to;
+		private final int[] chunkAddresses;
+		private final byte[] chunkInfo;
+		private final int chunkCount;
+
+		Split(List<Pass> passes, int from, int to, int[] chunkAddresses, byte[] chunkInfo, int chunkCount) {
+			this.passes = passes;
+			this.from = from;
+			this.to = to;
+			this.chunkAddresses = chunkAddresses;
+			this.chunkInfo = chunkInfo;
+			this.chunkCount = chunkCount;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				passes.get(from).run(chunkAddresses, chunkInfo, chunkCount);
+			} else if(to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Split(passes, from, middle, chunkAddresses, chunkInfo, chunkCount),
+					new Split(passes, middle, to, chunkAddresses, chunkInfo, chunkCount));
+			}
+		}
+	}
+
+	/**
+	 * Sweeps cache configurations over a trace, or over a program which is run once
+	 * @param args The trace or program, followed by any options
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length == 0 || args.length % 2 == 0) {
+			System.out.println("Usage: java -cp out app.CacheSweep <trace|program> [--sizes 1K,2K,...] [--ways 1,2,...] [--lines 16,32,...] [--policy LRU|PLRU|RANDOM] [--stream data|instructions|unified] [--threads N]");
+			System.out.println("  <trace|program>: A trace written with --trace, or a program to run once. The .bin extension may be left out");
+			System.out.println("  --sizes, --ways, --lines: The values to combine. Default to 1K to 64K, 1 to 8 ways and 16 to 64 byte lines");
+			System.out.println("  --policy: The replacement policy. LRU configurations are evaluated together, and are therefore fastest");
+			System.out.println("  --stream: Which accesses to feed to the caches. Defaults to data");
+			System.out.println("  --threads N: Number of threads. Defaults to the number of processors");
+			System.exit(1);
+		}
+		int[] sizes = {1 << 10, 2 << 10, 4 << 10, 8 << 10, 16 << 10, 32 << 10, 64 << 10};
+		int[] ways = {1, 2, 4, 8};
+		int[] lines = {16, 32, 64};
+		Cache.Replacement policy = Cache.Replacement.LRU;
+		Stream stream = Stream.DATA;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for(int i = 1; i < args.length; i += 2) {
+			switch(args[i]) {
+				case "--sizes":
+					sizes = parseList(args[i + 1]);
+					break;
+				case "--ways":
+					ways = parseList(args[i + 1]);
+					break;
+				case "--lines":
+					lines = parseList(args[i + 1]);
+					break;
+				case "--policy":
+					policy = Cache.Replacement.valueOf(args[i + 1].toUpperCase(Locale.ROOT));
+					break;
+				case "--stream":
+					stream = Stream.valueOf(args[i + 1].toUpperCase(Locale.ROOT));
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[i + 1]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		File file = new File(args[0]);
+		if(!file.isFile()) {
+			file = new File(args[0] + ".bin");
+		}
+		CacheSweep sweep = new CacheSweep(sizes, ways, lines, policy, stream, threads);
+		long start = System.nanoTime();
+		if(TraceReader.isTrace(file)) {
+			try(TraceReader trace = new TraceReader(file)) {
+				sweep.replay(trace);
+			}
+		} else {
+			RiscV rv = new RiscV(file);
+			rv.setAccessObserver(sweep);
+			rv.runHeadless();
+		}
+		List<Result> results = sweep.finish();
+		printResults(System.out, results);
+		System.out.printf("Evaluated %d configurations in %d passes, in %.3f s\n", results.size(), sweep.getPasses(), (System.nanoTime() - start) / 1e9);
+	}
+
+	private static int[] parseList(String list) {
+		String[] values = list.split(",");
+		int[] parsed = new int[values.length];
+		for(int i = 0; i < values.length; i++) {
+			parsed[i] = Cache.parseSize(values[i]);
+		}
+		return parsed;
+	}
+}
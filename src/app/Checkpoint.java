@@ -0,0 +1,243 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The state of a simulator saved to a file, such that a long simulation can be continued in another process.
+ * Written with {@link RiscV#writeCheckpoint(File, boolean)}, and resumed by loading the file as a program.
+ *
+ * All values are big-endian, as written by {@link DataOutputStream}. The file starts with a header of 4 words:
+ * {@link #MAGIC}, the version and flags as two halfwords, the number of memory pages, and a reserved word.
+ * If {@link #FLAG_GZIP} is set, everything after the header is gzip compressed. The header is followed by
+ * PC, the entry point, the number of instructions retired, whether the program is still running, the program break
+ * of {@link Syscalls}, the 32 registers,
+ * the breakpoints and watchpoints as a count followed by the addresses, the statistics, the symbols,
+ * and the page numbers. Last come the allocated pages of memory, {@link Memory#PAGE_SIZE} bytes each, in the order
+ * of their numbers. Pages which were never written are not in the file, since they read as 0
+ */
+public class Checkpoint {
+
+	public static final int MAGIC = 0x5256434B; //"RVCK"
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 16;
+	public static final int FLAG_GZIP = 1;
+	private static final int MAX_GZIP_RATIO = 1032; //The most a deflate stream can expand
+	private static final int MAX_PAGES = 1 << (32 - Memory.PAGE_BITS);
+
+	final int pc;
+	final int entry;
+	final long instret;
+	final boolean running;
+	final int brk;
+	final int[] reg;
+	final int[] breakpoints;
+	final int[] watchpoints;
+	final SymbolTable symbols;
+
+	Checkpoint(int pc, int entry, long instret, boolean running, int brk, int[] reg, int[] breakpoints, int[] watchpoints, SymbolTable symbols) {
+		this.pc = pc;
+		this.entry = entry;
+		this.instret = instret;
+		this.running = running;
+		this.brk = brk;
+		this.reg = reg.clone();
+		this.breakpoints = breakpoints;
+		this.watchpoints = watchpoints;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Checks whether a file is a checkpoint
+	 * @param file The file to check
+	 * @return True if the file starts with {@link #MAGIC}
+	 * @throws IOException If the file cannot be read
+	 */
+	public static boolean isCheckpoint(File file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			return !header.hasRemaining() && header.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Writes the checkpoint along with the contents of memory and the statistics.
+	 * The file is first written under a temporary name and then renamed, such that a crash while writing
+	 * never leaves a damaged checkpoint in place of the previous one
+	 * @param file The file to write
+	 * @param compress True to gzip compress everything after the header
+	 * @param mem The memory to save
+	 * @param stats The statistics to save. Only the published counts are saved
+	 * @throws IOException If the file could not be written
+	 */
+	void write(File file, boolean compress, Memory mem, Statistics stats) throws IOException {
+		int[] pages = mem.getPageNumbers();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(pc);
+		out.writeInt(entry);
+		out.writeLong(instret);
+		out.writeBoolean(running);
+		out.writeInt(brk);
+		for(int value : reg) {
+			out.writeInt(value);
+		}
+		writeInts(out, breakpoints);
+		writeInts(out, watchpoints);
+		stats.write(out);
+		symbols.write(out);
+		for(int number : pages) {
+			out.writeInt(number);
+		}
+		out.flush();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putShort((short) VERSION).putShort((short) (compress ? FLAG_GZIP : 0)).putInt(pages.length).putInt(0);
+		header.flip();
+
+		File temp = new File(file.getPath() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if(compress) {
+				writeFully(channel, new ByteBuffer[] {header});
+				GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16);
+				bytes.writeTo(gzip);
+				byte[] page = new byte[Memory.PAGE_SIZE];
+				for(int number : pages) {
+					mem.getPage(number).get(page);
+					gzip.write(page);
+				}
+				gzip.finish(); //Not closed, since that would close the channel before it is forced
+			} else { //Pages are written straight from memory, in one gathering write
+				ByteBuffer[] buffers = new ByteBuffer[pages.length + 2];
+				buffers[0] = header;
+				buffers[1] = ByteBuffer.wrap(bytes.toByteArray());
+				for(int i = 0; i < pages.length; i++) {
+					buffers[i + 2] = mem.getPage(pages[i]);
+				}
+				writeFully(channel, buffers);
+			}
+			channel.force(false);
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads a checkpoint, loading its pages into memory and adding its counts to the statistics
+	 * @param file The checkpoint file
+	 * @param mem The memory to load the pages into
+	 * @param stats The statistics to add the saved counts to
+	 * @return The rest of the saved state
+	 * @throws IOException If the file could not be read, is not a checkpoint of a supported version, or is truncated
+	 *         or corrupt such that a count in it could not fit in the file
+	 */
+	static Checkpoint read(File file, Memory mem, Statistics stats) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			if(header.hasRemaining() || header.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+			if(header.getShort(4) != VERSION) {
+				throw new IOException(file + " has unsupported checkpoint version " + header.getShort(4));
+			}
+			InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+			long bytes = channel.size() - HEADER_SIZE; //The most bytes which can follow the header, to check counts against
+			if((header.getShort(6) & FLAG_GZIP) != 0) {
+				stream = new GZIPInputStream(stream, 1 << 16);
+				bytes *= MAX_GZIP_RATIO;
+			}
+			DataInputStream in = new DataInputStream(stream);
+
+			int pc = in.readInt();
+			int entry = in.readInt();
+			long instret = in.readLong();
+			boolean running = in.readBoolean();
+			int brk = in.readInt();
+			int[] reg = new int[32];
+			for(int i = 0; i < reg.length; i++) {
+				reg[i] = in.readInt();
+			}
+			int[] breakpoints = readInts(in, bytes / 4, "breakpoints");
+			int[] watchpoints = readInts(in, bytes / 4, "watchpoints");
+			stats.read(in);
+			SymbolTable symbols = SymbolTable.read(in, bytes / 10); //An address, a size and the length of a name
+			int[] pages = new int[checkCount(header.getInt(8), Math.min(bytes / Memory.PAGE_SIZE, MAX_PAGES), "pages")];
+			for(int i = 0; i < pages.length; i++) {
+				pages[i] = in.readInt();
+				if(pages[i] < 0 || pages[i] >= MAX_PAGES) {
+					throw new IOException(file + " holds invalid page number " + pages[i]);
+				}
+			}
+			byte[] page = new byte[Memory.PAGE_SIZE];
+			for(int number : pages) {
+				in.readFully(page);
+				mem.write(number << Memory.PAGE_BITS, page, 0, page.length);
+			}
+			return new Checkpoint(pc, entry, instret, running, brk, reg, breakpoints, watchpoints, symbols);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for(int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * Reads a count followed by that many values
+	 * @param max The largest count which can fit in the rest of the checkpoint
+	 * @param what The values, in the error message
+	 */
+	private static int[] readInts(DataInputStream in, long max, String what) throws IOException {
+		int[] values = new int[checkCount(in.readInt(), max, what)];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	/**
+	 * @return The count, if it is between 0 and max
+	 * @throws IOException If the count is out of range, as in a corrupt checkpoint
+	 */
+	private static int checkCount(int count, long max, String what) throws IOException {
+		if(count < 0 || count > max) {
+			throw new IOException("Invalid number of " + what + " " + count + " in checkpoint, at most " + max + " fit in the file");
+		}
+		return count;
+	}
+
+	/**
+	 * Writes buffers with as few system calls as possible. A gathering write may stop early, eg. after IOV_MAX buffers,
+	 * so it is repeated from the first buffer which was not written completely
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+		int first = 0;
+		while(first < buffers.length) {
+			channel.write(buffers, first, buffers.length - first);
+			while(first < buffers.length && !buffers[first].hasRemaining()) {
+				first++;
+			}
+		}
+	}
+}
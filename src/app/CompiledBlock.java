@@ -0,0 +1,16 @@
+package app;
+
+/**
+ * A basic block which has been compiled to JVM bytecode by the {@link JitCompiler}
+ */
+interface CompiledBlock {
+
+	/**
+	 * Executes the block. For blocks ending in an ECALL, the ECALL itself is not executed
+	 * @param reg The register file of the simulator
+	 * @param rv The simulator, used for memory accesses
+	 * @return The address of the next instruction to execute. This is the address of the ECALL
+	 *         for blocks ending in one, or the instruction following a store that modified code
+	 */
+	int execute(int[] reg, RiscV rv);
+}
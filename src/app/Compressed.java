@@ -0,0 +1,166 @@
+package app;
+
+/**
+ * Expands instructions of the RV32C extension into the equivalent 32-bit instructions, such that they are executed,
+ * translated and compiled exactly like the instructions they stand for. Expansions are cached along with the rest of
+ * the decoded instruction in the {@link DecodeCache}, so each compressed instruction is only expanded once.
+ *
+ * The floating point loads and stores of RV32C are not supported, since neither is the F or D extension
+ */
+public class Compressed {
+
+	/**
+	 * Expands a compressed instruction
+	 * @param inst The 16-bit instruction, whose lowest two bits are not 11
+	 * @return The equivalent 32-bit instruction, or 0 if the instruction is illegal, reserved or not supported,
+	 *         which decodes to {@link RiscvOp#ERROR}
+	 */
+	public static int expand(int inst) {
+		int funct3 = bits(inst, 15, 13);
+		int rd = bits(inst, 11, 7); //Also rs1 of the CI and CR formats
+		int rs2 = bits(inst, 6, 2);
+		int rdPrime = bits(inst, 9, 7) + 8; //Also rs1' of the CL, CS and CB formats
+		int rs2Prime = bits(inst, 4, 2) + 8;
+		switch(inst & 3) {
+			case 0:
+				switch(funct3) {
+					case 0: //C.ADDI4SPN
+						int nzuimm = bits(inst, 12, 11) << 4 | bits(inst, 10, 7) << 6 | bit(inst, 6) << 2 | bit(inst, 5) << 3;
+						return nzuimm == 0 ? 0 : itype(nzuimm, 2, 0, rs2Prime, Instruction.ItypeRtype);
+					case 2: //C.LW
+						return itype(wordOffset(inst), rdPrime, 2, rs2Prime, Instruction.Itype1);
+					case 6: //C.SW
+						return stype(wordOffset(inst), rs2Prime, rdPrime, 2);
+					default:
+						return 0;
+				}
+			case 1:
+				switch(funct3) {
+					case 0: //C.ADDI, C.NOP
+						return itype(imm6(inst), rd, 0, rd, Instruction.ItypeRtype);
+					case 1: //C.JAL
+						return jtype(jumpOffset(inst), 1);
+					case 2: //C.LI
+						return itype(imm6(inst), 0, 0, rd, Instruction.ItypeRtype);
+					case 3:
+						if(rd == 2) { //C.ADDI16SP
+							int nzimm = signExtend(bit(inst, 12) << 9 | bit(inst, 6) << 4 | bit(inst, 5) << 6
+								| bits(inst, 4, 3) << 7 | bit(inst, 2) << 5, 10);
+							return nzimm == 0 ? 0 : itype(nzimm, 2, 0, 2, Instruction.ItypeRtype);
+						}
+						int nzimm = signExtend(bit(inst, 12) << 17 | rs2 << 12, 18); //C.LUI
+						return nzimm == 0 ? 0 : (nzimm & 0xFFFFF000) | rd << 7 | Instruction.Utype1;
+					case 4:
+						return arithmetic(inst, rdPrime, rs2Prime);
+					case 5: //C.J
+						return jtype(jumpOffset(inst), 0);
+					default: //C.BEQZ, C.BNEZ
+						int offset = signExtend(bit(inst, 12) << 8 | bits(inst, 11, 10) << 3 | bits(inst, 6, 5) << 6
+							| bits(inst, 4, 3) << 1 | bit(inst, 2) << 5, 9);
+						return btype(offset, 0, rdPrime, funct3 == 6 ? 0 : 1);
+				}
+			default:
+				switch(funct3) {
+					case 0: //C.SLLI
+						return bit(inst, 12) != 0 ? 0 : itype(rs2, rd, 1, rd, Instruction.ItypeRtype);
+					case 2: //C.LWSP
+						int offset = bit(inst, 12) << 5 | bits(inst, 6, 4) << 2 | bits(inst, 3, 2) << 6;
+						return rd == 0 ? 0 : itype(offset, 2, 2, rd, Instruction.Itype1);
+					case 4:
+						if(bit(inst, 12) == 0) {
+							if(rs2 == 0) { //C.JR
+								return rd == 0 ? 0 : itype(0, rd, 0, 0, Instruction.Itype2);
+							}
+							return rtype(0, rs2, 0, 0, rd); //C.MV
+						}
+						if(rs2 == 0) { //C.EBREAK, C.JALR
+							return rd == 0 ? 0x00100073 : itype(0, rd, 0, 1, Instruction.Itype2);
+						}
+						return rtype(0, rs2, rd, 0, rd); //C.ADD
+					case 6: //C.SWSP
+						return stype(bits(inst, 12, 9) << 2 | bits(inst, 8, 7) << 6, rs2, 2, 2);
+					default:
+						return 0;
+				}
+		}
+	}
+
+	/**
+	 * Expands the shifts, ANDI and register-register instructions of quadrant 1
+	 */
+	private static int arithmetic(int inst, int rd, int rs2) {
+		int shamt = bit(inst, 12) << 5 | bits(inst, 6, 2);
+		switch(bits(inst, 11, 10)) {
+			case 0: //C.SRLI
+				return shamt >= 32 ? 0 : itype(shamt, rd, 5, rd, Instruction.ItypeRtype);
+			case 1: //C.SRAI
+				return shamt >= 32 ? 0 : itype(0b0100000 << 5 | shamt, rd, 5, rd, Instruction.ItypeRtype);
+			case 2: //C.ANDI
+				return itype(imm6(inst), rd, 7, rd, Instruction.ItypeRtype);
+			default:
+				if(bit(inst, 12) != 0) { //C.SUBW and C.ADDW only exist in RV64C
+					return 0;
+				}
+				switch(bits(inst, 6, 5)) {
+					case 0: //C.SUB
+						return rtype(0b0100000, rs2, rd, 0, rd);
+					case 1: //C.XOR
+						return rtype(0, rs2, rd, 4, rd);
+					case 2: //C.OR
+						return rtype(0, rs2, rd, 6, rd);
+					default: //C.AND
+						return rtype(0, rs2, rd, 7, rd);
+				}
+		}
+	}
+
+	/** @return The sign-extended 6-bit immediate of the CI format */
+	private static int imm6(int inst) {
+		return signExtend(bit(inst, 12) << 5 | bits(inst, 6, 2), 6);
+	}
+
+	/** @return The offset of C.LW and C.SW */
+	private static int wordOffset(int inst) {
+		return bits(inst, 12, 10) << 3 | bit(inst, 6) << 2 | bit(inst, 5) << 6;
+	}
+
+	/** @return The offset of C.J and C.JAL */
+	private static int jumpOffset(int inst) {
+		return signExtend(bit(inst, 12) << 11 | bit(inst, 11) << 4 | bits(inst, 10, 9) << 8 | bit(inst, 8) << 10
+			| bit(inst, 7) << 6 | bit(inst, 6) << 7 | bits(inst, 5, 3) << 1 | bit(inst, 2) << 5, 12);
+	}
+
+	private static int bit(int inst, int position) {
+		return (inst >>> position) & 1;
+	}
+
+	private static int bits(int inst, int high, int low) {
+		return (inst >>> low) & ((1 << (high - low + 1)) - 1);
+	}
+
+	private static int signExtend(int value, int width) {
+		return (value << (32 - width)) >> (32 - width);
+	}
+
+	private static int rtype(int funct7, int rs2, int rs1, int funct3, int rd) {
+		return funct7 << 25 | rs2 << 20 | rs1 << 15 | funct3 << 12 | rd << 7 | Instruction.Rtype;
+	}
+
+	private static int itype(int imm, int rs1, int funct3, int rd, int opcode) {
+		return imm << 20 | rs1 << 15 | funct3 << 12 | rd << 7 | opcode;
+	}
+
+	private static int stype(int imm, int rs2, int rs1, int funct3) {
+		return (imm >> 5) << 25 | rs2 << 20 | rs1 << 15 | funct3 << 12 | (imm & 0x1F) << 7 | Instruction.Stype;
+	}
+
+	private static int btype(int imm, int rs2, int rs1, int funct3) {
+		return bit(imm, 12) << 31 | bits(imm, 10, 5) << 25 | rs2 << 20 | rs1 << 15 | funct3 << 12
+			| bits(imm, 4, 1) << 8 | bit(imm, 11) << 7 | Instruction.Btype;
+	}
+
+	private static int jtype(int imm, int rd) {
+		return bit(imm, 20) << 31 | bits(imm, 10, 1) << 21 | bit(imm, 11) << 20 | bits(imm, 19, 12) << 12
+			| rd << 7 | Instruction.Jtype;
+	}
+}
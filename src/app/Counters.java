@@ -0,0 +1,61 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sparse table of counters, one for each halfword-aligned address, stored in pages like {@link Memory}.
+ * Used by the {@link Profiler} and the {@link BranchModel} to count events by address
+ */
+class Counters {
+
+	private static final int PAGE_BITS = 11; //Counters per page, one per halfword of a 4KiB page of memory
+	private static final int DIR_BITS = 10;
+
+	private final long[][][] table = new long[1 << DIR_BITS][][];
+
+	void add(int addr, long delta) {
+		int half = addr >>> 1;
+		long[][] dir = table[half >>> (PAGE_BITS + DIR_BITS)];
+		if(dir == null) {
+			dir = table[half >>> (PAGE_BITS + DIR_BITS)] = new long[1 << DIR_BITS][];
+		}
+		long[] page = dir[(half >>> PAGE_BITS) & ((1 << DIR_BITS) - 1)];
+		if(page == null) {
+			page = dir[(half >>> PAGE_BITS) & ((1 << DIR_BITS) - 1)] = new long[1 << PAGE_BITS];
+		}
+		page[half & ((1 << PAGE_BITS) - 1)] += delta;
+	}
+
+	long get(int addr) {
+		int half = addr >>> 1;
+		long[][] dir = table[half >>> (PAGE_BITS + DIR_BITS)];
+		long[] page = dir == null ? null : dir[(half >>> PAGE_BITS) & ((1 << DIR_BITS) - 1)];
+		return page == null ? 0 : page[half & ((1 << PAGE_BITS) - 1)];
+	}
+
+	/**
+	 * @return The {address, value} of every nonzero counter, in unsigned ascending order of address
+	 */
+	List<long[]> entries() {
+		List<long[]> entries = new ArrayList<long[]>();
+		for(int d = 0; d < table.length; d++) {
+			if(table[d] == null) {
+				continue;
+			}
+			for(int p = 0; p < table[d].length; p++) {
+				long[] page = table[d][p];
+				if(page == null) {
+					continue;
+				}
+				for(int i = 0; i < page.length; i++) {
+					if(page[i] != 0) {
+						long half = ((long) d << (PAGE_BITS + DIR_BITS)) | ((long) p << PAGE_BITS) | i;
+						entries.add(new long[] {half << 1, page[i]});
+					}
+				}
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,122 @@
+package app;
+
+/**
+ * Holds the decoded form of every instruction that has been executed, keyed by its PC.
+ * This way, each instruction word is only fetched and decoded once, no matter how many times it is executed.
+ *
+ * The cache is a sparse table covering the full 32-bit address space, with one entry per halfword, since compressed
+ * instructions are 2-byte aligned. Entries are grouped in leaves of one 4KiB page each, and leaves are only allocated
+ * once an instruction on that page is decoded.
+ * Stores into memory must call {@link #invalidate(int, int)} to keep the cache coherent with self-modifying code
+ */
+public class DecodeCache {
+
+	private static final int PAGE_BITS = 12; //4KiB pages
+	private static final int DIR_BITS = 10; //Upper 10 bits of the address index the directory
+	private static final int LEAF_SIZE = 1 << (PAGE_BITS - 1); //One entry per halfword on a page
+	private static final int DIR_SIZE = 1 << DIR_BITS;
+
+	private Instruction[][][] table;
+	private int lastPage; //Page number of the most recently used leaf
+	private Instruction[] lastLeaf; //Most recently used leaf, null if that page holds no decoded instructions
+
+	public DecodeCache() {
+		clear();
+	}
+
+	/**
+	 * Looks up the decoded instruction at the given PC
+	 * @param pc The address of the instruction
+	 * @return The decoded instruction, or null if it has not been decoded yet
+	 */
+	public Instruction get(int pc) {
+		if((pc & 1) != 0) { //Misaligned instructions are never cached
+			return null;
+		}
+		int page = pc >>> PAGE_BITS;
+		if(page != lastPage) {
+			lastLeaf = leaf(page, false);
+			lastPage = page;
+		}
+		return lastLeaf == null ? null : lastLeaf[(pc >>> 1) & (LEAF_SIZE - 1)];
+	}
+
+	/**
+	 * Stores a decoded instruction in the cache
+	 * @param pc The address the instruction was fetched from
+	 * @param inst The decoded instruction
+	 */
+	public void put(int pc, Instruction inst) {
+		if((pc & 1) != 0) {
+			return;
+		}
+		int page = pc >>> PAGE_BITS;
+		Instruction[] leaf = leaf(page, true);
+		lastPage = page;
+		lastLeaf = leaf;
+		leaf[(pc >>> 1) & (LEAF_SIZE - 1)] = inst;
+	}
+
+	/**
+	 * Removes all cached instructions overlapping the memory range {@code [addr, addr+length)}.
+	 * Must be called whenever memory is written, such that modified instructions are decoded again
+	 * @param addr The first address that was written
+	 * @param length The number of bytes written
+	 * @return True if any decoded instruction was removed
+	 */
+	public boolean invalidate(int addr, int length) {
+		int first = addr >>> 1;
+		int count = ((addr + length - 1) >>> 1) - first + 1;
+		boolean removed = remove(first - 1, 4); //A 32-bit instruction starting in the halfword before addr overlaps it
+		for(int i = 0; i < count; i++) {
+			removed |= remove(first + i, 2);
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes the instruction starting at a halfword, if it is long enough
+	 * @param half The address of the instruction divided by 2
+	 * @param minLength The minimum length of the instruction in bytes
+	 * @return True if an instruction was removed
+	 */
+	private boolean remove(int half, int minLength) {
+		Instruction[] leaf = leaf((half >>> (PAGE_BITS - 1)) & ((1 << (32 - PAGE_BITS)) - 1), false);
+		int index = half & (LEAF_SIZE - 1);
+		if(leaf == null || leaf[index] == null || leaf[index].length < minLength) {
+			return false;
+		}
+		leaf[index] = null;
+		return true;
+	}
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public void clear() {
+		table = new Instruction[DIR_SIZE][][];
+		lastPage = -1;
+		lastLeaf = null;
+	}
+
+	/**
+	 * Finds the leaf holding the entries of a page
+	 * @param page The page number, ie. {@code address >>> 12}
+	 * @param allocate Whether to allocate the leaf if it does not exist yet
+	 * @return The leaf, or null if it does not exist and {@code allocate} is false
+	 */
+	private Instruction[] leaf(int page, boolean allocate) {
+		Instruction[][] dir = table[page >>> DIR_BITS];
+		if(dir == null) {
+			if(!allocate) {
+				return null;
+			}
+			dir = table[page >>> DIR_BITS] = new Instruction[DIR_SIZE][];
+		}
+		Instruction[] leaf = dir[page & (DIR_SIZE - 1)];
+		if(leaf == null && allocate) {
+			leaf = dir[page & (DIR_SIZE - 1)] = new Instruction[LEAF_SIZE];
+		}
+		return leaf;
+	}
+}
@@ -0,0 +1,223 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Loads 32-bit little-endian RISC-V ELF executables.
+ *
+ * The file is memory mapped, and every PT_LOAD segment is copied directly from the mapping into guest memory
+ * at its virtual address. The part of a segment which is not backed by the file (.bss) is zero-filled.
+ * The entry point and the symbol table are read as well. Every offset and size read from the file is checked against
+ * its length, such that a truncated or corrupt file is reported with an IOException
+ */
+public class ElfLoader {
+
+	private static final int EM_RISCV = 243;
+	private static final int PT_LOAD = 1;
+	private static final int SHT_SYMTAB = 2;
+	private static final int STT_OBJECT = 1;
+	private static final int STT_FUNC = 2;
+
+	private final ByteBuffer file;
+	private final String name; //Of the file, in error messages
+	private final int entry;
+
+	/**
+	 * Opens and validates an ELF file
+	 * @param path The file to open
+	 * @throws IOException If the file cannot be read, or is not a 32-bit little-endian RISC-V ELF file
+	 */
+	public ElfLoader(File path) throws IOException {
+		this(map(path), path.getPath());
+	}
+
+	/**
+	 * Validates an ELF file which has already been read into memory
+	 * @param data The contents of the file, from its position to its limit. The buffer itself is not modified
+	 * @throws IOException If the data is not a 32-bit little-endian RISC-V ELF file
+	 */
+	public ElfLoader(ByteBuffer data) throws IOException {
+		this(data.slice(), "Program");
+	}
+
+	private ElfLoader(ByteBuffer data, String name) throws IOException {
+		file = data.order(ByteOrder.LITTLE_ENDIAN);
+		this.name = name;
+		if(!isElf(file) || file.limit() < 52) {
+			throw new IOException(name + " is not an ELF file");
+		}
+		if(file.get(4) != 1 || file.get(5) != 1 || (file.getShort(18) & 0xFFFF) != EM_RISCV) { //EI_CLASS, EI_DATA, e_machine
+			throw new IOException(name + " is not a 32-bit little-endian RISC-V ELF file");
+		}
+		entry = file.getInt(24);
+	}
+
+	private static ByteBuffer map(File path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Checks whether a file is an ELF file
+	 * @param path The file to check
+	 * @return True if the file starts with the ELF magic number
+	 * @throws IOException If the file cannot be read
+	 */
+	public static boolean isElf(File path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+			return isElf(header);
+		}
+	}
+
+	/**
+	 * Checks whether a buffer starts with the ELF magic number
+	 * @param header The first bytes of a file, starting at index 0
+	 * @return True if the buffer starts with 0x7f 'E' 'L' 'F'
+	 */
+	public static boolean isElf(ByteBuffer header) {
+		return header.limit() >= 4 && header.get(0) == 0x7f && header.get(1) == 'E' && header.get(2) == 'L' && header.get(3) == 'F';
+	}
+
+	/**
+	 * Copies all loadable segments into memory
+	 * @param mem The memory to load the program into
+	 * @throws IOException If a program header or segment lies outside the file
+	 */
+	public void load(Memory mem) throws IOException {
+		int phoff = file.getInt(28);
+		int phentsize = file.getShort(42) & 0xFFFF;
+		int phnum = file.getShort(44) & 0xFFFF;
+		if(phnum > 0 && phentsize < 32) {
+			throw new IOException(name + " has program headers of " + phentsize + " bytes, expected at least 32");
+		}
+		check(phoff, (long) phnum * phentsize, "The program header table");
+		for(int i = 0; i < phnum; i++) {
+			int header = phoff + i * phentsize;
+			if(file.getInt(header) != PT_LOAD) {
+				continue;
+			}
+			int offset = file.getInt(header + 4);
+			int vaddr = file.getInt(header + 8);
+			int filesz = file.getInt(header + 16);
+			int memsz = file.getInt(header + 20);
+			check(offset, Integer.toUnsignedLong(filesz), "Segment " + i);
+
+			ByteBuffer segment = file.duplicate();
+			segment.limit(offset + filesz).position(offset);
+			mem.write(vaddr, segment);
+			if(memsz > filesz) {
+				mem.zero(vaddr + filesz, memsz - filesz);
+			}
+		}
+	}
+
+	/**
+	 * @return The address of the first instruction of the program
+	 */
+	public int getEntry() {
+		return entry;
+	}
+
+	/**
+	 * Reads the function and object symbols of the program
+	 * @return The symbol table, which is empty if the file has no symbol table
+	 * @throws IOException If a section header, the symbol table or a symbol name lies outside the file
+	 */
+	public SymbolTable getSymbols() throws IOException {
+		ArrayList<Integer> addresses = new ArrayList<Integer>();
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		ArrayList<String> names = new ArrayList<String>();
+
+		int shoff = file.getInt(32);
+		int shentsize = file.getShort(46) & 0xFFFF;
+		int shnum = file.getShort(48) & 0xFFFF;
+		if(shnum > 0 && shentsize < 40) {
+			throw new IOException(name + " has section headers of " + shentsize + " bytes, expected at least 40");
+		}
+		check(shoff, (long) shnum * shentsize, "The section header table");
+		for(int i = 0; i < shnum; i++) {
+			int section = shoff + i * shentsize;
+			if(file.getInt(section + 4) != SHT_SYMTAB) {
+				continue;
+			}
+			int offset = file.getInt(section + 16);
+			int size = file.getInt(section + 20);
+			int link = file.getInt(section + 24);
+			int entsize = file.getInt(section + 36);
+			if(entsize < 16) {
+				throw new IOException(name + " has symbols of " + entsize + " bytes, expected at least 16");
+			}
+			check(offset, Integer.toUnsignedLong(size), "The symbol table");
+			if(link < 0 || link >= shnum) {
+				throw new IOException(name + " links its symbol table to section " + Integer.toUnsignedLong(link) + " of " + shnum);
+			}
+			int strtab = file.getInt(shoff + link * shentsize + 16); //Offset of the linked string table
+			for(int sym = offset + entsize; sym <= offset + size - 16; sym += entsize) { //Symbol 0 is always undefined
+				int type = file.get(sym + 12) & 0xF;
+				int shndx = file.getShort(sym + 14) & 0xFFFF;
+				if((type != STT_FUNC && type != STT_OBJECT) || shndx == 0) {
+					continue;
+				}
+				addresses.add(file.getInt(sym + 4));
+				sizes.add(file.getInt(sym + 8));
+				names.add(readString(strtab + file.getInt(sym)));
+			}
+		}
+
+		int[] addressArray = new int[addresses.size()];
+		int[] sizeArray = new int[sizes.size()];
+		for(int i = 0; i < addressArray.length; i++) {
+			addressArray[i] = addresses.get(i);
+			sizeArray[i] = sizes.get(i);
+		}
+		return new SymbolTable(addressArray, sizeArray, names.toArray(new String[0]));
+	}
+
+	/**
+	 * Checks that a range of bytes lies within the file
+	 * @param offset The offset of the range, as an unsigned number
+	 * @param length The number of bytes
+	 * @param what The contents of the range, in the error message
+	 * @throws IOException If the range extends past the end of the file
+	 */
+	private void check(int offset, long length, String what) throws IOException {
+		long end = Integer.toUnsignedLong(offset) + length;
+		if(end > file.limit()) {
+			throw new IOException(String.format("%s of %s ends at offset %d, past the end of the file at %d. The file may be truncated",
+				what, name, end, file.limit()));
+		}
+	}
+
+	/**
+	 * Reads a null-terminated string from the file
+	 * @param offset The offset of the first character
+	 * @return The string
+	 * @throws IOException If the string is not terminated before the end of the file
+	 */
+	private String readString(int offset) throws IOException {
+		check(offset, 0, "A symbol name");
+		int end = offset;
+		while(end < file.limit() && file.get(end) != 0) {
+			end++;
+		}
+		if(end == file.limit()) {
+			throw new IOException("A symbol name of " + name + " is not terminated before the end of the file");
+		}
+		byte[] bytes = new byte[end - offset];
+		ByteBuffer string = file.duplicate();
+		string.position(offset);
+		string.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
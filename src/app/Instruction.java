@@ -1,8 +1,11 @@
 package app;
 
+import java.util.Arrays;
+
 public class Instruction {
 
 	public int source; //Instruction source in numeric format
+	public int length; //Size of the instruction in bytes, 2 if it is compressed
 	public int opcode; //Instruction opcode in numeric format
 	public int funct3;
 	public int funct7;
@@ -12,7 +15,7 @@ public class Instruction {
 	public int imm;
 	public RiscvOp op; //Instruction opcode in Enum format
 
-	//Shorthands for accessing each type of opcode defined in RV32I
+	//Shorthands for accessing each type of opcode defined in RV32I. The M extension uses Rtype
 	public static final int Jtype = 	0x6f;
 	public static final int Utype1 = 0x37;
 	public static final int Utype2 = 0x17;
@@ -32,245 +35,171 @@ public class Instruction {
 	}
 
 	public void updateFields(int source) {
-		this.source = source;
-		opcode = extractBitField(source, 6, 0); //opcode = instruction[6:0]
-		rd = extractBitField(source, 11, 7); //rd = instruction[11:7]
-		rs1 = extractBitField(source, 19, 15); //rs1 = instruction[19:15]
-		rs2 = extractBitField(source, 24, 20); //rs2 = instruction[24:20]
-		funct3 = extractBitField(source, 14, 12); //funct3 = instruction[14:12]
-		funct7 = extractBitField(source, 31, 25); //funct7 = instruction[31:25], no need to mask
-		calculateOp();
-		calculateImmediate(source, opcode); //Immediate generation takes more logic
+		if((source & 3) != 3) { //Compressed instructions are decoded from their 32-bit expansion
+			this.source = source & 0xFFFF;
+			length = 2;
+			source = Compressed.expand(source & 0xFFFF);
+		} else {
+			this.source = source;
+			length = 4;
+		}
+		opcode = source & 0x7F; //opcode = instruction[6:0]
+		rd = (source >>> 7) & 0x1F; //rd = instruction[11:7]
+		rs1 = (source >>> 15) & 0x1F; //rs1 = instruction[19:15]
+		rs2 = (source >>> 20) & 0x1F; //rs2 = instruction[24:20]
+		funct3 = (source >>> 12) & 0x7; //funct3 = instruction[14:12]
+		funct7 = source >>> 25; //funct7 = instruction[31:25], no need to mask
+		op = OPS[opcode | (funct3 << 7) | (FUNCT7_CLASS[funct7] << 10)];
+		imm = immediate(source, FORMATS[opcode]);
+	}
+
+	/*
+	 * The decoder is table driven. The operation is looked up in OPS, using the opcode, funct3 and the class of funct7 as index.
+	 * The format of the immediate only depends on the opcode, and is looked up in FORMATS
+	 */
+	private static final int FORMAT_R = 0; //No immediate
+	private static final int FORMAT_I = 1;
+	private static final int FORMAT_S = 2;
+	private static final int FORMAT_B = 3;
+	private static final int FORMAT_U = 4;
+	private static final int FORMAT_J = 5;
+
+	//Classes of funct7. Every instruction which depends on funct7 only uses one of these values
+	private static final int F7_ZERO = 0; //0000000
+	private static final int F7_ALT = 1; //0100000, SUB and arithmetic shifts
+	private static final int F7_MULDIV = 2; //0000001, the M extension
+	private static final int F7_OTHER = 3;
+
+	private static final byte[] FUNCT7_CLASS = new byte[1 << 7]; //Indexed by funct7
+	private static final byte[] FORMATS = new byte[1 << 7]; //Indexed by opcode
+	private static final RiscvOp[] OPS = new RiscvOp[1 << 12]; //Indexed by {funct7 class, funct3, opcode}
+
+	static {
+		Arrays.fill(FUNCT7_CLASS, (byte) F7_OTHER);
+		FUNCT7_CLASS[0b0000000] = F7_ZERO;
+		FUNCT7_CLASS[0b0100000] = F7_ALT;
+		FUNCT7_CLASS[0b0000001] = F7_MULDIV;
+
+		FORMATS[Jtype] = FORMAT_J;
+		FORMATS[Utype1] = FORMAT_U;
+		FORMATS[Utype2] = FORMAT_U;
+		FORMATS[Itype1] = FORMAT_I;
+		FORMATS[Itype2] = FORMAT_I;
+		FORMATS[ItypeRtype] = FORMAT_I;
+		FORMATS[Stype] = FORMAT_S;
+		FORMATS[Btype] = FORMAT_B;
+
+		Arrays.fill(OPS, RiscvOp.ERROR);
+		define(RiscvOp.JAL, Jtype);
+		define(RiscvOp.LUI, Utype1);
+		define(RiscvOp.AUIPC, Utype2);
+		define(RiscvOp.JALR, Itype2);
+		define(RiscvOp.ECALL, 0x73);
+
+		define(RiscvOp.BEQ, Btype, 0b000);
+		define(RiscvOp.BNE, Btype, 0b001);
+		define(RiscvOp.BLT, Btype, 0b100);
+		define(RiscvOp.BGE, Btype, 0b101);
+		define(RiscvOp.BLTU, Btype, 0b110);
+		define(RiscvOp.BGEU, Btype, 0b111);
+
+		define(RiscvOp.SB, Stype, 0b000);
+		define(RiscvOp.SH, Stype, 0b001);
+		define(RiscvOp.SW, Stype, 0b010);
+
+		define(RiscvOp.LB, Itype1, 0b000);
+		define(RiscvOp.LH, Itype1, 0b001);
+		define(RiscvOp.LW, Itype1, 0b010);
+		define(RiscvOp.LBU, Itype1, 0b100);
+		define(RiscvOp.LHU, Itype1, 0b101);
+
+		define(RiscvOp.ADDI, ItypeRtype, 0b000);
+		define(RiscvOp.SLLI, ItypeRtype, 0b001);
+		define(RiscvOp.SLTI, ItypeRtype, 0b010);
+		define(RiscvOp.SLTIU, ItypeRtype, 0b011);
+		define(RiscvOp.XORI, ItypeRtype, 0b100);
+		define(RiscvOp.SRLI, ItypeRtype, 0b101, F7_ZERO);
+		define(RiscvOp.SRAI, ItypeRtype, 0b101, F7_ALT, F7_MULDIV, F7_OTHER);
+		define(RiscvOp.ORI, ItypeRtype, 0b110);
+		define(RiscvOp.ANDI, ItypeRtype, 0b111);
+
+		define(RiscvOp.ADD, Rtype, 0b000, F7_ZERO);
+		define(RiscvOp.SUB, Rtype, 0b000, F7_ALT, F7_OTHER);
+		define(RiscvOp.SLL, Rtype, 0b001);
+		define(RiscvOp.SLT, Rtype, 0b010);
+		define(RiscvOp.SLTU, Rtype, 0b011);
+		define(RiscvOp.XOR, Rtype, 0b100);
+		define(RiscvOp.SRL, Rtype, 0b101, F7_ZERO);
+		define(RiscvOp.SRA, Rtype, 0b101, F7_ALT, F7_OTHER);
+		define(RiscvOp.OR, Rtype, 0b110);
+		define(RiscvOp.AND, Rtype, 0b111);
+
+		//M extension. These replace the RV32I operations for funct7 = 0000001
+		define(RiscvOp.MUL, Rtype, 0b000, F7_MULDIV);
+		define(RiscvOp.MULH, Rtype, 0b001, F7_MULDIV);
+		define(RiscvOp.MULHSU, Rtype, 0b010, F7_MULDIV);
+		define(RiscvOp.MULHU, Rtype, 0b011, F7_MULDIV);
+		define(RiscvOp.DIV, Rtype, 0b100, F7_MULDIV);
+		define(RiscvOp.DIVU, Rtype, 0b101, F7_MULDIV);
+		define(RiscvOp.REM, Rtype, 0b110, F7_MULDIV);
+		define(RiscvOp.REMU, Rtype, 0b111, F7_MULDIV);
 	}
 
 	/**
-	 * Calculates the immediate for the current instruction, as defined by the opcode
-	 * @param inst The 32-bit instruction that the machine is about to execute
-	 * @param opcode The opcode of the current instruction
-	 * @return The immediate field for the current instruction, returns 0 for R-type instructions
+	 * Adds an operation to the decoder table, which is selected by the opcode alone
+	 * @param op The operation
+	 * @param opcode The opcode of the operation
 	 */
-	private void calculateImmediate(int inst, int opcode) {
-		this.imm = 0;
-		switch (opcode) {
-			case 0x6f: //J-type instruction
-				// System.out.printf("J-type");
-				if(extractBitField(inst, 31, 31) != 0) { //Set imm[31:20] by sign-extending inst[31]
-					imm = setBitfield(imm, 0xfff, 20);
-				} //otherwise, keep imm[31:20] equal to 0x000
-				imm = setBitfield(imm, extractBitField(inst, 19, 12), 12); 	//imm[19:12] = inst[19:12]
-				imm = setBitfield(imm, extractBitField(inst, 20, 20), 11); 	//imm[11] = inst[20]
-				imm = setBitfield(imm, extractBitField(inst, 30, 21), 1); 	//imm[10:1] = inst[30:21]
-				//Keeps imm[0] at 0 to allow half-word jumps
-				break;
-			case 0x37:
-			case 0x17: //U-type
-				// System.out.printf("U-type");
-				imm = setBitfield(imm, extractBitField(inst, 31, 12), 12); 	//imm[31:12] = inst[31:12]
-				break;
-			case 0x03:
-			case 0x67:
-			case 0x13: //I-type
-				// System.out.printf("I-type");
-				if(extractBitField(inst, 31, 31) != 0) { //Set imm[31:12] by sign-extending inst[31]
-					imm = setBitfield(imm, 0xfffff, 12);
-				} //otherwise, keep imm[31:12] equal to 0x00000
-				imm = setBitfield(imm, extractBitField(inst, 31, 20), 0); //imm[11:0] = inst[31:20]
-				break;
-			case 0x23: //S-type
-				// System.out.printf("S-type");
-				if(extractBitField(inst, 31, 31) != 0) { //Set imm[31:12] by sign-extending inst[31]
-					imm = setBitfield(imm, 0xfffff, 12);
-				}
-				imm = setBitfield(imm, extractBitField(inst, 31, 25), 5); 	//imm[11:5] = inst[31:25]
-				imm = setBitfield(imm, extractBitField(inst, 11, 7), 0); 	//imm[4:0] = inst[11:7]
-				break;
-			case 0x63: //B-type
-				// System.out.printf("B-type");
-				if(extractBitField(inst, 31, 31) != 0) { //Set imm[31:12] by sign-extending inst[31]
-					imm = setBitfield(imm, 0xfffff, 12);
-				}
-				imm = setBitfield(imm, extractBitField(inst, 7, 7), 11); 	//imm[11] = inst[7];
-				imm = setBitfield(imm, extractBitField(inst, 30, 25), 5);//imm[10:5] = inst[30:25]
-				imm = setBitfield(imm, extractBitField(inst, 11, 8), 1);//imm[4:1] = inst[11:8]
-				break;
-			default: //R-type
-				// System.out.printf("R-type");
-				break;
+	private static void define(RiscvOp op, int opcode) {
+		for(int funct3 = 0; funct3 < 8; funct3++) {
+			define(op, opcode, funct3);
 		}
 	}
 
 	/**
-	 * Determines the operation to perform based on the opcode, funct3 and funct7 fields
-	 * @return
+	 * Adds an operation to the decoder table, which is selected by the opcode and funct3
+	 * @param op The operation
+	 * @param opcode The opcode of the operation
+	 * @param funct3 The funct3 field of the operation
 	 */
-	private void calculateOp() {
-		switch(this.opcode) {
-			
-		case Jtype: 
-			this.op = RiscvOp.JAL;
-			break;
-		
-			case Utype1:
-			this.op = RiscvOp.LUI;
-			break;
-		
-			case Utype2:
-			this.op = RiscvOp.AUIPC;
-			break;
-		
-		case Btype:
-		switch(this.funct3) {
-			case 0b000:
-				this.op = RiscvOp.BEQ;
-				break;
-			case 0b001:
-				this.op = RiscvOp.BNE;
-				break;
-			case 0b100:
-				this.op = RiscvOp.BLT;
-				break;
-			case 0b101:
-				this.op = RiscvOp.BGE;
-				break;
-			case 0b110:
-				op = RiscvOp.BLTU;
-				break;
-			case 0b111:
-				op = RiscvOp.BGEU;
-				break;
-		}
-		break; //Finish B-type nested switch
-		
-		case Stype:
-		switch(this.funct3) {
-			case 0b000:
-				op = RiscvOp.SB;
-				break;
-			case 0b001:
-				op = RiscvOp.SH;
-				break;
-			case 0b010:
-				op = RiscvOp.SW;
-				break;
-		}
-		break; //End S-type nested switch
-		
-		case Itype1: //Loads
-		switch(this.funct3) {
-			case 0b000:
-				op = RiscvOp.LB;
-				break;
-			case 0b001:
-				op = RiscvOp.LH;
-				break;
-			case 0b010:
-				op = RiscvOp.LW;
-				break;
-			case 0b100:
-				op = RiscvOp.LBU;
-				break;
-			case 0b101:
-				op = RiscvOp.LHU;
-				break;
-		}
-		break; //End Itype1 nested switch
-	
-		case Itype2: //Jalr
-			op = RiscvOp.JALR;
-			break;
-		
-		case ItypeRtype: //Mixed I-type and R-type, looks mostly like an I-type 
-			switch(this.funct3) {
-				case 0b000:
-					op = RiscvOp.ADDI;
-					break;
-				case 0b001:
-					op = RiscvOp.SLLI;
-					break;
-				case 0b010:
-					op = RiscvOp.SLTI;
-					break;
-				case 0b011:
-					op = RiscvOp.SLTIU;
-					break;
-				case 0b100:
-					op = RiscvOp.XORI;
-					break;
-				case 0b101:
-					if (funct7 > 0) {
-						op = RiscvOp.SRAI;
-					} else {
-						op = RiscvOp.SRLI;
-					}
-					break;
-				case 0b110:
-					op = RiscvOp.ORI;
-					break;
-				case 0b111:
-					op = RiscvOp.ANDI;
-					break;
-			}
-			break; //end ItypeRtype nested switch
+	private static void define(RiscvOp op, int opcode, int funct3) {
+		define(op, opcode, funct3, F7_ZERO, F7_ALT, F7_MULDIV, F7_OTHER);
+	}
 
-		case Rtype:
-			switch(this.funct3) {
-				case 0b000:
-					if (this.funct7 > 0) {
-						op = RiscvOp.SUB;
-					} else {
-						op = RiscvOp.ADD;
-					}
-					break;
-				case 0b001:
-					op = RiscvOp.SLL;
-					break;
-				case 0b010:
-					op = RiscvOp.SLT;
-					break;
-				case 0b011:
-					op = RiscvOp.SLTU;
-					break;
-				case 0b100:
-					op = RiscvOp.XOR;
-					break;
-				case 0b101:
-					if (this.funct7 > 0) {
-						op = RiscvOp.SRA;
-					} else {
-						op = RiscvOp.SRL;
-					}
-					break;
-				case 0b110:
-					op = RiscvOp.OR;
-					break;
-				case 0b111:
-					op = RiscvOp.AND;
-					break;
-			}
-			break; //end Rtype nested switch
-		
-		case 0x73:
-			op = RiscvOp.ECALL;
-			break;
-		
-		default:
-			op = RiscvOp.ERROR;
+	/**
+	 * Adds an operation to the decoder table, which is selected by the opcode, funct3 and funct7
+	 * @param op The operation
+	 * @param opcode The opcode of the operation
+	 * @param funct3 The funct3 field of the operation
+	 * @param funct7Classes The classes of funct7 which select this operation
+	 */
+	private static void define(RiscvOp op, int opcode, int funct3, int... funct7Classes) {
+		for(int funct7Class : funct7Classes) {
+			OPS[opcode | (funct3 << 7) | (funct7Class << 10)] = op;
 		}
 	}
-	
+
 	/**
-	 * Extracts the bitfield {@code source[high:low]} from an int
-	 * @param source The source value to extract a bitfield from
-	 * @param high The index of the highest bit to extract, in range [0:31]
-	 * @param low The index of the lowest bit to extract, in range [0:31] where low<=high
-	 * @return The extracted bitfield, right-shifted such that source[low] is now at position 0
+	 * Calculates the immediate of an instruction. Each format is assembled by a single shift-and-mask expression
+	 * @param inst The 32-bit instruction
+	 * @param format The immediate format of the instruction, as given by its opcode
+	 * @return The sign-extended immediate, or 0 for R-type instructions
 	 */
-	private static int extractBitField(int source, int high, int low) {
-		if(high < low) {
-			return -1;
+	private static int immediate(int inst, int format) {
+		switch(format) {
+			case FORMAT_I: //imm[11:0] = inst[31:20]
+				return inst >> 20;
+			case FORMAT_S: //imm[11:5] = inst[31:25], imm[4:0] = inst[11:7]
+				return ((inst >> 20) & 0xFFFFFFE0) | ((inst >>> 7) & 0x1F);
+			case FORMAT_B: //imm[12] = inst[31], imm[11] = inst[7], imm[10:5] = inst[30:25], imm[4:1] = inst[11:8]
+				return ((inst >> 19) & 0xFFFFF000) | ((inst << 4) & 0x800) | ((inst >>> 20) & 0x7E0) | ((inst >>> 7) & 0x1E);
+			case FORMAT_U: //imm[31:12] = inst[31:12]
+				return inst & 0xFFFFF000;
+			case FORMAT_J: //imm[20] = inst[31], imm[19:12] = inst[19:12], imm[11] = inst[20], imm[10:1] = inst[30:21]
+				return ((inst >> 11) & 0xFFF00000) | (inst & 0xFF000) | ((inst >>> 9) & 0x800) | ((inst >>> 20) & 0x7FE);
+			default: //R-type
+				return 0;
 		}
-		int mask = (1 << (high-low+1)) - 1;
-		return (source >> low) & mask;
 	}
 
 	/**
@@ -0,0 +1,638 @@
+package app;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles hot basic blocks into JVM classes, which are then executed instead of interpreting the block.
+ *
+ * Each block becomes a class implementing {@link CompiledBlock}. The guest registers used by the block are
+ * copied into JVM locals when the block is entered and copied back when it is left, such that HotSpot
+ * can allocate them to host registers. Loads and stores call the memory accessors of {@link RiscV},
+ * and a store that overwrites decoded code leaves the block immediately after the store.
+ *
+ * Classes are defined as hidden classes when running on Java 15 or newer, allowing them to be unloaded once
+ * the block is no longer referenced. On older versions, they are defined as ordinary classes in this package
+ */
+class JitCompiler {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final Method DEFINE_HIDDEN_CLASS; //Lookup.defineHiddenClass, or null if not supported
+	private static final Object NO_CLASS_OPTIONS;
+	private static final AtomicInteger classCount = new AtomicInteger();
+
+	static {
+		Method define = null;
+		Object options = null;
+		try {
+			Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			options = Array.newInstance(option, 0);
+			define = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+		} catch (ReflectiveOperationException e) {
+			//Java 14 or older, fall back to Lookup.defineClass
+		}
+		DEFINE_HIDDEN_CLASS = define;
+		NO_CLASS_OPTIONS = options;
+	}
+
+	//Local variable slots in the generated execute method
+	private static final int LOCAL_REG = 1; //The int[] register file
+	private static final int LOCAL_RV = 2; //The RiscV instance
+	private static final int LOCAL_NEXT = 3; //The address returned when leaving the block
+	private static final int LOCAL_X0 = 3; //Guest register x[i] lives in local LOCAL_X0 + i, for i >= 1
+
+	//The JVM opcodes used by the compiler
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int IALOAD = 0x2e;
+	private static final int ISTORE = 0x36;
+	private static final int IASTORE = 0x4f;
+	private static final int POP = 0x57;
+	private static final int IADD = 0x60;
+	private static final int ISUB = 0x64;
+	private static final int IMUL = 0x68;
+	private static final int ISHL = 0x78;
+	private static final int ISHR = 0x7a;
+	private static final int IUSHR = 0x7c;
+	private static final int IAND = 0x7e;
+	private static final int IOR = 0x80;
+	private static final int IXOR = 0x82;
+	private static final int IFEQ = 0x99;
+	private static final int IF_ICMPEQ = 0x9f;
+	private static final int IF_ICMPNE = 0xa0;
+	private static final int IF_ICMPLT = 0xa1;
+	private static final int IF_ICMPGE = 0xa2;
+	private static final int GOTO = 0xa7;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final String RISCV = "app/RiscV";
+
+	//State of the class currently being generated
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+	private int poolCount = 1;
+	private byte[] code = new byte[256];
+	private int codeLength;
+	private ArrayList<Integer> epilogueJumps = new ArrayList<Integer>(); //Positions of jumps to the epilogue
+
+	private JitCompiler() {
+	}
+
+	/**
+	 * Compiles a block into a JVM class
+	 * @param block The block to compile
+	 * @return An instance of the compiled block, or null if the block cannot be compiled
+	 */
+	static CompiledBlock compile(Block block) {
+		if(!canCompile(block)) {
+			return null;
+		}
+		try {
+			byte[] bytes = new JitCompiler().generate(block);
+			Class<?> cls;
+			if(DEFINE_HIDDEN_CLASS != null) {
+				MethodHandles.Lookup hidden = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(LOOKUP, bytes, true, NO_CLASS_OPTIONS);
+				cls = hidden.lookupClass();
+			} else {
+				cls = LOOKUP.defineClass(bytes);
+			}
+			return (CompiledBlock) cls.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			//Keep interpreting the block if the generated class is rejected
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether every instruction in a block is supported by the compiler
+	 * @param block The block to check
+	 * @return True if the block can be compiled
+	 */
+	private static boolean canCompile(Block block) {
+		for(Instruction inst : block.body) {
+			if(inst.op == RiscvOp.ERROR || inst.op == RiscvOp.AUIPC || Block.endsBlock(inst.op)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Generates the class file of a compiled block
+	 * @param block The block to compile
+	 * @return The class file
+	 */
+	private byte[] generate(Block block) {
+		boolean[] used = new boolean[32];
+		boolean[] written = new boolean[32];
+		for(Instruction inst : block.body) {
+			markRegisters(inst, used, written);
+		}
+		if(block.exit != null) {
+			markRegisters(block.exit, used, written);
+		}
+
+		//Prologue: Copy the registers used by the block into locals
+		for(int i = 1; i < 32; i++) {
+			if(used[i]) {
+				emit(ALOAD, LOCAL_REG);
+				pushInt(i);
+				emit(IALOAD);
+				emit(ISTORE, LOCAL_X0 + i);
+			}
+		}
+
+		int pc = block.start;
+		for(Instruction inst : block.body) {
+			compileInstruction(inst, pc);
+			pc += inst.length;
+		}
+		compileExit(block);
+
+		//Epilogue: Copy the written registers back into the register file, and return the address of the next instruction
+		int epilogue = codeLength;
+		for(int position : epilogueJumps) {
+			patchJump(position, epilogue);
+		}
+		for(int i = 1; i < 32; i++) {
+			if(written[i]) {
+				emit(ALOAD, LOCAL_REG);
+				pushInt(i);
+				emit(ILOAD, LOCAL_X0 + i);
+				emit(IASTORE);
+			}
+		}
+		emit(ILOAD, LOCAL_NEXT);
+		emit(IRETURN);
+
+		return classFile(Arrays.copyOf(code, codeLength));
+	}
+
+	/**
+	 * Marks the registers read and written by an instruction
+	 * @param inst The instruction
+	 * @param used Registers that must be loaded into locals when entering the block
+	 * @param written Registers that must be stored in the register file when leaving the block
+	 */
+	private static void markRegisters(Instruction inst, boolean[] used, boolean[] written) {
+		switch(inst.op) {
+			case LUI:
+			case JAL:
+				break;
+			case ADD: case SUB: case AND: case OR: case XOR: case SLL: case SRL: case SRA: case SLT: case SLTU:
+			case MUL: case MULH: case MULHSU: case MULHU: case DIV: case DIVU: case REM: case REMU:
+			case SB: case SH: case SW:
+			case BEQ: case BNE: case BLT: case BGE: case BLTU: case BGEU:
+				used[inst.rs1] = true;
+				used[inst.rs2] = true;
+				break;
+			default: //Instructions with an immediate operand
+				used[inst.rs1] = true;
+				break;
+		}
+		if(writesRd(inst.op) && inst.rd != 0) {
+			used[inst.rd] = true; //Loaded as well, since the epilogue is shared by early exits
+			written[inst.rd] = true;
+		}
+	}
+
+	/**
+	 * @param op The operation to check
+	 * @return True if the operation writes to rd
+	 */
+	private static boolean writesRd(RiscvOp op) {
+		switch(op) {
+			case SB: case SH: case SW:
+			case BEQ: case BNE: case BLT: case BGE: case BLTU: case BGEU:
+			case ECALL:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Compiles a single instruction from the body of a block
+	 * @param inst The instruction to compile
+	 * @param pc The address of the instruction
+	 */
+	private void compileInstruction(Instruction inst, int pc) {
+		switch(inst.op) {
+			case ADD: binary(inst, IADD); break;
+			case SUB: binary(inst, ISUB); break;
+			case AND: binary(inst, IAND); break;
+			case OR: binary(inst, IOR); break;
+			case XOR: binary(inst, IXOR); break;
+			case SLL: binary(inst, ISHL); break;
+			case SRL: binary(inst, IUSHR); break;
+			case SRA: binary(inst, ISHR); break;
+			case MUL: binary(inst, IMUL); break;
+			case MULH: call(inst, "mulh"); break;
+			case MULHSU: call(inst, "mulhsu"); break;
+			case MULHU: call(inst, "mulhu"); break;
+			case DIV: call(inst, "div"); break;
+			case DIVU: call(inst, "divu"); break;
+			case REM: call(inst, "rem"); break;
+			case REMU: call(inst, "remu"); break;
+			case ADDI: immediate(inst, inst.imm, IADD); break;
+			case ANDI: immediate(inst, inst.imm, IAND); break;
+			case ORI: immediate(inst, inst.imm, IOR); break;
+			case XORI: immediate(inst, inst.imm, IXOR); break;
+			case SLLI: immediate(inst, inst.rs2, ISHL); break;
+			case SRLI: immediate(inst, inst.rs2, IUSHR); break;
+			case SRAI: immediate(inst, inst.rs2, ISHR); break;
+			case SLT:
+			case SLTU:
+			case SLTI:
+			case SLTIU:
+				if(inst.rd != 0) {
+					boolean unsigned = inst.op == RiscvOp.SLTU || inst.op == RiscvOp.SLTIU;
+					pushRegister(inst.rs1, unsigned);
+					if(inst.op == RiscvOp.SLT || inst.op == RiscvOp.SLTU) {
+						pushRegister(inst.rs2, unsigned);
+					} else {
+						pushInt(unsigned ? inst.imm + Integer.MIN_VALUE : inst.imm);
+					}
+					int taken = emitJump(IF_ICMPLT);
+					pushInt(0);
+					int done = emitJump(GOTO);
+					patchJump(taken, codeLength);
+					pushInt(1);
+					patchJump(done, codeLength);
+					emit(ISTORE, LOCAL_X0 + inst.rd);
+				}
+				break;
+			case LUI:
+				if(inst.rd != 0) {
+					pushInt(inst.imm);
+					emit(ISTORE, LOCAL_X0 + inst.rd);
+				}
+				break;
+			case LB: load(inst, "loadByte"); break;
+			case LBU: load(inst, "loadByteUnsigned"); break;
+			case LH: load(inst, "loadHalf"); break;
+			case LHU: load(inst, "loadHalfUnsigned"); break;
+			case LW: load(inst, "loadWord"); break;
+			case SB: store(inst, "storeByte", pc); break;
+			case SH: store(inst, "storeHalf", pc); break;
+			case SW: store(inst, "storeWord", pc); break;
+			default:
+				throw new IllegalArgumentException("Cannot compile " + inst.op);
+		}
+	}
+
+	/**
+	 * Compiles the exit of a block, which computes the address of the next instruction
+	 * @param block The block being compiled
+	 */
+	private void compileExit(Block block) {
+		Instruction exit = block.exit;
+		if(exit == null || exit.op == RiscvOp.ECALL) { //ECALL is left to the interpreter
+			pushInt(block.exitPC);
+			emit(ISTORE, LOCAL_NEXT);
+			return;
+		}
+		switch(exit.op) {
+			case JAL:
+				if(exit.rd != 0) {
+					pushInt(block.fallthrough);
+					emit(ISTORE, LOCAL_X0 + exit.rd);
+				}
+				pushInt(block.target);
+				emit(ISTORE, LOCAL_NEXT);
+				break;
+			case JALR: //Compute the target before writing rd, since rd may equal rs1
+				pushRegister(exit.rs1, false);
+				pushInt(exit.imm);
+				emit(IADD);
+				emit(ISTORE, LOCAL_NEXT);
+				if(exit.rd != 0) {
+					pushInt(block.fallthrough);
+					emit(ISTORE, LOCAL_X0 + exit.rd);
+				}
+				break;
+			default: //Conditional branches
+				boolean unsigned = exit.op == RiscvOp.BLTU || exit.op == RiscvOp.BGEU;
+				pushRegister(exit.rs1, unsigned);
+				pushRegister(exit.rs2, unsigned);
+				int taken = emitJump(branchOpcode(exit.op));
+				pushInt(block.fallthrough);
+				emit(ISTORE, LOCAL_NEXT);
+				epilogueJumps.add(emitJump(GOTO));
+				patchJump(taken, codeLength);
+				pushInt(block.target);
+				emit(ISTORE, LOCAL_NEXT);
+				break;
+		}
+	}
+
+	/**
+	 * @param op A conditional branch
+	 * @return The JVM comparison taking the same branch
+	 */
+	private static int branchOpcode(RiscvOp op) {
+		switch(op) {
+			case BEQ: return IF_ICMPEQ;
+			case BNE: return IF_ICMPNE;
+			case BLT: case BLTU: return IF_ICMPLT;
+			default: return IF_ICMPGE;
+		}
+	}
+
+	/**
+	 * Compiles an R-type arithmetic instruction
+	 */
+	private void binary(Instruction inst, int opcode) {
+		if(inst.rd != 0) {
+			pushRegister(inst.rs1, false);
+			pushRegister(inst.rs2, false);
+			emit(opcode);
+			emit(ISTORE, LOCAL_X0 + inst.rd);
+		}
+	}
+
+	/**
+	 * Compiles an R-type instruction which is implemented by a static method of the simulator, see {@link RiscV#mulh(int, int)}
+	 */
+	private void call(Instruction inst, String method) {
+		if(inst.rd != 0) {
+			pushRegister(inst.rs1, false);
+			pushRegister(inst.rs2, false);
+			emitU2(INVOKESTATIC, methodRef(RISCV, method, "(II)I"));
+			emit(ISTORE, LOCAL_X0 + inst.rd);
+		}
+	}
+
+	/**
+	 * Compiles an arithmetic instruction with a constant operand
+	 */
+	private void immediate(Instruction inst, int operand, int opcode) {
+		if(inst.rd != 0) {
+			pushRegister(inst.rs1, false);
+			pushInt(operand);
+			emit(opcode);
+			emit(ISTORE, LOCAL_X0 + inst.rd);
+		}
+	}
+
+	/**
+	 * Compiles a load, calling the memory accessor of the simulator
+	 */
+	private void load(Instruction inst, String accessor) {
+		emit(ALOAD, LOCAL_RV);
+		pushRegister(inst.rs1, false);
+		pushInt(inst.imm);
+		emit(IADD);
+		emitU2(INVOKEVIRTUAL, methodRef(RISCV, accessor, "(I)I"));
+		if(inst.rd != 0) {
+			emit(ISTORE, LOCAL_X0 + inst.rd);
+		} else {
+			emit(POP);
+		}
+	}
+
+	/**
+	 * Compiles a store, calling the memory accessor of the simulator. If the store modified code,
+	 * the block is left such that execution continues at the following instruction
+	 */
+	private void store(Instruction inst, String accessor, int pc) {
+		emit(ALOAD, LOCAL_RV);
+		pushRegister(inst.rs1, false);
+		pushInt(inst.imm);
+		emit(IADD);
+		pushRegister(inst.rs2, false);
+		emitU2(INVOKEVIRTUAL, methodRef(RISCV, accessor, "(II)V"));
+		emit(ALOAD, LOCAL_RV);
+		emitU2(GETFIELD, fieldRef(RISCV, "codeModified", "Z"));
+		int unmodified = emitJump(IFEQ);
+		pushInt(pc + inst.length);
+		emit(ISTORE, LOCAL_NEXT);
+		epilogueJumps.add(emitJump(GOTO));
+		patchJump(unmodified, codeLength);
+	}
+
+	/**
+	 * Pushes the value of a guest register onto the operand stack
+	 * @param index The register to push
+	 * @param unsigned If true, the sign bit is flipped such that a signed comparison of the values gives the unsigned result
+	 */
+	private void pushRegister(int index, boolean unsigned) {
+		if(index == 0) {
+			pushInt(unsigned ? Integer.MIN_VALUE : 0);
+			return;
+		}
+		emit(ILOAD, LOCAL_X0 + index);
+		if(unsigned) {
+			pushInt(Integer.MIN_VALUE);
+			emit(IXOR);
+		}
+	}
+
+	/**
+	 * Pushes a constant onto the operand stack, using the shortest encoding
+	 */
+	private void pushInt(int value) {
+		if(value >= -1 && value <= 5) {
+			emit(ICONST_0 + value);
+		} else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			emit(BIPUSH, value & 0xFF);
+		} else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			emitU2(SIPUSH, value & 0xFFFF);
+		} else {
+			emitU2(LDC_W, integerConstant(value));
+		}
+	}
+
+	private void emit(int opcode) {
+		if(codeLength == code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		code[codeLength++] = (byte) opcode;
+	}
+
+	private void emit(int opcode, int operand) {
+		emit(opcode);
+		emit(operand);
+	}
+
+	private void emitU2(int opcode, int operand) {
+		emit(opcode);
+		emit(operand >> 8);
+		emit(operand);
+	}
+
+	/**
+	 * Emits a jump whose target is filled in later by {@link #patchJump(int, int)}
+	 * @return The position of the jump
+	 */
+	private int emitJump(int opcode) {
+		int position = codeLength;
+		emitU2(opcode, 0);
+		return position;
+	}
+
+	/**
+	 * Sets the target of a jump emitted by {@link #emitJump(int)}
+	 * @param position The position of the jump
+	 * @param target The position to jump to
+	 */
+	private void patchJump(int position, int target) {
+		int offset = target - position;
+		code[position + 1] = (byte) (offset >> 8);
+		code[position + 2] = (byte) offset;
+	}
+
+	/*
+	 * Class file generation. The classes use version 49, which does not require stack map frames
+	 */
+
+	/**
+	 * Builds a class file implementing CompiledBlock with the given code as its execute method
+	 * @param body The bytecode of the execute method
+	 * @return The class file
+	 */
+	private byte[] classFile(byte[] body) {
+		String name = "app/CompiledBlock$" + classCount.incrementAndGet();
+		int thisClass = classConstant(name);
+		int superClass = classConstant("java/lang/Object");
+		int iface = classConstant("app/CompiledBlock");
+		int init = utf8("<init>");
+		int initDesc = utf8("()V");
+		int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+		int execute = utf8("execute");
+		int executeDesc = utf8("([ILapp/RiscV;)I");
+		int codeAttr = utf8("Code");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeU4(out, 0xCAFEBABE);
+		writeU2(out, 0); //Minor version
+		writeU2(out, 49); //Major version
+		writeU2(out, poolCount);
+		byte[] poolBytes = pool.toByteArray();
+		out.write(poolBytes, 0, poolBytes.length);
+		writeU2(out, ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		writeU2(out, thisClass);
+		writeU2(out, superClass);
+		writeU2(out, 1); //Interfaces
+		writeU2(out, iface);
+		writeU2(out, 0); //Fields
+		writeU2(out, 2); //Methods
+
+		byte[] initCode = {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+		writeMethod(out, init, initDesc, codeAttr, 1, 1, initCode);
+		writeMethod(out, execute, executeDesc, codeAttr, 6, LOCAL_X0 + 32, body);
+
+		writeU2(out, 0); //Class attributes
+		return out.toByteArray();
+	}
+
+	private static void writeMethod(ByteArrayOutputStream out, int name, int descriptor, int codeAttr, int maxStack, int maxLocals, byte[] code) {
+		writeU2(out, ACC_PUBLIC);
+		writeU2(out, name);
+		writeU2(out, descriptor);
+		writeU2(out, 1); //Attributes
+		writeU2(out, codeAttr);
+		writeU4(out, 12 + code.length);
+		writeU2(out, maxStack);
+		writeU2(out, maxLocals);
+		writeU4(out, code.length);
+		out.write(code, 0, code.length);
+		writeU2(out, 0); //Exception table
+		writeU2(out, 0); //Code attributes
+	}
+
+	private int utf8(String value) {
+		Integer index = poolIndex.get("U" + value);
+		if(index == null) {
+			index = poolCount++;
+			pool.write(1);
+			writeU2(pool, value.length());
+			for(int i = 0; i < value.length(); i++) {
+				pool.write(value.charAt(i)); //All names are ASCII
+			}
+			poolIndex.put("U" + value, index);
+		}
+		return index;
+	}
+
+	private int integerConstant(int value) {
+		Integer index = poolIndex.get("I" + value);
+		if(index == null) {
+			index = poolCount++;
+			pool.write(3);
+			writeU4(pool, value);
+			poolIndex.put("I" + value, index);
+		}
+		return index;
+	}
+
+	private int classConstant(String name) {
+		Integer index = poolIndex.get("C" + name);
+		if(index == null) {
+			int nameIndex = utf8(name);
+			index = poolCount++;
+			pool.write(7);
+			writeU2(pool, nameIndex);
+			poolIndex.put("C" + name, index);
+		}
+		return index;
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		String key = tag + owner + "." + name + descriptor;
+		Integer index = poolIndex.get(key);
+		if(index == null) {
+			int ownerIndex = classConstant(owner);
+			int nameIndex = utf8(name);
+			int descIndex = utf8(descriptor);
+			int nameAndType = poolCount++;
+			pool.write(12);
+			writeU2(pool, nameIndex);
+			writeU2(pool, descIndex);
+			index = poolCount++;
+			pool.write(tag);
+			writeU2(pool, ownerIndex);
+			writeU2(pool, nameAndType);
+			poolIndex.put(key, index);
+		}
+		return index;
+	}
+
+	private int methodRef(String owner, String name, String descriptor) {
+		return memberRef(10, owner, name, descriptor);
+	}
+
+	private int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(9, owner, name, descriptor);
+	}
+
+	private static void writeU2(ByteArrayOutputStream out, int value) {
+		out.write(value >> 8);
+		out.write(value);
+	}
+
+	private static void writeU4(ByteArrayOutputStream out, int value) {
+		writeU2(out, value >>> 16);
+		writeU2(out, value);
+	}
+}
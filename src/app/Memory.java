@@ -0,0 +1,413 @@
+package app;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The memory of the simulated machine, covering the full 32-bit address space.
+ *
+ * Memory is split in 4KiB pages, which are stored in a two-level table and only allocated when first written.
+ * Reading from a page which has never been written gives zeros. The most recently used page is remembered,
+ * such that sequential accesses do not have to walk the table.
+ * All accesses are little-endian, and may be unaligned. Halfwords and words within a page are accessed
+ * in a single operation through a byte array view, only accesses crossing a page boundary are split.
+ *
+ * A {@link Snapshot} of memory shares its pages with memory, and a page is only copied when it is first written
+ * after the snapshot was taken. The pages written since are remembered, such that restoring the snapshot
+ * only takes time proportional to the number of pages written
+ */
+public class Memory {
+
+	public static final int PAGE_BITS = 12;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int DIR_BITS = 10; //Upper 10 bits of the page number index the directory
+	private static final int DIR_SIZE = 1 << DIR_BITS;
+
+	//Little-endian views of the byte arrays holding each page. These allow unaligned accesses
+	private static final VarHandle HALF = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE]; //Read in place of pages which have not been allocated. Never written
+
+	private byte[][][] table;
+	private int lastNumber; //Page number of the most recently used page
+	private byte[] lastPage; //The most recently used page. Always an allocated page
+	private int pageCount; //Number of allocated pages
+	private byte[] lastWritable; //The most recently written page, which is never shared with a snapshot
+	private int lastWritableNumber;
+
+	private Snapshot base; //The snapshot whose pages are shared with memory, or null
+	private int[] dirty = new int[64]; //Numbers of the pages written since the base snapshot was taken or restored
+	private int dirtyCount;
+
+	/**
+	 * The contents of memory at some point in time. Snapshots are immutable
+	 */
+	public static class Snapshot {
+		private final byte[][][] table;
+		private final int pageCount;
+
+		private Snapshot(byte[][][] table, int pageCount) {
+			this.table = table;
+			this.pageCount = pageCount;
+		}
+	}
+
+	public Memory() {
+		clear();
+	}
+
+	/**
+	 * Loads a sign-extended byte
+	 * @param addr The address to load from
+	 * @return The byte at {@code addr}, sign-extended to 32 bits
+	 */
+	public int loadByte(int addr) {
+		return page(addr)[addr & PAGE_MASK];
+	}
+
+	/**
+	 * Loads a zero-extended byte
+	 * @param addr The address to load from
+	 * @return The byte at {@code addr}, zero-extended to 32 bits
+	 */
+	public int loadByteUnsigned(int addr) {
+		return page(addr)[addr & PAGE_MASK] & 0xFF;
+	}
+
+	/**
+	 * Loads a sign-extended halfword
+	 * @param addr The address of the least significant byte
+	 * @return The halfword starting at {@code addr}, sign-extended to 32 bits
+	 */
+	public int loadHalf(int addr) {
+		int offset = addr & PAGE_MASK;
+		if(offset > PAGE_SIZE - 2) { //Crosses a page boundary
+			return (short) (loadByteUnsigned(addr) | (loadByteUnsigned(addr + 1) << 8));
+		}
+		return (short) HALF.get(page(addr), offset);
+	}
+
+	/**
+	 * Loads a zero-extended halfword
+	 * @param addr The address of the least significant byte
+	 * @return The halfword starting at {@code addr}, zero-extended to 32 bits
+	 */
+	public int loadHalfUnsigned(int addr) {
+		int offset = addr & PAGE_MASK;
+		if(offset > PAGE_SIZE - 2) { //Crosses a page boundary
+			return loadByteUnsigned(addr) | (loadByteUnsigned(addr + 1) << 8);
+		}
+		return (short) HALF.get(page(addr), offset) & 0xFFFF;
+	}
+
+	/**
+	 * Loads a word
+	 * @param addr The address of the least significant byte
+	 * @return The word starting at {@code addr}
+	 */
+	public int loadWord(int addr) {
+		int offset = addr & PAGE_MASK;
+		if(offset > PAGE_SIZE - 4) { //Crosses a page boundary
+			return loadHalfUnsigned(addr) | (loadHalfUnsigned(addr + 2) << 16);
+		}
+		return (int) WORD.get(page(addr), offset);
+	}
+
+	/**
+	 * Stores the lower 8 bits of a value
+	 * @param addr The address to store at
+	 * @param value The value to store
+	 */
+	public void storeByte(int addr, int value) {
+		writablePage(addr)[addr & PAGE_MASK] = (byte) value;
+	}
+
+	/**
+	 * Stores the lower 16 bits of a value
+	 * @param addr The address of the least significant byte
+	 * @param value The value to store
+	 */
+	public void storeHalf(int addr, int value) {
+		int offset = addr & PAGE_MASK;
+		if(offset > PAGE_SIZE - 2) { //Crosses a page boundary
+			storeByte(addr, value);
+			storeByte(addr + 1, value >> 8);
+			return;
+		}
+		HALF.set(writablePage(addr), offset, (short) value);
+	}
+
+	/**
+	 * Stores a word
+	 * @param addr The address of the least significant byte
+	 * @param value The value to store
+	 */
+	public void storeWord(int addr, int value) {
+		int offset = addr & PAGE_MASK;
+		if(offset > PAGE_SIZE - 4) { //Crosses a page boundary
+			storeHalf(addr, value);
+			storeHalf(addr + 2, value >> 16);
+			return;
+		}
+		WORD.set(writablePage(addr), offset, value);
+	}
+
+	/**
+	 * Copies a range of bytes into memory
+	 * @param addr The address to copy to
+	 * @param data The bytes to copy
+	 * @param offset The index of the first byte in {@code data} to copy
+	 * @param length The number of bytes to copy
+	 */
+	public void write(int addr, byte[] data, int offset, int length) {
+		while(length > 0) {
+			int pageOffset = addr & PAGE_MASK;
+			int chunk = Math.min(length, PAGE_SIZE - pageOffset);
+			System.arraycopy(data, offset, writablePage(addr), pageOffset, chunk);
+			addr += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Copies the remaining bytes of a buffer into memory, one page at a time
+	 * @param addr The address to copy to
+	 * @param data The bytes to copy. Its position is advanced to its limit
+	 */
+	public void write(int addr, ByteBuffer data) {
+		while(data.hasRemaining()) {
+			int pageOffset = addr & PAGE_MASK;
+			int chunk = Math.min(data.remaining(), PAGE_SIZE - pageOffset);
+			data.get(writablePage(addr), pageOffset, chunk);
+			addr += chunk;
+		}
+	}
+
+	/**
+	 * Sets a range of memory to 0. Pages which have not been allocated are skipped, since they already read as 0
+	 * @param addr The first address to clear
+	 * @param length The number of bytes to clear
+	 */
+	public void zero(int addr, int length) {
+		while(length > 0) {
+			int pageOffset = addr & PAGE_MASK;
+			int chunk = Math.min(length, PAGE_SIZE - pageOffset);
+			if(page(addr) != ZERO_PAGE) {
+				Arrays.fill(writablePage(addr), pageOffset, pageOffset + chunk, (byte) 0);
+			}
+			addr += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Copies a range of bytes out of memory
+	 * @param addr The address to copy from
+	 * @param data The array to copy into
+	 * @param offset The index in {@code data} of the first byte
+	 * @param length The number of bytes to copy
+	 */
+	public void read(int addr, byte[] data, int offset, int length) {
+		while(length > 0) {
+			int pageOffset = addr & PAGE_MASK;
+			int chunk = Math.min(length, PAGE_SIZE - pageOffset);
+			System.arraycopy(page(addr), pageOffset, data, offset, chunk);
+			addr += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Releases all pages, setting every byte of memory to 0
+	 */
+	public void clear() {
+		table = new byte[DIR_SIZE][][];
+		lastNumber = -1;
+		lastPage = null;
+		lastWritableNumber = -1;
+		lastWritable = null;
+		pageCount = 0;
+		base = null;
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Takes a snapshot of memory. This takes time proportional to the number of allocated pages, but no page is copied
+	 * @return The snapshot
+	 */
+	public Snapshot snapshot() {
+		byte[][][] copy = new byte[DIR_SIZE][][];
+		for(int d = 0; d < DIR_SIZE; d++) {
+			if(table[d] != null) {
+				copy[d] = table[d].clone();
+			}
+		}
+		base = new Snapshot(copy, pageCount);
+		dirtyCount = 0;
+		lastWritableNumber = -1; //Every page is now shared with the snapshot
+		lastWritable = null;
+		return base;
+	}
+
+	/**
+	 * Restores memory to the contents it had when a snapshot was taken.
+	 * Restoring the most recently taken or restored snapshot only touches the pages written since then.
+	 * Restoring any other snapshot compares every page
+	 * @param snapshot The snapshot to restore
+	 * @return The numbers of the pages which were changed, ie. {@code address >>> PAGE_BITS}
+	 */
+	public int[] restore(Snapshot snapshot) {
+		int[] changed;
+		if(snapshot == base) {
+			changed = Arrays.copyOf(dirty, dirtyCount);
+			for(int number : changed) {
+				byte[][] dir = snapshot.table[number >>> DIR_BITS];
+				table[number >>> DIR_BITS][number & (DIR_SIZE - 1)] = dir == null ? null : dir[number & (DIR_SIZE - 1)];
+			}
+		} else {
+			int[] pages = new int[64];
+			int count = 0;
+			for(int d = 0; d < DIR_SIZE; d++) {
+				if(table[d] == null && snapshot.table[d] == null) {
+					continue;
+				}
+				if(table[d] == null) {
+					table[d] = new byte[DIR_SIZE][];
+				}
+				for(int p = 0; p < DIR_SIZE; p++) {
+					byte[] page = snapshot.table[d] == null ? null : snapshot.table[d][p];
+					if(table[d][p] != page) {
+						table[d][p] = page;
+						if(count == pages.length) {
+							pages = Arrays.copyOf(pages, count * 2);
+						}
+						pages[count++] = (d << DIR_BITS) | p;
+					}
+				}
+			}
+			changed = Arrays.copyOf(pages, count);
+			base = snapshot;
+		}
+		pageCount = snapshot.pageCount;
+		dirtyCount = 0;
+		lastNumber = -1;
+		lastPage = null;
+		lastWritableNumber = -1;
+		lastWritable = null;
+		return changed;
+	}
+
+	/**
+	 * @return The number of pages that have been allocated
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * @return The numbers of the allocated pages in ascending order, ie. {@code address >>> PAGE_BITS} of their first byte
+	 */
+	public int[] getPageNumbers() {
+		int[] numbers = new int[pageCount];
+		int count = 0;
+		for(int d = 0; d < DIR_SIZE && count < pageCount; d++) {
+			if(table[d] == null) {
+				continue;
+			}
+			for(int p = 0; p < DIR_SIZE; p++) {
+				if(table[d][p] != null) {
+					numbers[count++] = (d << DIR_BITS) | p;
+				}
+			}
+		}
+		return numbers;
+	}
+
+	/**
+	 * Gives a read-only view of an allocated page, without copying it. The view sees later writes to the page,
+	 * unless the page is copied on write because it is shared with a snapshot
+	 * @param number The number of the page, as returned by {@link #getPageNumbers()}
+	 * @return A buffer holding the {@link #PAGE_SIZE} bytes of the page
+	 */
+	public ByteBuffer getPage(int number) {
+		return ByteBuffer.wrap(page(number << PAGE_BITS)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Finds the page containing an address for reading
+	 * @param addr The address
+	 * @return The page, or a page of zeros if it has not been allocated
+	 */
+	private byte[] page(int addr) {
+		int number = addr >>> PAGE_BITS;
+		if(number == lastNumber) {
+			return lastPage;
+		}
+		byte[][] dir = table[number >>> DIR_BITS];
+		byte[] page = dir == null ? null : dir[number & (DIR_SIZE - 1)];
+		if(page == null) { //Not remembered, such that a later write allocates the page
+			return ZERO_PAGE;
+		}
+		lastNumber = number;
+		lastPage = page;
+		return page;
+	}
+
+	/**
+	 * Finds the page containing an address for writing, allocating it if necessary
+	 * @param addr The address
+	 * @return The page
+	 */
+	private byte[] writablePage(int addr) {
+		int number = addr >>> PAGE_BITS;
+		if(number == lastWritableNumber) {
+			return lastWritable;
+		}
+		byte[][] dir = table[number >>> DIR_BITS];
+		if(dir == null) {
+			dir = table[number >>> DIR_BITS] = new byte[DIR_SIZE][];
+		}
+		byte[] page = dir[number & (DIR_SIZE - 1)];
+		if(page == null) {
+			page = dir[number & (DIR_SIZE - 1)] = new byte[PAGE_SIZE];
+			pageCount++;
+			markDirty(number);
+		} else if(base != null && isShared(number, page)) { //Copy on write
+			page = dir[number & (DIR_SIZE - 1)] = page.clone();
+			markDirty(number);
+		}
+		lastNumber = number;
+		lastPage = page;
+		lastWritableNumber = number;
+		lastWritable = page;
+		return page;
+	}
+
+	/**
+	 * @return True if the page is part of the base snapshot, and must be copied before it is written
+	 */
+	private boolean isShared(int number, byte[] page) {
+		byte[][] dir = base.table[number >>> DIR_BITS];
+		return dir != null && dir[number & (DIR_SIZE - 1)] == page;
+	}
+
+	/**
+	 * Remembers that a page has been written since the base snapshot. Each page is only marked once
+	 */
+	private void markDirty(int number) {
+		if(base == null) {
+			return;
+		}
+		if(dirtyCount == dirty.length) {
+			dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+		}
+		dirty[dirtyCount++] = number;
+	}
+}
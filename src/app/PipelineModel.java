@@ -0,0 +1,245 @@
+package app;
+
+import java.io.PrintStream;
+
+/**
+ * A cycle-approximate timing model of a classic in-order pipeline with five stages: fetch (IF), decode (ID),
+ * execute (EX), memory access (MEM) and write back (WB). Attached with {@link RiscV#setPipelineModel(PipelineModel)},
+ * after which every instruction is passed to it once it has been executed, such that the program runs exactly
+ * as without it.
+ *
+ * Rather than moving instructions through the stages, the model keeps a scoreboard of the cycle from which the value
+ * of each register can be forwarded to EX, and computes the cycle in which each instruction is in EX from the
+ * instructions before it:
+ * <ul>
+ * <li>One instruction enters EX per cycle. Results are forwarded from the end of EX and MEM, so an instruction only waits
+ *     for an operand loaded by the instruction right before it, for one cycle (a load-use stall)</li>
+ * <li>Multiplications occupy EX for {@link #MUL_LATENCY} cycles and divisions for {@link #DIV_LATENCY} cycles,
+ *     holding up the instructions behind them</li>
+ * <li>Branches and JALR are resolved in EX, so a mispredicted branch or a JALR discards the {@link #BRANCH_PENALTY}
+ *     instructions fetched after it. JAL is resolved in ID, costing {@link #JUMP_PENALTY} cycle. Branches predicted
+ *     taken are assumed to find their target in a BTB. Without a predictor, branches are predicted not taken</li>
+ * <li>With a cache hierarchy, fetches and data accesses stall the whole pipeline for every cycle they take beyond one</li>
+ * </ul>
+ * The first instruction is fetched in cycle 1 and written back in cycle 5, so a program of n instructions takes
+ * n + 4 cycles plus the stalls
+ */
+public class PipelineModel {
+
+	public static final int MUL_LATENCY = 3;
+	public static final int DIV_LATENCY = 32;
+	public static final int BRANCH_PENALTY = 2;
+	public static final int JUMP_PENALTY = 1;
+
+	private final CacheHierarchy caches; //Null if every access takes one cycle
+	private final BranchPredictor predictor; //Null to predict branches not taken
+
+	private final long[] ready = new long[32]; //Cycle from which each register can be forwarded to EX
+	private long ex; //Cycle in which the last instruction was in EX
+	private long earliest = 3; //Earliest cycle in which the next instruction can be in EX
+	private long instructions;
+
+	private long loadUseStalls;
+	private long executeStalls; //Multiplications and divisions occupying EX
+	private long branchStalls;
+	private long fetchStalls;
+	private long memoryStalls;
+	private long branches;
+	private long mispredictions;
+	private long jumps;
+
+	/**
+	 * @param caches The caches giving the latency of fetches and data accesses, or null if every access hits
+	 *        in one cycle. The caches must not also be attached with {@link RiscV#setCaches(CacheHierarchy)}
+	 * @param predictor The predictor of conditional branches, or null to predict them not taken
+	 */
+	public PipelineModel(CacheHierarchy caches, BranchPredictor predictor) {
+		this.caches = caches;
+		this.predictor = predictor;
+	}
+
+	/**
+	 * Times an instruction which has been executed
+	 * @param pc The address of the instruction
+	 * @param inst The instruction
+	 * @param next The address of the instruction executed after it
+	 * @param addr The address accessed if the instruction is a load or store
+	 * @param width The number of bytes accessed, 0 if the instruction is not a load or store
+	 */
+	void instruction(int pc, Instruction inst, int next, int addr, int width) {
+		long cycle = earliest;
+		if(caches != null) {
+			int stall = caches.fetchTime(pc, inst.length) - 1;
+			fetchStalls += stall;
+			cycle += stall;
+		}
+
+		long operands = 0;
+		switch(inst.opcode) {
+			case Instruction.Rtype:
+			case Instruction.Stype:
+			case Instruction.Btype:
+				operands = Math.max(ready[inst.rs1], ready[inst.rs2]);
+				break;
+			case Instruction.ItypeRtype:
+			case Instruction.Itype1:
+			case Instruction.Itype2:
+				operands = ready[inst.rs1];
+				break;
+			case Instruction.Utype1:
+			case Instruction.Utype2:
+			case Instruction.Jtype:
+				break;
+			default: //ECALL, which reads the number and arguments of the call
+				for(int r = 10; r <= 13; r++) {
+					operands = Math.max(operands, ready[r]);
+				}
+				break;
+		}
+		if(operands > cycle) {
+			loadUseStalls += operands - cycle;
+			cycle = operands;
+		}
+		ex = cycle;
+		instructions++;
+
+		long result = ex + 1; //Cycle from which the result can be forwarded
+		long following = ex + 1; //Earliest cycle of the next instruction in EX
+		switch(inst.op) {
+			case MUL:
+			case MULH:
+			case MULHSU:
+			case MULHU:
+				result = following = ex + MUL_LATENCY;
+				executeStalls += MUL_LATENCY - 1;
+				break;
+			case DIV:
+			case DIVU:
+			case REM:
+			case REMU:
+				result = following = ex + DIV_LATENCY;
+				executeStalls += DIV_LATENCY - 1;
+				break;
+			case BEQ:
+			case BNE:
+			case BLT:
+			case BGE:
+			case BLTU:
+			case BGEU:
+				branches++;
+				boolean taken = next != pc + inst.length;
+				boolean predicted = predictor != null && predictor.predict(pc, pc + inst.imm);
+				if(predictor != null) {
+					predictor.update(pc, pc + inst.imm, taken);
+				}
+				if(predicted != taken) {
+					mispredictions++;
+					branchStalls += BRANCH_PENALTY;
+					following += BRANCH_PENALTY;
+				}
+				break;
+			case JAL:
+				jumps++;
+				branchStalls += JUMP_PENALTY;
+				following += JUMP_PENALTY;
+				break;
+			case JALR:
+				jumps++;
+				branchStalls += BRANCH_PENALTY;
+				following += BRANCH_PENALTY;
+				break;
+			default:
+				break;
+		}
+		if(width != 0) {
+			int stall = caches == null ? 0 : caches.dataTime(addr, width, inst.opcode == Instruction.Stype) - 1;
+			memoryStalls += stall;
+			following += stall;
+			result = ex + 2 + stall; //Loaded values are forwarded from the end of MEM
+		}
+
+		if(inst.opcode == Instruction.Stype || inst.opcode == Instruction.Btype) {
+			//No result
+		} else if(inst.op == RiscvOp.ECALL) {
+			ready[10] = result;
+		} else if(inst.rd != 0) {
+			ready[inst.rd] = result;
+		}
+		earliest = following;
+	}
+
+	/** @return The number of instructions timed */
+	public long getInstructions() {
+		return instructions;
+	}
+
+	/** @return The cycle in which the last instruction was written back, ie. the number of cycles taken so far */
+	public long getCycles() {
+		return instructions == 0 ? 0 : ex + 2;
+	}
+
+	/** @return The average number of cycles per instruction, 0 if no instruction has been timed */
+	public double getCPI() {
+		return instructions == 0 ? 0 : (double) getCycles() / instructions;
+	}
+
+	/** @return The cycles spent waiting for loaded values */
+	public long getLoadUseStalls() {
+		return loadUseStalls;
+	}
+
+	/** @return The cycles spent waiting for multiplications and divisions to leave EX */
+	public long getExecuteStalls() {
+		return executeStalls;
+	}
+
+	/** @return The cycles lost to mispredicted branches and to jumps */
+	public long getBranchStalls() {
+		return branchStalls;
+	}
+
+	/** @return The cycles spent waiting for instruction fetches missing the cache */
+	public long getFetchStalls() {
+		return fetchStalls;
+	}
+
+	/** @return The cycles spent waiting for loads and stores missing the cache */
+	public long getMemoryStalls() {
+		return memoryStalls;
+	}
+
+	/** @return The number of conditional branches */
+	public long getBranches() {
+		return branches;
+	}
+
+	public long getMispredictions() {
+		return mispredictions;
+	}
+
+	/** @return The cache hierarchy, or null if every access hits */
+	public CacheHierarchy getCaches() {
+		return caches;
+	}
+
+	/**
+	 * Prints the cycles, CPI and the stall cycles by cause
+	 * @param out The stream to print to
+	 */
+	public void printSummary(PrintStream out) {
+		long cycles = getCycles();
+		out.printf("Pipeline: %d cycles for %d instructions, CPI %.3f\n", cycles, instructions, getCPI());
+		out.printf("  %-18s %14s %8s\n", "Stalls", "Cycles", "% cycles");
+		printStall(out, "Load-use", loadUseStalls, cycles);
+		printStall(out, "Multiply/divide", executeStalls, cycles);
+		printStall(out, "Branches, jumps", branchStalls, cycles);
+		printStall(out, "Instruction fetch", fetchStalls, cycles);
+		printStall(out, "Data memory", memoryStalls, cycles);
+		out.printf("Branches predicted %s: %d, mispredicted %d (%.2f%%), jumps %d\n", predictor == null ? "not taken" : "by " + predictor,
+			branches, mispredictions, branches == 0 ? 0.0 : 100.0 * mispredictions / branches, jumps);
+	}
+
+	private static void printStall(PrintStream out, String cause, long stalls, long cycles) {
+		out.printf("  %-18s %14d %7.2f%%\n", cause, stalls, cycles == 0 ? 0.0 : 100.0 * stalls / cycles);
+	}
+}
@@ -0,0 +1,354 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles a running program: how many times each instruction is executed, how often each branch is taken,
+ * and how many times each function is called.
+ *
+ * Calls and returns are recognized by the link register convention: JAL and JALR writing ra or t0 are calls,
+ * JALR x0 through ra or t0 is a return. A shadow call stack is kept, such that executed instructions can be
+ * attributed to the full call path, and written as collapsed stacks for flame graph tools.
+ *
+ * The simulator reports whole blocks with {@link #block(Block, int)}, or single instructions
+ * with {@link #instruction(int, Instruction, int)}. Counting a block takes constant time, regardless of its length
+ */
+public class Profiler {
+
+	private final SymbolTable symbols;
+
+	//Executing the instructions in [start, end) adds 1 at start and subtracts 1 at end.
+	//The execution count of an instruction is the sum of all deltas at or below its address
+	private final Counters deltas = new Counters();
+	private final Counters taken = new Counters(); //Taken branches, by address of the branch
+	private final Counters notTaken = new Counters(); //Branches not taken, by address of the branch
+	private final Counters calls = new Counters(); //Calls, by address of the called function
+
+	//Calling context tree. Node 0 is the root, every other node is a function called from its parent node
+	private int[] nodeParent = new int[64];
+	private int[] nodeFunction = new int[64]; //Start address of the function
+	private long[] nodeSelf = new long[64]; //Instructions executed in the function itself, with this call path
+	private int nodeCount = 1;
+	private HashMap<Long, Integer> children = new HashMap<Long, Integer>(); //(parent << 32 | function) -> node
+
+	//Shadow call stack
+	private int[] stackNode = new int[64];
+	private int[] stackReturn = new int[64]; //Address a return of the frame goes to
+	private int depth = 0;
+
+	/**
+	 * Creates a profiler
+	 * @param symbols The symbols of the program, used to name functions in the reports
+	 * @param entry The address at which the program starts, which is the root of the call stacks
+	 */
+	public Profiler(SymbolTable symbols, int entry) {
+		this.symbols = symbols;
+		nodeFunction[0] = symbols.startOf(entry);
+	}
+
+	/**
+	 * Counts the execution of a block
+	 * @param block The block which was executed in full, including its exit
+	 * @param next The address of the instruction executed after the block
+	 */
+	void block(Block block, int next) {
+		range(block.start, block.fallthrough, block.length());
+		if(block.exit != null) {
+			control(block.exitPC, block.exit, next);
+		}
+	}
+
+	/**
+	 * Counts the execution of a run of consecutive instructions, which did not change control flow
+	 * @param start The address of the first instruction
+	 * @param end The address following the last instruction
+	 * @param count The number of instructions
+	 */
+	void range(int start, int end, int count) {
+		if(count == 0) {
+			return;
+		}
+		deltas.add(start, 1);
+		deltas.add(end, -1);
+		nodeSelf[stackNode[depth]] += count;
+	}
+
+	/**
+	 * Counts the execution of a single instruction
+	 * @param pc The address of the instruction
+	 * @param inst The instruction
+	 * @param next The address of the instruction executed after it
+	 */
+	void instruction(int pc, Instruction inst, int next) {
+		range(pc, pc + inst.length, 1);
+		control(pc, inst, next);
+	}
+
+	/**
+	 * Counts branches, calls and returns
+	 * @param pc The address of the instruction
+	 * @param inst The instruction
+	 * @param next The address of the instruction executed after it
+	 */
+	private void control(int pc, Instruction inst, int next) {
+		switch(inst.op) {
+			case BEQ:
+			case BNE:
+			case BLT:
+			case BGE:
+			case BLTU:
+			case BGEU:
+				if(next == pc + inst.length) {
+					notTaken.add(pc, 1);
+				} else {
+					taken.add(pc, 1);
+				}
+				break;
+			case JAL:
+			case JALR:
+				if(isLink(inst.rd)) {
+					call(next, pc + inst.length);
+				} else if(inst.op == RiscvOp.JALR && isLink(inst.rs1)) {
+					ret(next);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static boolean isLink(int reg) {
+		return reg == 1 || reg == 5; //ra and t0
+	}
+
+	/**
+	 * Enters a function, pushing it on the shadow stack
+	 * @param target The address called
+	 * @param returnAddress The address a return from the call goes to
+	 */
+	private void call(int target, int returnAddress) {
+		calls.add(target, 1);
+		int function = symbols.startOf(target);
+		int parent = stackNode[depth];
+		long key = ((long) parent << 32) | (function & 0xFFFFFFFFL);
+		Integer node = children.get(key);
+		if(node == null) {
+			node = newNode(parent, function);
+			children.put(key, node);
+		}
+		if(++depth == stackNode.length) {
+			stackNode = Arrays.copyOf(stackNode, depth * 2);
+			stackReturn = Arrays.copyOf(stackReturn, depth * 2);
+		}
+		stackNode[depth] = node;
+		stackReturn[depth] = returnAddress;
+	}
+
+	/**
+	 * Leaves the frame that a return goes back to. Returns that do not match a frame, eg. longjmp-style code,
+	 * leave the stack as it is
+	 * @param target The address returned to
+	 */
+	private void ret(int target) {
+		for(int d = depth; d > 0; d--) {
+			if(stackReturn[d] == target) {
+				depth = d - 1;
+				return;
+			}
+		}
+	}
+
+	private int newNode(int parent, int function) {
+		if(nodeCount == nodeParent.length) {
+			nodeParent = Arrays.copyOf(nodeParent, nodeCount * 2);
+			nodeFunction = Arrays.copyOf(nodeFunction, nodeCount * 2);
+			nodeSelf = Arrays.copyOf(nodeSelf, nodeCount * 2);
+		}
+		nodeParent[nodeCount] = parent;
+		nodeFunction[nodeCount] = function;
+		return nodeCount++;
+	}
+
+	/**
+	 * @param pc The address of an instruction
+	 * @return The number of times the instruction has been executed
+	 */
+	public long getCount(int pc) {
+		long count = 0;
+		for(long[] entry : deltas.entries()) {
+			if(entry[0] > Integer.toUnsignedLong(pc)) {
+				break;
+			}
+			count += entry[1];
+		}
+		return count;
+	}
+
+	/**
+	 * @param pc The address of a branch
+	 * @return The number of times the branch has been taken
+	 */
+	public long getTaken(int pc) {
+		return taken.get(pc);
+	}
+
+	/**
+	 * @param pc The address of a branch
+	 * @return The number of times the branch has not been taken
+	 */
+	public long getNotTaken(int pc) {
+		return notTaken.get(pc);
+	}
+
+	/**
+	 * @param target The address of a function
+	 * @return The number of times the function has been called
+	 */
+	public long getCalls(int target) {
+		return calls.get(target);
+	}
+
+	/**
+	 * Prints the hottest instructions, functions, branches and call targets, most executed first
+	 * @param out The stream to print to
+	 * @param mem The memory of the simulator, used to show the hottest instructions
+	 * @param top The maximum number of entries in each list
+	 */
+	public void report(PrintStream out, Memory mem, int top) {
+		//Code without symbols belongs to the closest function start at or below it, which is known from the calls made
+		List<long[]> targets = calls.entries();
+		long[] starts = new long[targets.size() + 1];
+		starts[0] = Integer.toUnsignedLong(nodeFunction[0]);
+		for(int i = 0; i < targets.size(); i++) {
+			starts[i + 1] = targets.get(i)[0];
+		}
+		Arrays.sort(starts);
+
+		//Turn the deltas into per-instruction counts, stepping over each instruction by its length
+		List<long[]> instructions = new ArrayList<long[]>();
+		Instruction decoded = new Instruction();
+		HashMap<Integer, Long> functions = new HashMap<Integer, Long>();
+		long total = 0;
+		long count = 0;
+		long[] previous = null;
+		for(long[] entry : deltas.entries()) {
+			if(previous != null && count != 0) {
+				for(long pc = previous[0]; pc < entry[0]; pc += decoded.length) {
+					decoded.updateFields(mem.loadWord((int) pc));
+					instructions.add(new long[] {pc, count});
+					functions.merge(functionOf((int) pc, starts), count, Long::sum);
+					total += count;
+				}
+			}
+			count += entry[1];
+			previous = entry;
+		}
+
+		out.printf("Profile of %d instructions\n", total);
+		out.printf("\nHottest instructions:\n%10s %12s %7s  %-24s %s\n", "PC", "Count", "%", "Location", "Instruction");
+		instructions.sort((a, b) -> Long.compare(b[1], a[1]));
+		for(long[] entry : instructions.subList(0, Math.min(top, instructions.size()))) {
+			Instruction inst = new Instruction(mem.loadWord((int) entry[0]));
+			out.printf("0x%08x %12d %6.2f%%  %-24s %s rd=%d rs1=%d rs2=%d imm=%d\n", entry[0], entry[1], 100.0 * entry[1] / total,
+				location((int) entry[0]), inst.op, inst.rd, inst.rs1, inst.rs2, inst.imm);
+		}
+
+		out.printf("\nHottest functions:\n%10s %12s %7s  %s\n", "Address", "Count", "%", "Function");
+		List<Map.Entry<Integer, Long>> sorted = new ArrayList<Map.Entry<Integer, Long>>(functions.entrySet());
+		sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		for(Map.Entry<Integer, Long> entry : sorted.subList(0, Math.min(top, sorted.size()))) {
+			out.printf("0x%08x %12d %6.2f%%  %s\n", entry.getKey(), entry.getValue(), 100.0 * entry.getValue() / total, functionName(entry.getKey()));
+		}
+
+		out.printf("\nHottest branches:\n%10s %12s %7s  %s\n", "PC", "Executed", "Taken", "Location");
+		List<long[]> branches = new ArrayList<long[]>();
+		for(long[] entry : taken.entries()) {
+			branches.add(new long[] {entry[0], entry[1] + notTaken.get((int) entry[0]), entry[1]});
+		}
+		for(long[] entry : notTaken.entries()) {
+			if(taken.get((int) entry[0]) == 0) {
+				branches.add(new long[] {entry[0], entry[1], 0});
+			}
+		}
+		branches.sort((a, b) -> Long.compare(b[1], a[1]));
+		for(long[] entry : branches.subList(0, Math.min(top, branches.size()))) {
+			out.printf("0x%08x %12d %6.2f%%  %s\n", entry[0], entry[1], 100.0 * entry[2] / entry[1], location((int) entry[0]));
+		}
+
+		out.printf("\nMost called functions:\n%10s %12s  %s\n", "Address", "Calls", "Function");
+		targets.sort((a, b) -> Long.compare(b[1], a[1]));
+		for(long[] entry : targets.subList(0, Math.min(top, targets.size()))) {
+			out.printf("0x%08x %12d  %s\n", entry[0], entry[1], functionName((int) entry[0]));
+		}
+	}
+
+	/**
+	 * Writes the call stacks in the collapsed format used by flame graph tools: One line per call path,
+	 * holding the semicolon-separated functions from the outermost to the innermost, followed by the number
+	 * of instructions executed in the innermost function with that call path
+	 * @param file The file to write
+	 * @throws IOException If the file could not be written
+	 */
+	public void writeCollapsedStacks(File file) throws IOException {
+		try(PrintWriter out = new PrintWriter(file)) {
+			for(int node = 0; node < nodeCount; node++) {
+				if(nodeSelf[node] == 0) {
+					continue;
+				}
+				StringBuilder path = new StringBuilder(functionName(nodeFunction[node]));
+				for(int parent = node; parent != 0; ) {
+					parent = nodeParent[parent];
+					path.insert(0, ';').insert(0, functionName(nodeFunction[parent]));
+				}
+				out.printf("%s %d\n", path, nodeSelf[node]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the function containing an instruction
+	 * @param pc The address of the instruction
+	 * @param starts The start addresses of the functions which have been called, sorted
+	 * @return The start address of the symbol containing {@code pc}, or the closest function start below it if there is no symbol
+	 */
+	private int functionOf(int pc, long[] starts) {
+		if(symbols.lookup(pc) != null) {
+			return symbols.startOf(pc);
+		}
+		int index = Arrays.binarySearch(starts, Integer.toUnsignedLong(pc));
+		if(index < 0) {
+			index = -index - 2; //The closest start below pc
+		}
+		return index < 0 ? pc : (int) starts[index];
+	}
+
+	/**
+	 * @param function The start address of a function
+	 * @return The name of the function, or its address if it has no symbol
+	 */
+	private String functionName(int function) {
+		String name = symbols.lookup(function);
+		return name != null ? name : String.format("0x%08x", function);
+	}
+
+	/**
+	 * @param addr An address
+	 * @return The address as symbol+offset, or an empty string if there is no symbol
+	 */
+	private String location(int addr) {
+		String name = symbols.lookup(addr);
+		if(name == null) {
+			return "";
+		}
+		int offset = addr - symbols.startOf(addr);
+		return offset == 0 ? name : String.format("%s+0x%x", name, offset);
+	}
+}
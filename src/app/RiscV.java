@@ -2,125 +2,737 @@ package app;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
 
 public class RiscV {
 
+	/** The value of SP after a reset: The top of the 1MiB of memory that older versions of the simulator had */
+	public static final int INITIAL_SP = 0x100000;
+
+	/** The number of times a block is interpreted before it is compiled, when running headless from the command line */
+	public static final int DEFAULT_JIT_THRESHOLD = 100;
+
+	private static final long PUBLISH_INTERVAL = 1 << 26; //Instructions between publishing statistics during long runs
+	private static final long WATCHDOG_INTERVAL = 1 << 20; //Instructions between checks of the time limit
+
+	/** Why the simulator stopped executing */
+	public enum Status {
+		RUNNING, //Not stopped by the program or a limit, eg. at a breakpoint or when the budget of runHeadless was used up
+		EXITED, //The program exited with ECALL 10
+		INSTRUCTION_LIMIT, //The instruction limit was reached, see setInstructionLimit
+		TIME_LIMIT //The time limit was reached, see setTimeLimit
+	}
+
 	// Variables for hardware abstraction
 	private int PC; 
 	private int PCNext; 
 	private int[] reg = new int[32];
-	private byte[] mem = new byte[1048576]; 
+	private Memory mem = new Memory();
+	private int entry; //Address of the first instruction, as given by the loaded program
+	private Snapshot loaded; //The state right after the program was loaded, restored by the reset command
+	private Checkpoint checkpoint; //The checkpoint the program was resumed from, or null
+	private SymbolTable symbols = new SymbolTable(new int[0], new int[0], new String[0]);
 	private boolean running;
-	private int source;
+	private Status status = Status.RUNNING;
+	private long instructionLimit = Long.MAX_VALUE; //Total number of instructions that may be retired
+	private long timeLimit; //Nanoseconds a single run may take, 0 if unlimited
+	private boolean quiet; //Set when nothing may be printed, see RiscV(File)
+	private long instret; //Number of instructions retired
+	private long sincePublished; //Instructions retired since the statistics were last published
 	private Instruction ci; 
+	private DecodeCache decodeCache = new DecodeCache();
+	private Profiler profiler; //Null unless profiling
+	private Statistics stats = new Statistics();
+	private TraceWriter tracer; //Null unless tracing
+	private AccessObserver observer; //Null unless modelling caches, see setAccessObserver
+	private BranchModel branches; //Null unless predicting branches
+	private PipelineModel pipeline; //Null unless timing the pipeline
+	private Syscalls syscalls = new Syscalls(this, mem);
+	private int exitCode; //Set by the exit2 call
+
+	// Variables for the basic block engine
+	private HashMap<Integer, Block> blocks = new HashMap<Integer, Block>();
+	private boolean blockMode;
+	private int jitThreshold = -1; //Number of executions before a block is compiled, negative if the JIT is disabled
+	boolean codeModified; //Set when a store overwrites code which has been decoded. Package-private, since compiled blocks read it
 
 	// Variables for user input management
-	private Scanner scan;
+	private Scanner scan; //Created when user input is first needed, see scanner()
 	private Scanner linescan;
 	private boolean verbose;
 	private int stepCount;
 	private boolean debugMode;
-	private ArrayList<Integer> breakpointList;
+	private AddressSet breakpoints; //Instruction addresses at which to stop
+	private AddressSet watchpoints; //Byte addresses at which loads and stores stop
+	private boolean watchpointHit; //Set when the last instruction accessed a watched address
+	private boolean exitRequested; //Set by the exit command, which leaves run() without finishing the program
 
 	/**
 	 * Instantiates the RISC-V ISA Simulator by loading in the instructions to operate on
 	 * @throws Exception If anything bad happens when loading instructions, @see {@link RiscV#loadInstructionsViaCLI()}
 	 */
 	public RiscV() throws Exception {
-		scan = new Scanner(System.in);
 		loadInstructionsViaCLI();
 		initialSetup();
 	}
 
 	public RiscV(String testName) throws Exception {
-		scan = new Scanner(System.in);
 		loadInstructionsFromFilename(testName);
 		initialSetup();
 	}
 
+	/**
+	 * Instantiates the simulator with a program, without printing anything or reading from the console.
+	 * Used when many simulators run side by side, see {@link BatchRunner}
+	 * @param program The ELF executable or flat binary to load
+	 * @throws IOException If the program could not be read
+	 */
+	public RiscV(File program) throws IOException {
+		loadInstructions(program);
+		initialSetup();
+		quiet = true;
+		syscalls.in = null;
+		syscalls.out = null;
+		syscalls.fileAccess = false;
+	}
+
+	/**
+	 * Instantiates the simulator with a program which is already in memory, without printing anything,
+	 * reading from the console or touching any file. Meant for embedding the simulator in other applications
+	 * @param program The ELF executable or flat binary, from the position of the buffer to its limit.
+	 * The buffer itself is not modified
+	 * @throws IOException If the program is an ELF file for another architecture, or is truncated
+	 */
+	public RiscV(ByteBuffer program) throws IOException {
+		ByteBuffer data = program.slice();
+		if(ElfLoader.isElf(data)) {
+			loadElf(new ElfLoader(data));
+		} else {
+			mem.write(0, data);
+		}
+		initialSetup();
+		quiet = true;
+		syscalls.in = null;
+		syscalls.out = null;
+		syscalls.fileAccess = false;
+	}
+
 	private void initialSetup() {
+		syscalls.in = System.in;
+		syscalls.out = System.out;
+		syscalls.brk = initialBreak();
 		ci = new Instruction();
-		PC = 0;
+		PC = entry;
 		running = true;
 		stepCount = 0;
 		verbose = false;
-		breakpointList = new ArrayList<Integer>();
+		breakpoints = new AddressSet();
+		watchpoints = new AddressSet();
+		if(checkpoint != null) {
+			PC = checkpoint.pc;
+			System.arraycopy(checkpoint.reg, 0, reg, 0, reg.length);
+			instret = checkpoint.instret;
+			running = checkpoint.running;
+			syscalls.brk = checkpoint.brk;
+			status = running ? Status.RUNNING : Status.EXITED;
+			for(int addr : checkpoint.breakpoints) {
+				breakpoints.add(addr);
+			}
+			for(int addr : checkpoint.watchpoints) {
+				watchpoints.add(addr);
+			}
+		}
+		loaded = snapshot();
 	}
 
 	/**
 	 * Run the simulator. This method will execute the instructions located in IM,
-	 * until it encounters ECALL 10 (exit)
+	 * until it encounters ECALL 10 (exit), or the user types "exit"
 	 * If debug mode is not enabled, the user is able to enter inputs via {@link #handleUserInput()}
 	 */
 	public void run() {
 		if(!debugMode) {
 			//Flush scanner from file input
-			if(scan.hasNextLine()) {
-				scan.nextLine();
+			if(scanner().hasNextLine()) {
+				scanner().nextLine();
 			}
 			System.out.printf("Welcome to the RISC-V ISA Simulator. For help, type \"help\"\n");
 		}
 		while(running) {
 			handleUserInput();
-			fetch();
-			decode();
-			exMemWb();
-			if(verbose) {
+			if(exitRequested) {
+				break;
+			}
+			if(verbose) { //Print every instruction
+				executeChecked(1);
 				System.out.printf("op=%s, rd=%d, rs1=%d, rs2=%d, imm=%d\n", ci.op, ci.rd, ci.rs1, ci.rs2, ci.imm);
+				if(stepCount > 0) {
+					stepCount--;
+				}
+			} else if(!breakpoints.isEmpty() || !watchpoints.isEmpty()) {
+				long executed = executeChecked(debugMode ? Long.MAX_VALUE : stepCount);
+				if(!debugMode) {
+					stepCount -= (int) executed;
+				}
+			} else if(debugMode) {
+				execute(Long.MAX_VALUE);
+			} else { //Run until the step count has been used up, without returning to handleUserInput in between
+				stepCount -= (int) execute(stepCount);
 			}
-			
-			PC = PCNext;
-			if(stepCount > 0) {
-				stepCount--;
+			if(status == Status.INSTRUCTION_LIMIT || status == Status.TIME_LIMIT) {
+				break;
 			}
 		}
 
-		scan.close();
+		if(scan != null) {
+			scan.close();
+		}
 		
-		if(!debugMode) {
-			System.out.printf("\nExecution has finished. Register dump:\n");
-			dumpRegisters();
+		if(exitRequested) {
+			exitRequested = false;
+		} else {
+			if(!debugMode) {
+				if(running) { //Stopped by a limit. The dump shows how far the program got
+					System.out.printf("\nExecution stopped by the %s after %d instructions, at PC 0x%08x. Register dump:\n",
+						status == Status.TIME_LIMIT ? "time limit" : "instruction limit", instret, PC);
+				} else {
+					System.out.printf("\nExecution has finished. Register dump:\n");
+				}
+				dumpRegisters();
+				System.out.printf("\n");
+				stats.printSummary(System.out);
+			}
+
+			writeRegisterDump(new File("regdump.res"));
+
+			if(profiler != null) {
+				writeProfile(new File("profile.folded"));
+			}
+		}
+		if(tracer != null) {
+			try {
+				stopTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
+	}
 
-		File regdump = new File("regdump.res");
-		FileOutputStream fos;
+	/**
+	 * Prints the profile of the program, and writes its call stacks in the collapsed format used by flame graph tools
+	 * @param file The file to write the call stacks to
+	 */
+	public void writeProfile(File file) {
+		System.out.printf("\n");
+		profiler.report(System.out, mem, 20);
 		try {
-			fos = new FileOutputStream(regdump);
+			profiler.writeCollapsedStacks(file);
+			System.out.printf("\nCall stacks written to %s\n", file.getPath());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the program until it exits or a limit is reached, without handling any user input or printing anything.
+	 * Breakpoints and verbose mode are ignored, and the block engine is used if it has been enabled.
+	 * Afterwards, {@link #getStatus()} tells why execution stopped
+	 * @return The number of instructions executed
+	 */
+	public long runHeadless() {
+		return execute(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs the program headless until it exits or a number of instructions have been executed, see {@link #runHeadless()}
+	 * @param budget The maximum number of instructions to execute
+	 * @return The number of instructions executed
+	 */
+	public long runHeadless(long budget) {
+		return execute(budget);
+	}
+
+	/**
+	 * @return True if the program has not exited yet
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return Why the simulator last stopped executing
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The exit code given by the program to the exit2 call, or 0 if it exited otherwise or is still running
+	 */
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * Connects the console of the program, used by the print calls and by reading and writing descriptors 0 to 2.
+	 * Programs loaded by name use the console of the host, others have none until this is called
+	 * @param in The console input, or null if reading the console always gives end of file
+	 * @param out The console output, or null to discard it. Output is buffered, and written whenever the simulator stops
+	 */
+	public void setConsole(InputStream in, OutputStream out) {
+		syscalls.flush();
+		syscalls.in = in;
+		syscalls.out = out;
+	}
+
+	/**
+	 * Allows or forbids the program to open files on the host. Programs loaded by name may open files, others may not
+	 * @param allowed True if the open call may open files
+	 */
+	public void setFileAccess(boolean allowed) {
+		syscalls.fileAccess = allowed;
+	}
+
+	/**
+	 * Limits the total number of instructions the program may retire, such that a program which never exits
+	 * is stopped with {@link Status#INSTRUCTION_LIMIT}. The limit is enforced by shortening the budget of every run,
+	 * so it costs nothing while executing
+	 * @param limit The maximum number of instructions, counting those already retired
+	 */
+	public void setInstructionLimit(long limit) {
+		instructionLimit = limit;
+	}
+
+	/**
+	 * Limits the wall-clock time of a single run: A call to {@link #runHeadless()}, or running until the next breakpoint
+	 * or user input with {@link #run()}. A run taking longer is stopped with {@link Status#TIME_LIMIT}.
+	 * The clock is only read every million or so instructions, so the run may take slightly longer than the limit
+	 * @param millis The maximum time in milliseconds, 0 for no limit
+	 */
+	public void setTimeLimit(long millis) {
+		timeLimit = millis * 1000000;
+	}
+
+	/**
+	 * Executes instructions back to back until the program exits or the budget has been used up.
+	 * No user input, breakpoints or verbose output is handled while executing
+	 * @param budget The maximum number of instructions to execute
+	 * @return The number of instructions executed
+	 */
+	private long execute(long budget) {
+		long start = System.nanoTime();
+		budget = Math.min(budget, Math.max(0, instructionLimit - instret));
+		long executed = 0;
+		boolean timedOut = false;
+		stats.claim();
+		//Runs in chunks, such that statistics are published and the time limit is checked between chunks instead of per instruction
+		while(running && executed < budget) {
+			long chunkEnd = executed + Math.min(budget - executed, timeLimit > 0 ? WATCHDOG_INTERVAL : PUBLISH_INTERVAL);
+			if(blockMode && !observed()) { //Tracing, caches and the pipeline need every instruction to be interpreted
+				executed += runBlocks(chunkEnd - executed);
+			}
+			while(running && executed < chunkEnd) { //Also executes the remainder of the chunk which was too small for a block
+				fetch();
+				if(observed()) {
+					observedExMemWb();
+				} else {
+					exMemWb();
+				}
+				count();
+				PC = PCNext;
+				executed++;
+			}
+			if(sincePublished + executed >= PUBLISH_INTERVAL) {
+				stats.publish(blocks.values(), System.nanoTime() - start);
+				sincePublished = -executed; //Counted from here once the run ends
+			}
+			if(timeLimit > 0 && System.nanoTime() - start >= timeLimit) {
+				timedOut = true;
+				break;
+			}
+		}
+		instret += executed;
+		stats.addTime(System.nanoTime() - start);
+		publishStatistics(executed);
+		updateStatus(timedOut);
+		return executed;
+	}
+
+	/**
+	 * Publishes the statistics at the end of a run if {@link #PUBLISH_INTERVAL} instructions have been retired since
+	 * they were last published, and otherwise leaves them to the first read. This way, short runs do not walk every block,
+	 * while a reader on another thread never sees counts more than an interval old
+	 * @param executed The number of instructions executed by the run
+	 */
+	private void publishStatistics(long executed) {
+		sincePublished += executed;
+		if(sincePublished >= PUBLISH_INTERVAL) {
+			stats.publish(blocks.values(), 0);
+			sincePublished = 0;
+		} else {
+			stats.publishLater(blocks.values());
+		}
+	}
+
+	/**
+	 * Sets the status after a run, and writes the console output of the program
+	 * @param timedOut True if the run was stopped by the time limit
+	 */
+	private void updateStatus(boolean timedOut) {
+		syscalls.flush();
+		if(!running) {
+			status = Status.EXITED;
+		} else if(timedOut) {
+			status = Status.TIME_LIMIT;
+		} else if(instret >= instructionLimit) {
+			status = Status.INSTRUCTION_LIMIT;
+		} else {
+			status = Status.RUNNING;
+		}
+	}
+
+	/**
+	 * Counts the current instruction in the statistics, and in the profile and branch model if enabled.
+	 * Must be called after the instruction has executed, and before PC is updated
+	 */
+	private void count() {
+		stats.executed[ci.op.ordinal()]++;
+		if(PCNext != PC + ci.length) {
+			stats.taken[ci.op.ordinal()]++;
+		}
+		if(profiler != null) {
+			profiler.instruction(PC, ci, PCNext);
+		}
+		if(branches != null) {
+			branches.instruction(PC, ci, PCNext);
+		}
+	}
+
+	/**
+	 * Executes instructions one at a time with the interpreter, stopping at breakpoints and watchpoints.
+	 * The instruction at the current PC is always executed, such that execution can be resumed from a breakpoint.
+	 * The checks are only made here, such that breakpoints and watchpoints cost nothing while none are set
+	 * @param budget The maximum number of instructions to execute
+	 * @return The number of instructions executed
+	 */
+	private long executeChecked(long budget) {
+		long start = System.nanoTime();
+		budget = Math.min(budget, Math.max(0, instructionLimit - instret));
+		long executed = 0;
+		boolean timedOut = false;
+		stats.claim();
+		while(running && executed < budget) {
+			fetch();
+			int pc = PC;
+			int width = accessWidth(ci.op);
+			int addr = reg[ci.rs1] + ci.imm; //Read before executing, since a load may overwrite rs1
+			if(observed()) {
+				observedExMemWb();
+			} else {
+				exMemWb();
+			}
+			count();
+			PC = PCNext;
+			executed++;
+			if(width != 0 && watchpoints.containsAny(addr, width)) {
+				System.out.printf("Watchpoint hit by %s of address 0x%08x at PC %d\n", ci.op, addr, pc);
+				watchpointHit = true;
+				break;
+			}
+			if(breakpoints.contains(PC)) {
+				break;
+			}
+			if(timeLimit > 0 && (executed & (WATCHDOG_INTERVAL - 1)) == 0 && System.nanoTime() - start >= timeLimit) {
+				timedOut = true;
+				break;
+			}
+		}
+		instret += executed;
+		stats.addTime(System.nanoTime() - start);
+		publishStatistics(executed);
+		updateStatus(timedOut);
+		return executed;
+	}
+
+	/**
+	 * @return True if every instruction must be executed by {@link #observedExMemWb()}
+	 */
+	private boolean observed() {
+		return tracer != null || observer != null || pipeline != null;
+	}
+
+	/**
+	 * Executes the current instruction, passing its accesses through the cache model, timing it in the pipeline model
+	 * and adding it to the trace, whichever are enabled
+	 */
+	private void observedExMemWb() {
+		int width = accessWidth(ci.op);
+		int addr = width == 0 ? 0 : reg[ci.rs1] + ci.imm;
+		int stored = reg[ci.rs2];
+		if(observer != null) {
+			observer.fetch(PC, ci.length);
+			if(width != 0) {
+				observer.data(addr, width, ci.opcode == Instruction.Stype);
+			}
+		}
+		exMemWb();
+		if(pipeline != null) {
+			pipeline.instruction(PC, ci, PCNext, addr, width);
+		}
+		if(tracer == null) {
+			return;
+		}
+		boolean writesRd = ci.opcode != Instruction.Stype && ci.opcode != Instruction.Btype && ci.op != RiscvOp.ECALL;
+		int rdValue = writesRd ? reg[ci.rd] : 0;
+		int value;
+		if(width == 0) {
+			value = 0;
+		} else if(ci.opcode == Instruction.Stype) {
+			value = width == 4 ? stored : stored & ((1 << (8 * width)) - 1);
+		} else {
+			value = rdValue;
+		}
+		tracer.record(PC, ci.source, rdValue, addr, value);
+	}
+
+	/**
+	 * @param op An operation
+	 * @return The number of bytes accessed if {@code op} is a load or store, otherwise 0
+	 */
+	private static int accessWidth(RiscvOp op) {
+		switch(op) {
+			case LB:
+			case LBU:
+			case SB:
+				return 1;
+			case LH:
+			case LHU:
+			case SH:
+				return 2;
+			case LW:
+			case SW:
+				return 4;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Writes the contents of the register file to a file, 4 bytes per register in big-endian order
+	 * @param file The file to write
+	 */
+	public void writeRegisterDump(File file) {
+		try(FileOutputStream fos = new FileOutputStream(file)) {
 			for(int i=0; i<32; i++) {
 				for(int j=3; j>=0; j--) {
 					fos.write(reg[i] >> j*8);
 				}
 			}
-			
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Fetches the next instruction from memory and updates PCNext
+	 * Fetches the next instruction and updates PCNext.
+	 * The instruction is looked up in the decode cache, and is only read from memory and decoded on a miss
 	 */
 	private void fetch() {
-		this.source = mem[PC] & 0xFF;
-		this.source |= (mem[PC + 1] & 0xFF) << 8;
-		this.source |= (mem[PC + 2] & 0xFF) << 16;
-		this.source |= (mem[PC + 3] & 0xFF) << 24;
-		PCNext = PC + 4;
+		ci = decode(PC);
+		PCNext = PC + ci.length;
 	}
 
 	/**
-	 * Decodes the current instruction, updating the values of opcode, rd, rs1 etc
+	 * Decodes the instruction at the given address, updating the values of opcode, rd, rs1 etc.
+	 * Decoded instructions are stored in the decode cache, such that each instruction is only decoded once
+	 * @param pc The address of the instruction
+	 * @return The decoded instruction
 	 */
-	private void decode() {
-		ci.updateFields(source);
+	private Instruction decode(int pc) {
+		Instruction inst = decodeCache.get(pc);
+		if(inst == null) {
+			inst = new Instruction(loadWord(pc));
+			decodeCache.put(pc, inst);
+		}
+		return inst;
+	}
+
+	/**
+	 * Runs the program one basic block at a time, until it exits or the next block does not fit in the budget.
+	 * Only the exit instruction of each block updates PC and PCNext, the remaining instructions are executed back to back
+	 * @param budget The maximum number of instructions to execute
+	 * @return The number of instructions executed
+	 */
+	private long runBlocks(long budget) {
+		long executed = 0;
+		codeModified = false;
+		Block block = lookupBlock(PC);
+		while(running && budget - executed >= block.length()) {
+			if(block.compiled == null && jitThreshold >= 0 && block.executions++ == jitThreshold) {
+				block.compiled = JitCompiler.compile(block);
+			}
+			if(block.compiled != null) {
+				PC = block.compiled.execute(reg, this);
+			} else {
+				PC = interpretBody(block);
+			}
+			if(codeModified) { //The block may have been overwritten. Continue in a freshly translated block
+				codeModified = false;
+				int count = block.countBefore(PC);
+				stats.addInstructions(block.body, count, 1);
+				if(profiler != null) {
+					profiler.range(block.start, PC, count);
+				}
+				executed += count;
+				block = lookupBlock(PC);
+				continue;
+			}
+
+			//Compiled blocks execute their exit themselves, except for ECALL
+			if(block.exit != null && (block.compiled == null || block.exit.op == RiscvOp.ECALL)) {
+				PCNext = block.fallthrough;
+				ci = block.exit;
+				exMemWb();
+				PC = PCNext;
+			}
+			block.count++;
+			if(PC != block.fallthrough) {
+				block.takenCount++;
+			}
+			if(profiler != null) {
+				profiler.block(block, PC);
+			}
+			if(branches != null) {
+				branches.block(block, PC);
+			}
+			executed += block.length();
+			if(codeModified) { //An ECALL read data over code, discarding every block including this one
+				codeModified = false;
+				stats.addBlock(block); //Its earlier counts were added when it was discarded
+				block = lookupBlock(PC);
+			} else {
+				block = successor(block, PC);
+			}
+		}
+		return executed;
+	}
+
+	/**
+	 * Interprets the body of a block, ie. every instruction except the exit
+	 * @param block The block to execute
+	 * @return The address of the exit instruction, or the address following the last instruction
+	 *         that was executed if a store modified code
+	 */
+	private int interpretBody(Block block) {
+		Instruction[] body = block.body;
+		int pc = block.start;
+		for(int i = 0; i < body.length; i++) {
+			ci = body[i];
+			exMemWb();
+			pc += ci.length;
+			if(codeModified) {
+				return pc;
+			}
+		}
+		return block.exitPC;
+	}
+
+	/**
+	 * Finds the block to execute after {@code block}, following and establishing links between blocks
+	 * @param block The block which has just been executed
+	 * @param pc The address at which execution continues
+	 * @return The block starting at {@code pc}
+	 */
+	private Block successor(Block block, int pc) {
+		if(pc == block.fallthrough) {
+			if(block.next == null) {
+				block.next = lookupBlock(pc);
+			}
+			return block.next;
+		} else if(pc == block.target && block.exit.op != RiscvOp.JALR) {
+			if(block.taken == null) {
+				block.taken = lookupBlock(pc);
+			}
+			return block.taken;
+		} else {
+			if(block.indirect == null || block.indirect.start != pc) {
+				block.indirect = lookupBlock(pc);
+			}
+			return block.indirect;
+		}
+	}
+
+	/**
+	 * Finds the block starting at the given address, translating it if it has not been executed before
+	 * @param pc The address of the first instruction in the block
+	 * @return The block starting at {@code pc}
+	 */
+	private Block lookupBlock(int pc) {
+		Block block = blocks.get(pc);
+		if(block == null) {
+			block = translateBlock(pc);
+			blocks.put(pc, block);
+		}
+		return block;
+	}
+
+	/**
+	 * Translates the basic block starting at the given address.
+	 * Since the address of every instruction is known at this point, AUIPC is translated into a LUI of the final value
+	 * @param start The address of the first instruction in the block
+	 * @return The translated block
+	 */
+	private Block translateBlock(int start) {
+		ArrayList<Instruction> body = new ArrayList<Instruction>();
+		int pc = start;
+		Instruction inst = decode(pc);
+		while(!Block.endsBlock(inst.op)) {
+			if(inst.op == RiscvOp.AUIPC) {
+				Instruction lui = new Instruction(inst.source);
+				lui.op = RiscvOp.LUI;
+				lui.imm = pc + inst.imm;
+				inst = lui;
+			}
+			body.add(inst);
+			pc += inst.length;
+			if(body.size() == Block.MAX_LENGTH) {
+				return new Block(start, body.toArray(new Instruction[0]), null, pc);
+			}
+			inst = decode(pc);
+		}
+		return new Block(start, body.toArray(new Instruction[0]), inst, pc);
+	}
+
+	/**
+	 * Keeps the decode cache and translated blocks coherent with memory. Must be called after every store,
+	 * including data read into memory by {@link Syscalls}
+	 * @param addr The first address that was written
+	 * @param length The number of bytes written
+	 */
+	void invalidateCode(int addr, int length) {
+		if(decodeCache.invalidate(addr, length)) {
+			clearBlocks();
+			codeModified = true;
+		}
+	}
+
+	/**
+	 * Discards all translated blocks, keeping their counts in the statistics
+	 */
+	private void clearBlocks() {
+		stats.claim();
+		for(Block block : blocks.values()) {
+			stats.addBlock(block);
+		}
+		blocks.clear();
 	}
 	
 	/**
 	 * Performs the Execute, Memory and Writeback stages of the datapath
 	 */
 	private void exMemWb() {
-		int base;
-
 		switch(ci.op) {
 			case ADD:
 				regWrite(reg[ci.rs1] + reg[ci.rs2]);
@@ -152,6 +764,30 @@ public class RiscV {
 			case SLTU:
 				regWrite((reg[ci.rs1] < reg[ci.rs2]) ^ (reg[ci.rs1] < 0) ^ (reg[ci.rs2] < 0) ? 1 : 0);
 				break;
+			case MUL:
+				regWrite(reg[ci.rs1] * reg[ci.rs2]);
+				break;
+			case MULH:
+				regWrite(mulh(reg[ci.rs1], reg[ci.rs2]));
+				break;
+			case MULHSU:
+				regWrite(mulhsu(reg[ci.rs1], reg[ci.rs2]));
+				break;
+			case MULHU:
+				regWrite(mulhu(reg[ci.rs1], reg[ci.rs2]));
+				break;
+			case DIV:
+				regWrite(div(reg[ci.rs1], reg[ci.rs2]));
+				break;
+			case DIVU:
+				regWrite(divu(reg[ci.rs1], reg[ci.rs2]));
+				break;
+			case REM:
+				regWrite(rem(reg[ci.rs1], reg[ci.rs2]));
+				break;
+			case REMU:
+				regWrite(remu(reg[ci.rs1], reg[ci.rs2]));
+				break;
 			case SLLI:
 				regWrite(reg[ci.rs1] << ci.rs2);
 				break;
@@ -181,11 +817,11 @@ public class RiscV {
 				break;
 			case JAL:
 				PCNext = PC + ci.imm;
-				regWrite(PC + 4);
+				regWrite(PC + ci.length);
 				break;
 			case JALR:
 				PCNext = reg[ci.rs1] + ci.imm;
-				regWrite(PC+4);
+				regWrite(PC + ci.length);
 				break;
 			case LUI:
 				regWrite(ci.imm);
@@ -194,49 +830,28 @@ public class RiscV {
 				regWrite(PC + ci.imm);
 				break;
 			case LBU:
-				reg[ci.rd] = mem[reg[ci.rs1] + ci.imm] & 0xFF;
+				regWrite(loadByteUnsigned(reg[ci.rs1] + ci.imm));
 				break;
 			case LB:
-				reg[ci.rd] = mem[reg[ci.rs1] + ci.imm];
-				//Sign extend
-				if((reg[ci.rd] & 0x80) > 0) {
-					reg[ci.rd] = reg[ci.rd] | 0xFFFFFF00;
-				}
+				regWrite(loadByte(reg[ci.rs1] + ci.imm));
 				break;
 			case LHU:
-				base = reg[ci.rs1] + ci.imm;
-				reg[ci.rd] = (mem[base] & 0xFF) | (mem[base + 1] << 8);
-				reg[ci.rd] &= 0xFFFF;
+				regWrite(loadHalfUnsigned(reg[ci.rs1] + ci.imm));
 				break;
 			case LH:
-				base = reg[ci.rs1] + ci.imm;
-				reg[ci.rd] = (mem[base] & 0xFF) | (mem[base+1] << 8);
-				//Sign extend
-				if((reg[ci.rd] & 0x8000) > 0) {
-					reg[ci.rd] = reg[ci.rd] | 0xFFFF0000;
-				}
+				regWrite(loadHalf(reg[ci.rs1] + ci.imm));
 				break;
 			case LW:
-				base = reg[ci.rs1] + ci.imm;
-				reg[ci.rd] = mem[base] & 0xFF;
-				reg[ci.rd] |= (mem[base + 1] << 8) & 0xFFFF;
-				reg[ci.rd] |= (mem[base + 2] << 16) & 0xFFFFFF;
-				reg[ci.rd] |= (mem[base + 3] << 24);
+				regWrite(loadWord(reg[ci.rs1] + ci.imm));
 				break;
 			case SB:
-				mem[reg[ci.rs1] + ci.imm] = (byte) reg[ci.rs2];
+				storeByte(reg[ci.rs1] + ci.imm, reg[ci.rs2]);
 				break;
 			case SH:
-				base= reg[ci.rs1] + ci.imm;
-				mem[base] = (byte) (reg[ci.rs2]);
-				mem[base + 1] = (byte) (reg[ci.rs2] >> 8);
+				storeHalf(reg[ci.rs1] + ci.imm, reg[ci.rs2]);
 				break;
 			case SW:
-				base = reg[ci.rs1] + ci.imm;
-				mem[base] = (byte) reg[ci.rs2];
-				mem[base + 1] = (byte) (reg[ci.rs2] >> 8);
-				mem[base + 2] = (byte) (reg[ci.rs2] >> 16);
-				mem[base + 3] = (byte) (reg[ci.rs2] >> 24);
+				storeWord(reg[ci.rs1] + ci.imm, reg[ci.rs2]);
 				break;
 			case BEQ:
 				if(reg[ci.rs1] == reg[ci.rs2]) {
@@ -269,12 +884,18 @@ public class RiscV {
 				}
 				break;
 			case ECALL:
-				if(reg[10] == 10) {
+				if(reg[10] == Syscalls.EXIT || reg[10] == Syscalls.EXIT2) {
+					exitCode = reg[10] == Syscalls.EXIT2 ? reg[11] : 0;
 					running = false;
+					syscalls.closeAll();
+				} else {
+					syscalls.call(reg);
 				}
 				break;
 			default:
-				System.out.printf("Opcode %s is not implemented. Are you sure the binary file is correct?\n", Integer.toBinaryString(ci.opcode));
+				if(!quiet) {
+					System.out.printf("Opcode %s is not implemented. Are you sure the binary file is correct?\n", Integer.toBinaryString(ci.opcode));
+				}
 				break;
 		}
 	}
@@ -284,17 +905,21 @@ public class RiscV {
 	 * Takes user input from the console, allowing the user to view registers, memory and PC and set breakpoints.
 	 */
 	private void handleUserInput() {
-		if(breakpointList.contains(Integer.valueOf(PC))) {
+		if(breakpoints.contains(PC)) {
 			stepCount = 0; //Reset stepcounter
 			System.out.printf("Breakpoint encountered at PC %d\n", PC);
 		}
+		if(watchpointHit) { //The message has already been printed
+			watchpointHit = false;
+			stepCount = 0;
+		}
 		if (stepCount > 0 || debugMode) {
 			return;
 		}
 
 		inputHandler: while(true) {
 			System.out.print("> ");
-			String line = scan.nextLine();
+			String line = scanner().nextLine();
 			linescan = new Scanner(line);
 			if(!linescan.hasNext()) {
 				continue;
@@ -302,6 +927,7 @@ public class RiscV {
 			String input = linescan.next();
 
 			int index;
+			Integer address;
 			switch (input) {
 				case "r":
 				case "run":
@@ -344,43 +970,31 @@ public class RiscV {
 					break;
 				
 				case "memb":
-					if(!linescan.hasNextInt()) {
+					address = nextAddress();
+					if(address == null) {
 						System.out.println("Unknown input. Please type \"memb X\" to view the byte at memory location X");
 						break;
 					}
-					index = linescan.nextInt();
-					if (index < 0 || index >= mem.length) {
-						System.out.printf("Illegal memory location. Legal values are 0-%d\n", mem.length-1);
-					} else {
-						System.out.printf("Mem[%d]=0x%02x\n", index, mem[index]);
-					}
+					System.out.printf("Mem[%d]=0x%02x\n", Integer.toUnsignedLong(address), mem.loadByteUnsigned(address));
 					break;
 
 				case "memh":
-					if(!linescan.hasNextInt()) {
+					address = nextAddress();
+					if(address == null) {
 						System.out.println("Unknown input. Please type \"memh X\" to view the halfword starting at memory location X");
 						break;
 					}
-					index = linescan.nextInt();
-					if (index < 0 || index >= mem.length-1) {
-						System.out.printf("Illegal memory location. Legal values are 0-%d\n", mem.length-2);
-					} else {
-						System.out.printf("Mem[%d]=0x%02x%02x\n", index, mem[index+1], mem[index]);
-					}
+					System.out.printf("Mem[%d]=0x%04x\n", Integer.toUnsignedLong(address), mem.loadHalfUnsigned(address));
 					break;
 
 				case "mem":
 				case "memw":
-					if(!linescan.hasNextInt()) {
+					address = nextAddress();
+					if(address == null) {
 						System.out.println("Unknown input. Please type \"mem X\" to view the word starting at memory location X");
 						break;
 					}
-					index = linescan.nextInt();
-					if (index < 0 || index >= mem.length-3) {
-						System.out.printf("Illegal memory location. Legal values are 0-%d\n", mem.length-4);
-					} else {
-						System.out.printf("Mem[%d]=0x%02x%02x%02x%02x\n", index, mem[index+3], mem[index+2], mem[index+1], mem[index]);				
-					}
+					System.out.printf("Mem[%d]=0x%08x\n", Integer.toUnsignedLong(address), mem.loadWord(address));
 					break;
 				
 				case "q":
@@ -395,54 +1009,123 @@ public class RiscV {
 					break;
 
 				case "reset":
-					PC = 0;
-					reg = new int[32];
-					reg[2] = mem.length;
-					mem = new byte[1048576];
+					restore(loaded);
+					if(checkpoint == null) { //A checkpoint has its own stack pointer
+						reg[2] = INITIAL_SP;
+					}
 					verbose = false;
 					System.out.println("Simulator state has been reset");
 					break;
 
 				case "ba":
 				case "badd":
-					if(!linescan.hasNextInt()) {
+					address = nextAddress();
+					if(address == null) {
 						System.out.println("Unknown input. Please type \"badd X\" to add a breakpoint at instruction address X");
 						break;
 					}
-					index = linescan.nextInt();
-					if (index < 0 || index >= mem.length-4) {
-						System.out.printf("Illegal memory location. Legal values are 0-%d\n", mem.length-4);
-					} else if(!breakpointList.contains(Integer.valueOf(index))) {
-						breakpointList.add(Integer.valueOf(index));			
+					if(breakpoints.add(address)) {
 						System.out.println("Breakpoint added. Type \"r\" to run until the breakpoint");	
 					} else {
-						System.out.printf("A breakpoint is already set at address %d\n", index);
+						System.out.printf("A breakpoint is already set at address %d\n", Integer.toUnsignedLong(address));
 					}
 					break;
 
 				case "br":
 				case "brem":
-					if(!linescan.hasNextInt()) {
+					address = nextAddress();
+					if(address == null) {
 						System.out.println("Unknown input. Please type \"brem X\" to remove the breakpoint at address X");
 						break;
 					}
-					index = linescan.nextInt();
-					breakpointList.remove(Integer.valueOf(index));
+					breakpoints.remove(address);
 					System.out.println("Breakpoint removed");
 					break;
 				
 				case "bl":
 				case "blist":
 					System.out.println("The following breakpoints are set:");
-					for(int i=0; i<breakpointList.size(); i++) {
-						System.out.printf("%3d: (op=%s, rd=%d, rs1=%d, rs2=%d, imm=%d)\n", breakpointList.get(i), ci.op, ci.rd, ci.rs1, ci.rs2, ci.imm);
+					for(int breakpoint : breakpoints.toArray()) {
+						Instruction inst = new Instruction(mem.loadWord(breakpoint));
+						System.out.printf("%3d: (op=%s, rd=%d, rs1=%d, rs2=%d, imm=%d)\n", Integer.toUnsignedLong(breakpoint), inst.op, inst.rd, inst.rs1, inst.rs2, inst.imm);
 					}
 					break;
 
 				case "bc":
 				case "bclear":
-					breakpointList.clear();
-					System.out.printf("Breakpoints cleared");
+					breakpoints.clear();
+					System.out.println("Breakpoints cleared");
+					break;
+
+				case "wa":
+				case "wadd":
+					address = nextAddress();
+					if(address == null) {
+						System.out.println("Unknown input. Please type \"wadd X [N]\" to watch the N bytes starting at address X");
+						break;
+					}
+					index = linescan.hasNextInt() ? linescan.nextInt() : 4;
+					addWatchpoint(address, index);
+					System.out.println("Watchpoint added. Loads and stores of these bytes will stop execution");
+					break;
+
+				case "wr":
+				case "wrem":
+					address = nextAddress();
+					if(address == null) {
+						System.out.println("Unknown input. Please type \"wrem X [N]\" to stop watching the N bytes starting at address X");
+						break;
+					}
+					index = linescan.hasNextInt() ? linescan.nextInt() : 4;
+					removeWatchpoint(address, index);
+					System.out.println("Watchpoint removed");
+					break;
+
+				case "wl":
+				case "wlist":
+					System.out.println("The following addresses are watched:");
+					int[] watched = watchpoints.toArray();
+					for(int i = 0; i < watched.length; i++) { //Print runs of consecutive addresses as ranges
+						int first = i;
+						while(i + 1 < watched.length && watched[i + 1] == watched[i] + 1) {
+							i++;
+						}
+						System.out.printf("0x%08x-0x%08x\n", watched[first], watched[i]);
+					}
+					break;
+
+				case "t":
+				case "trace":
+					File traceFile = new File(linescan.hasNext() ? linescan.next() : "trace.bin");
+					try {
+						startTrace(traceFile, false);
+						System.out.printf("Tracing to %s. The trace can be printed with \"java -cp out app.TraceReader %s\"\n", traceFile, traceFile);
+					} catch (IOException e) {
+						System.out.printf("Could not create %s: %s\n", traceFile, e.getMessage());
+					}
+					break;
+
+				case "ck":
+				case "checkpoint":
+					File checkpointFile = new File(linescan.hasNext() ? linescan.next() : "checkpoint.ckpt");
+					try {
+						writeCheckpoint(checkpointFile, false);
+						System.out.printf("Checkpoint written to %s. Load it as the program to resume from here\n", checkpointFile);
+					} catch (IOException e) {
+						System.out.printf("Could not write %s: %s\n", checkpointFile, e.getMessage());
+					}
+					break;
+
+				case "p":
+				case "profile":
+					setProfiling(true);
+					System.out.println("Profiling on. A profile will be printed when the program exits");
+					break;
+
+				case "wc":
+				case "wclear":
+					watchpoints.clear();
+					System.out.println("Watchpoints cleared");
 					break;
 					
 				case "h":
@@ -453,6 +1136,7 @@ public class RiscV {
 					sb.append("  s, step [X]: Step for X instructions. If no X is given, steps for 1 instruction\n");
 					sb.append("  pc: Print the current value of the program counter\n");
 					sb.append("  reg [X]: Print the contents of register X. If no X is specified, prints the contents of all registers\n");
+					sb.append("  Memory addresses and breakpoints can be given in decimal, or in hexadecimal with a 0x prefix\n");
 					sb.append("  memb [X]: Print the value of the byte stored at memory location X\n");
 					sb.append("  memh [X]: Print the value of the halfword starting at memory location X\n");
 					sb.append("  mem, memw [X]: Prints the value of the word starting at memory location X\n");
@@ -460,9 +1144,16 @@ public class RiscV {
 					sb.append("  br, brem [X]: Remove a breakpoint at address X\n    If no breakpoint exists at this address, nothing happens\n");
 					sb.append("  bl, blist: List all breakpoints\n");
 					sb.append("  bc, bclear: Clear all breakpoints\n");
+					sb.append("  wa, wadd [X] [N]: Stop when a load or store accesses any of the N bytes starting at address X. N defaults to 4\n");
+					sb.append("  wr, wrem [X] [N]: Stop watching the N bytes starting at address X\n");
+					sb.append("  wl, wlist: List all watched addresses\n");
+					sb.append("  wc, wclear: Clear all watchpoints\n");
 					sb.append("  q, quiet: Toggle quiet mode on\n");
 					sb.append("  v, verbose: Toggle verbose mode on\n");
-					sb.append("  reset: Reset the state of the simulator. Clears all registers and memory, sets PC=0, sets quiet mode on, sets SP=mem.length. Will not clear breakpoints.\n");
+					sb.append("  t, trace [X]: Write a binary trace of every executed instruction to file X, trace.bin if no X is given\n");
+					sb.append("  ck, checkpoint [X]: Save the state of the simulator to file X, checkpoint.ckpt if no X is given. Loading X as the program resumes from this point\n");
+					sb.append("  p, profile: Start profiling. When the program exits, the hottest code is printed and call stacks are written to profile.folded\n");
+					sb.append("  reset: Reset the state of the simulator to when the program was loaded. Clears all registers, restores memory, sets PC to the entry point, sets quiet mode on, sets SP=0x100000. Will not clear breakpoints.\n");
 					sb.append("  h, help: Print this help message\n");
 					sb.append("  exit: Exit the simulator");
 					System.out.println(sb);
@@ -471,8 +1162,8 @@ public class RiscV {
 
 				
 				case "exit":
-					System.exit(0); //TODO Make a better implementation of this
-					break;
+					exitRequested = true;
+					break inputHandler;
 
 				default:
 					System.out.println("Unknown command. Type \"help\" for help");
@@ -483,10 +1174,40 @@ public class RiscV {
 	}
 
 	
+	/**
+	 * Reads a memory address from the current line of user input
+	 * @return The address, or null if the next token is not an address in the range 0 to 0xFFFFFFFF
+	 */
+	private Integer nextAddress() {
+		if(!linescan.hasNext()) {
+			return null;
+		}
+		String token = linescan.next();
+		try {
+			long address = token.startsWith("0x") ? Long.parseLong(token.substring(2), 16) : Long.parseLong(token);
+			if(address < 0 || address > 0xFFFFFFFFL) {
+				return null;
+			}
+			return (int) address;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The scanner reading user input from System.in, which is created on first use
+	 */
+	private Scanner scanner() {
+		if(scan == null) {
+			scan = new Scanner(System.in);
+		}
+		return scan;
+	}
+
 	/**
 	 * Prints the register contents to the command line
 	 */
-	private void dumpRegisters() {
+	public void dumpRegisters() {
 		for(int i=0; i<32; i+= 4) {
 			System.out.printf("Reg[%2d]=0x%08x  Reg[%2d]=0x%08x  Reg[%2d]=0x%08x  Reg[%2d]=0x%08x\n", i, reg[i], i+1, reg[i+1], i+2, reg[i+2], i+3, reg[i+3]);
 		}	
@@ -502,6 +1223,159 @@ public class RiscV {
 		}
 	}
 
+	/*
+	 * Multiplication and division of the M extension. These are shared by the interpreter and by blocks compiled
+	 * by the JitCompiler, and are therefore package-private. They are small enough to be inlined by HotSpot.
+	 * Division never traps: Dividing by zero gives all ones for the quotient and the dividend for the remainder,
+	 * and the overflowing -2^31 / -1 gives -2^31 with remainder 0, which Java's / and % already do
+	 */
+
+	/** @return The upper 32 bits of the signed 64-bit product */
+	static int mulh(int a, int b) {
+		return (int) (((long) a * b) >> 32);
+	}
+
+	/** @return The upper 32 bits of the 64-bit product of signed {@code a} and unsigned {@code b} */
+	static int mulhsu(int a, int b) {
+		return (int) ((a * Integer.toUnsignedLong(b)) >> 32);
+	}
+
+	/** @return The upper 32 bits of the unsigned 64-bit product */
+	static int mulhu(int a, int b) {
+		return (int) ((Integer.toUnsignedLong(a) * Integer.toUnsignedLong(b)) >>> 32);
+	}
+
+	/** @return The signed quotient, rounded towards zero */
+	static int div(int a, int b) {
+		return b == 0 ? -1 : a / b;
+	}
+
+	/** @return The unsigned quotient */
+	static int divu(int a, int b) {
+		return b == 0 ? -1 : Integer.divideUnsigned(a, b);
+	}
+
+	/** @return The signed remainder, which has the sign of the dividend */
+	static int rem(int a, int b) {
+		return b == 0 ? a : a % b;
+	}
+
+	/** @return The unsigned remainder */
+	static int remu(int a, int b) {
+		return b == 0 ? a : Integer.remainderUnsigned(a, b);
+	}
+
+	/*
+	 * Memory accesses. These are shared by the interpreter and by blocks compiled by the JitCompiler,
+	 * and are therefore package-private
+	 */
+
+	/**
+	 * Loads a sign-extended byte from memory
+	 * @param addr The address to load from
+	 * @return The byte at {@code addr}, sign-extended to 32 bits
+	 */
+	int loadByte(int addr) {
+		return mem.loadByte(addr);
+	}
+
+	/**
+	 * Loads a zero-extended byte from memory
+	 * @param addr The address to load from
+	 * @return The byte at {@code addr}, zero-extended to 32 bits
+	 */
+	int loadByteUnsigned(int addr) {
+		return mem.loadByteUnsigned(addr);
+	}
+
+	/**
+	 * Loads a sign-extended halfword from memory
+	 * @param addr The address of the least significant byte
+	 * @return The halfword starting at {@code addr}, sign-extended to 32 bits
+	 */
+	int loadHalf(int addr) {
+		return mem.loadHalf(addr);
+	}
+
+	/**
+	 * Loads a zero-extended halfword from memory
+	 * @param addr The address of the least significant byte
+	 * @return The halfword starting at {@code addr}, zero-extended to 32 bits
+	 */
+	int loadHalfUnsigned(int addr) {
+		return mem.loadHalfUnsigned(addr);
+	}
+
+	/**
+	 * Loads a word from memory
+	 * @param addr The address of the least significant byte
+	 * @return The word starting at {@code addr}
+	 */
+	int loadWord(int addr) {
+		return mem.loadWord(addr);
+	}
+
+	/**
+	 * Stores the lower 8 bits of a value in memory
+	 * @param addr The address to store at
+	 * @param value The value to store
+	 */
+	void storeByte(int addr, int value) {
+		mem.storeByte(addr, value);
+		invalidateCode(addr, 1);
+	}
+
+	/**
+	 * Stores the lower 16 bits of a value in memory
+	 * @param addr The address of the least significant byte
+	 * @param value The value to store
+	 */
+	void storeHalf(int addr, int value) {
+		mem.storeHalf(addr, value);
+		invalidateCode(addr, 2);
+	}
+
+	/**
+	 * Stores a word in memory
+	 * @param addr The address of the least significant byte
+	 * @param value The value to store
+	 */
+	void storeWord(int addr, int value) {
+		mem.storeWord(addr, value);
+		invalidateCode(addr, 4);
+	}
+
+	/**
+	 * Gives a read-only view of the register file, without copying it. The view always shows the current values,
+	 * such that it can be kept while the simulator runs
+	 * @return A buffer holding the 32 registers, x0 at index 0
+	 */
+	public IntBuffer getRegisters() {
+		return IntBuffer.wrap(reg).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gives the memory of the simulator, such that results can be read without copying them.
+	 * Memory should only be written through {@link #writeMemory(int, ByteBuffer)}, which makes sure that overwritten code is decoded again
+	 * @return The memory
+	 */
+	public Memory getMemory() {
+		return mem;
+	}
+
+	/**
+	 * Copies bytes into memory, eg. the input of a program. Translated code covering the bytes is discarded
+	 * @param addr The address to copy to
+	 * @param data The bytes to copy. Its position is advanced to its limit
+	 */
+	public void writeMemory(int addr, ByteBuffer data) {
+		int length = data.remaining();
+		mem.write(addr, data);
+		if(decodeCache.invalidate(addr, length)) {
+			clearBlocks();
+		}
+	}
+
 	/**
 	 * Returns a copy of the register file
 	 * @return
@@ -510,10 +1384,236 @@ public class RiscV {
 		return reg.clone();
 	}
 
+	/**
+	 * @return The address of the next instruction to execute
+	 */
+	public int getPC() {
+		return PC;
+	}
+
+	/**
+	 * @return The symbols of the loaded program. Empty unless an ELF file with a symbol table was loaded
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * @return The number of instructions executed so far
+	 */
+	public long getInstructionCount() {
+		return instret;
+	}
+
+	/**
+	 * Adds a breakpoint. When running with {@link #run()}, execution stops before the instruction at the breakpoint
+	 * @param addr The address of the instruction
+	 */
+	public void addBreakpoint(int addr) {
+		breakpoints.add(addr);
+	}
+
+	/**
+	 * Removes a breakpoint, if one is set
+	 * @param addr The address of the instruction
+	 */
+	public void removeBreakpoint(int addr) {
+		breakpoints.remove(addr);
+	}
+
+	/**
+	 * Adds a watchpoint on a range of bytes. When running with {@link #run()},
+	 * execution stops after any load or store which accesses one of the bytes
+	 * @param addr The first address to watch
+	 * @param length The number of bytes to watch
+	 */
+	public void addWatchpoint(int addr, int length) {
+		for(int i = 0; i < length; i++) {
+			watchpoints.add(addr + i);
+		}
+	}
+
+	/**
+	 * Stops watching a range of bytes
+	 * @param addr The first address to stop watching
+	 * @param length The number of bytes to stop watching
+	 */
+	public void removeWatchpoint(int addr, int length) {
+		for(int i = 0; i < length; i++) {
+			watchpoints.remove(addr + i);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the simulator, which can be restored any number of times.
+	 * Memory is not copied, instead pages are copied when they are first written after the snapshot
+	 * @return The snapshot
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(PC, reg, instret, running, syscalls.brk, exitCode, mem.snapshot());
+	}
+
+	/**
+	 * Restores the simulator to the state it had when a snapshot was taken. Only the memory pages written
+	 * since the snapshot was taken or last restored are copied back, and translated code is only discarded
+	 * if one of those pages holds code. Files opened by the program are closed, since they are not part of the snapshot
+	 * @param snapshot The snapshot to restore
+	 */
+	public void restore(Snapshot snapshot) {
+		PC = snapshot.pc;
+		System.arraycopy(snapshot.reg, 0, reg, 0, reg.length); //Keeps views from getRegisters() valid
+		instret = snapshot.instret;
+		running = snapshot.running;
+		status = running ? Status.RUNNING : Status.EXITED;
+		exitCode = snapshot.exitCode;
+		syscalls.reset();
+		syscalls.brk = snapshot.brk;
+		for(int page : mem.restore(snapshot.memory)) {
+			if(decodeCache.invalidate(page << Memory.PAGE_BITS, Memory.PAGE_SIZE)) {
+				clearBlocks();
+			}
+		}
+	}
+
+	/**
+	 * Saves the state of the simulator to a checkpoint file: PC, the registers, the allocated pages of memory,
+	 * the breakpoints and watchpoints, and the statistics. Loading the file as the program, eg. with
+	 * {@link #RiscV(File)}, resumes from this point. Profiles and translated code are not saved
+	 * @param file The file to write
+	 * @param compress True to gzip compress the checkpoint
+	 * @throws IOException If the file could not be written
+	 */
+	public void writeCheckpoint(File file, boolean compress) throws IOException {
+		stats.publish(blocks.values(), 0);
+		Checkpoint state = new Checkpoint(PC, entry, instret, running, syscalls.brk, reg, breakpoints.toArray(), watchpoints.toArray(), symbols);
+		state.write(file, compress, mem, stats);
+	}
+
+	/**
+	 * Starts writing a trace of every executed instruction, see {@link TraceWriter}.
+	 * While tracing, the block engine and JIT are not used
+	 * @param file The file to write the trace to
+	 * @param compress True to gzip compress the trace
+	 * @throws IOException If the file could not be created
+	 */
+	public void startTrace(File file, boolean compress) throws IOException {
+		stopTrace();
+		tracer = new TraceWriter(file, compress);
+	}
+
+	/**
+	 * Stops tracing, writing the remainder of the trace to its file
+	 * @throws IOException If writing the trace failed
+	 */
+	public void stopTrace() throws IOException {
+		if(tracer != null) {
+			TraceWriter closing = tracer;
+			tracer = null;
+			closing.close();
+		}
+	}
+
+	/**
+	 * Attaches a model of the caches, through which every instruction fetch, load and store is passed.
+	 * While caches are modelled, the block engine and JIT are not used. Without a model, nothing is checked per access
+	 * @param caches The cache model, or null to stop modelling caches
+	 */
+	public void setCaches(CacheHierarchy caches) {
+		observer = caches;
+	}
+
+	/**
+	 * @return The cache model, or null if caches are not modelled
+	 */
+	public CacheHierarchy getCaches() {
+		return observer instanceof CacheHierarchy ? (CacheHierarchy) observer : null;
+	}
+
+	/**
+	 * Passes every instruction fetch, load and store to an observer, eg. a {@link CacheSweep}, in place of a cache model
+	 * @param observer The observer, or null to stop observing accesses
+	 */
+	public void setAccessObserver(AccessObserver observer) {
+		this.observer = observer;
+	}
+
+	/**
+	 * Attaches a model of branch prediction, which is told about every branch and jump. Unlike the cache model,
+	 * it does not keep the block engine and JIT from being used, since they report the branch ending each block
+	 * @param branches The branch model, or null to stop predicting branches
+	 */
+	public void setBranchModel(BranchModel branches) {
+		this.branches = branches;
+	}
+
+	/**
+	 * @return The branch model, or null if branches are not predicted
+	 */
+	public BranchModel getBranchModel() {
+		return branches;
+	}
+
+	/**
+	 * Attaches a timing model of a 5-stage pipeline, which is given every executed instruction.
+	 * While the pipeline is timed, the block engine and JIT are not used
+	 * @param pipeline The pipeline model, or null to stop timing the pipeline
+	 */
+	public void setPipelineModel(PipelineModel pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * @return The pipeline model, or null if the pipeline is not timed
+	 */
+	public PipelineModel getPipelineModel() {
+		return pipeline;
+	}
+
+	/**
+	 * @return The execution statistics, which are updated while the program runs
+	 */
+	public Statistics getStatistics() {
+		return stats;
+	}
+
+	/**
+	 * Enables or disables profiling, see {@link Profiler}. Enabling it starts a new profile.
+	 * When profiling, {@link #run()} prints a report and writes the call stacks to profile.folded when the program exits
+	 * @param mode True to enable profiling
+	 */
+	public void setProfiling(boolean mode) {
+		profiler = mode ? new Profiler(symbols, PC) : null;
+	}
+
+	/**
+	 * @return The profiler, or null if profiling is disabled
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+
 	public void setDebugMode(boolean mode) {
 		this.debugMode = mode;
 	}
 
+	/**
+	 * Enables or disables the basic block engine. When enabled, programs running in debug mode are executed
+	 * one basic block at a time, see {@link Block}
+	 * @param mode True to enable the block engine
+	 */
+	public void setBlockMode(boolean mode) {
+		this.blockMode = mode;
+	}
+
+	/**
+	 * Sets the number of times a block is interpreted before it is compiled to JVM bytecode by the {@link JitCompiler}.
+	 * The JIT is only used together with the block engine, such that single-stepping and breakpoints always use the interpreter
+	 * @param threshold The number of interpreted executions. A negative value disables the JIT, which is the default
+	 */
+	public void setJitThreshold(int threshold) {
+		this.jitThreshold = threshold;
+	}
+
 	/**
 	 * Loads the instructions into the simulator by prompting the user for a file
 	 * stored in "src/tests/<filename>.bin"
@@ -527,18 +1627,19 @@ public class RiscV {
 		System.out.printf("Input name of test (without extension)\nLooking for files in %s\n", System.getProperty("user.dir"));
 		File file;
 		while(true) {
-			String name = scan.next();
+			String name = scanner().next();
 			if(name.equals("exit")) {
 				System.out.printf("Exiting\n");
 				System.exit(0);
 			}
-			file = new File(String.format("%s.bin", name));
+			file = programFile(name);
 			if(!file.exists()) {
 				System.out.printf("File %s does not exists. Please try again, or type \"exit\" to quit\n", file.getAbsolutePath());
 			} else {
 				break;
 			}
 		}
+		System.out.printf("Looking for file in %s\n", file.getAbsolutePath());
 		loadInstructions(file);
 	}
 
@@ -552,28 +1653,68 @@ public class RiscV {
 	 *                               funky happens (shouldn't ever happen)
 	 */
 	private void loadInstructionsFromFilename(String name) throws FileNotFoundException, IOException {
-		loadInstructions(new File(String.format("%s.bin", name)));
+		File file = programFile(name);
+		System.out.printf("Looking for file in %s\n", file.getAbsolutePath());
+		loadInstructions(file);
+	}
+
+	/**
+	 * Finds the file holding a program. If {@code name} is a file, eg. an ELF executable, it is used as is.
+	 * Otherwise, the flat binary {@code <name>.bin} is used
+	 * @param name The name of the program
+	 * @return The file to load
+	 */
+	private static File programFile(String name) {
+		File file = new File(name);
+		if(file.isFile()) {
+			return file;
+		}
+		return new File(String.format("%s.bin", name));
+	}
+
+	/**
+	 * @return The first page-aligned address above everything that was loaded, where the heap of the program starts.
+	 *         If the last page of the address space was loaded, the heap starts in that page instead of wrapping around to 0
+	 */
+	private int initialBreak() {
+		int top = 0;
+		for(int page : mem.getPageNumbers()) {
+			top = Math.max(top, page + 1);
+		}
+		long addr = (long) top << Memory.PAGE_BITS;
+		return (int) Math.min(addr, 0x1_0000_0000L - Memory.PAGE_SIZE);
+	}
+
+	/**
+	 * Loads the segments of an ELF executable into memory, and takes its entry point and symbols
+	 * @param elf The executable
+	 * @throws IOException If the headers or symbol table of the executable lie outside the file
+	 */
+	private void loadElf(ElfLoader elf) throws IOException {
+		elf.load(mem);
+		entry = elf.getEntry();
+		symbols = elf.getSymbols();
 	}
 
 	/**
-	 * Performs the actual loading of instructions into instruction memory
+	 * Performs the actual loading of instructions into memory.
+	 * ELF executables are loaded at the addresses given by their program headers, and execution starts at their entry point.
+	 * Checkpoints written by {@link #writeCheckpoint(File, boolean)} restore the saved state.
+	 * Any other file is treated as a flat binary, which is loaded at address 0
 	 * @param file The file which contains the instructions to be read
 	 * @throws FileNotFoundException If <filename> is not a valid file
-	 * @throws IOException           If the input stream is closed or something
-	 *                               funky happens (shouldn't ever happen)
-	 * @return The number of instructions read into memory
+	 * @throws IOException           If the file could not be read, is an ELF file for another architecture or truncated, or is a checkpoint of another version
 	 */
 	private void loadInstructions(File file) throws IOException, FileNotFoundException {
-		System.out.printf("Looking for file in %s\n", file.getAbsolutePath());
-		BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file)); //By buffering the stream we get better performance
-
-		//Read data from our stream, store in instruction memory
-		int i = 0; //Number of bytes read
-		int read;
-		while((read = bis.read()) != -1) { //Read a single byte at a time
-			mem[i] = (byte) read; //put into array at correct location
-			i++;
+		if(ElfLoader.isElf(file)) {
+			loadElf(new ElfLoader(file));
+		} else if(Checkpoint.isCheckpoint(file)) {
+			checkpoint = Checkpoint.read(file, mem, stats);
+			entry = checkpoint.entry;
+			symbols = checkpoint.symbols;
+		} else {
+			byte[] data = Files.readAllBytes(file.toPath());
+			mem.write(0, data, 0, data.length);
 		}
-		bis.close();
 	}
 }
@@ -9,6 +9,7 @@ public enum RiscvOp {
 	ADDI, SLTI, SLTIU, XORI, ORI, ANDI, //Immediate arithmetic, I-type
 	SLLI, SRLI, SRAI, //Immediate arithmetic, R-type
 	ADD, SUB, SLL, SLT, SLTU, XOR, SRL, SRA, OR, AND, //Arithmetic, R-type
+	MUL, MULH, MULHSU, MULHU, DIV, DIVU, REM, REMU, //Multiplication and division, R-type (M extension)
 	ECALL,
 	ERROR //Used for error handling
 }
@@ -0,0 +1,28 @@
+package app;
+
+/**
+ * The state of a simulator at some point in time: PC, the registers, memory, the program break, the exit code
+ * and the number of instructions retired. Files opened by the program are not part of it, instead restoring closes them.
+ * Taken with {@link RiscV#snapshot()} and restored with {@link RiscV#restore(Snapshot)}.
+ * Memory is shared with the simulator until written, see {@link Memory.Snapshot}
+ */
+public class Snapshot {
+
+	final int pc;
+	final int[] reg;
+	final long instret;
+	final boolean running;
+	final int brk;
+	final int exitCode;
+	final Memory.Snapshot memory;
+
+	Snapshot(int pc, int[] reg, long instret, boolean running, int brk, int exitCode, Memory.Snapshot memory) {
+		this.pc = pc;
+		this.reg = reg.clone();
+		this.instret = instret;
+		this.running = running;
+		this.brk = brk;
+		this.exitCode = exitCode;
+		this.memory = memory;
+	}
+}
@@ -0,0 +1,265 @@
+package app;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the instructions retired by a simulator, by operation, along with the number of branches taken
+ * and the time spent executing. The counts are always kept, since they cost next to nothing:
+ * The interpreter increments a counter indexed by {@link RiscvOp#ordinal()} per instruction, and the block engine
+ * only counts how many times each block runs, multiplying by the operations in the block when the counts are needed.
+ *
+ * The getters return a snapshot of the counts, which the simulator thread publishes regularly during long runs.
+ * At the end of a run, the snapshot is only marked out of date, and the first read publishes it, such that short runs,
+ * eg. single steps in the debugger, do not walk every block each time. This way, the statistics can be read through JMX
+ * from another thread while the simulator is running, and cost nothing while nobody reads them
+ */
+public class Statistics implements StatisticsMXBean {
+
+	private static final RiscvOp[] OPS = RiscvOp.values();
+
+	//Counts of instructions which are no longer part of a block. Only accessed by the simulator thread
+	final long[] executed = new long[OPS.length];
+	final long[] taken = new long[OPS.length]; //Branches and jumps that did not continue at the next instruction
+	private long nanos; //Time spent in finished calls to RiscV.execute
+
+	//The published counts, and the blocks of a finished run whose counts the next read must publish first, or null
+	private Snapshot snapshot = new Snapshot(new long[OPS.length], new long[OPS.length], 0); //Guarded by this
+	private Collection<Block> unpublished; //Guarded by this
+
+	private static class Snapshot {
+		final long[] executed;
+		final long[] taken;
+		final long nanos;
+
+		Snapshot(long[] executed, long[] taken, long nanos) {
+			this.executed = executed;
+			this.taken = taken;
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * Adds the counts of a block, and resets them. Called before a block is discarded
+	 * @param block The block
+	 */
+	void addBlock(Block block) {
+		addBlock(block, executed, taken);
+		block.count = 0;
+		block.takenCount = 0;
+	}
+
+	private static void addBlock(Block block, long[] executed, long[] taken) {
+		if(block.count == 0) {
+			return;
+		}
+		addInstructions(block.body, block.body.length, block.count, executed);
+		if(block.exit != null) {
+			executed[block.exit.op.ordinal()] += block.count;
+			taken[block.exit.op.ordinal()] += block.takenCount;
+		}
+	}
+
+	/**
+	 * Adds the first instructions of a block body
+	 * @param body The instructions
+	 * @param length The number of instructions to add
+	 * @param times The number of times the instructions were executed
+	 */
+	void addInstructions(Instruction[] body, int length, long times) {
+		addInstructions(body, length, times, executed);
+	}
+
+	private static void addInstructions(Instruction[] body, int length, long times, long[] executed) {
+		for(int i = 0; i < length; i++) {
+			//AUIPC is translated into LUI in blocks, but keeps its opcode
+			RiscvOp op = body[i].opcode == Instruction.Utype2 ? RiscvOp.AUIPC : body[i].op;
+			executed[op.ordinal()] += times;
+		}
+	}
+
+	/**
+	 * Adds time spent executing
+	 * @param time The time in nanoseconds
+	 */
+	void addTime(long time) {
+		nanos += time;
+	}
+
+	/**
+	 * Publishes the current counts, such that they are returned by the getters
+	 * @param blocks The blocks which are currently in use, whose counts have not been added yet
+	 * @param running Time spent in the current call to RiscV.execute, in nanoseconds
+	 */
+	synchronized void publish(Collection<Block> blocks, long running) {
+		long[] executedNow = executed.clone();
+		long[] takenNow = taken.clone();
+		for(Block block : blocks) {
+			addBlock(block, executedNow, takenNow);
+		}
+		snapshot = new Snapshot(executedNow, takenNow, nanos + running);
+		unpublished = null;
+	}
+
+	/**
+	 * Marks the published counts as out of date at the end of a run, such that the first read publishes them.
+	 * The simulator thread must call {@link #claim()} before it changes the counts again
+	 * @param blocks The blocks which are currently in use, whose counts have not been added yet
+	 */
+	synchronized void publishLater(Collection<Block> blocks) {
+		unpublished = blocks;
+	}
+
+	/**
+	 * Takes back the counts from readers before the simulator thread changes them. If no read has published the counts
+	 * of the last run, the getters keep returning older counts until the simulator publishes again
+	 */
+	synchronized void claim() {
+		unpublished = null;
+	}
+
+	/**
+	 * @return The published counts, after publishing the counts of a finished run if no read has done so yet
+	 */
+	private synchronized Snapshot current() {
+		if(unpublished != null) {
+			publish(unpublished, 0);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Writes the published counts to a checkpoint. Operations are written by name, such that checkpoints
+	 * stay readable when operations are added
+	 * @param out The checkpoint to write to
+	 * @throws IOException If writing failed
+	 */
+	void write(DataOutput out) throws IOException {
+		Snapshot s = current();
+		out.writeInt(OPS.length);
+		for(RiscvOp op : OPS) {
+			out.writeUTF(op.name());
+			out.writeLong(s.executed[op.ordinal()]);
+			out.writeLong(s.taken[op.ordinal()]);
+		}
+		out.writeLong(s.nanos);
+	}
+
+	/**
+	 * Adds the counts written by {@link #write(DataOutput)} and publishes them.
+	 * Operations unknown to this version of the simulator are skipped
+	 * @param in The checkpoint to read from
+	 * @throws IOException If reading failed
+	 */
+	void read(DataInput in) throws IOException {
+		int count = in.readInt();
+		for(int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			long executedCount = in.readLong();
+			long takenCount = in.readLong();
+			for(RiscvOp op : OPS) {
+				if(op.name().equals(name)) {
+					executed[op.ordinal()] += executedCount;
+					taken[op.ordinal()] += takenCount;
+				}
+			}
+		}
+		nanos += in.readLong();
+		publish(Collections.<Block>emptyList(), 0);
+	}
+
+	@Override
+	public long getInstructions() {
+		long sum = 0;
+		for(long count : current().executed) {
+			sum += count;
+		}
+		return sum;
+	}
+
+	@Override
+	public double getMips() {
+		long time = current().nanos;
+		return time == 0 ? 0.0 : getInstructions() * 1e3 / time;
+	}
+
+	@Override
+	public double getSeconds() {
+		return current().nanos / 1e9;
+	}
+
+	/**
+	 * @param op An operation
+	 * @return The number of times the operation has been retired
+	 */
+	public long getCount(RiscvOp op) {
+		return current().executed[op.ordinal()];
+	}
+
+	@Override
+	public Map<String, Long> getInstructionMix() {
+		Snapshot s = current();
+		Map<String, Long> mix = new LinkedHashMap<String, Long>();
+		for(RiscvOp op : OPS) {
+			if(s.executed[op.ordinal()] != 0) {
+				mix.put(op.name(), s.executed[op.ordinal()]);
+			}
+		}
+		return mix;
+	}
+
+	@Override
+	public long getBranches() {
+		return sum(current().executed, RiscvOp.BEQ, RiscvOp.BNE, RiscvOp.BLT, RiscvOp.BGE, RiscvOp.BLTU, RiscvOp.BGEU);
+	}
+
+	@Override
+	public long getBranchesTaken() {
+		return sum(current().taken, RiscvOp.BEQ, RiscvOp.BNE, RiscvOp.BLT, RiscvOp.BGE, RiscvOp.BLTU, RiscvOp.BGEU);
+	}
+
+	@Override
+	public long[] getLoadsByWidth() {
+		long[] counts = current().executed;
+		return new long[] {sum(counts, RiscvOp.LB, RiscvOp.LBU), sum(counts, RiscvOp.LH, RiscvOp.LHU), sum(counts, RiscvOp.LW)};
+	}
+
+	@Override
+	public long[] getStoresByWidth() {
+		long[] counts = current().executed;
+		return new long[] {sum(counts, RiscvOp.SB), sum(counts, RiscvOp.SH), sum(counts, RiscvOp.SW)};
+	}
+
+	private static long sum(long[] counts, RiscvOp... ops) {
+		long sum = 0;
+		for(RiscvOp op : ops) {
+			sum += counts[op.ordinal()];
+		}
+		return sum;
+	}
+
+	/**
+	 * Prints a summary of the statistics
+	 * @param out The stream to print to
+	 */
+	public void printSummary(PrintStream out) {
+		long instructions = getInstructions();
+		long branches = getBranches();
+		long[] loads = getLoadsByWidth();
+		long[] stores = getStoresByWidth();
+		out.printf("Retired %d instructions in %.3f s (%.1f MIPS)\n", instructions, getSeconds(), getMips());
+		out.printf("Branches: %d, taken: %d (%.1f%%)\n", branches, getBranchesTaken(), branches == 0 ? 0.0 : 100.0 * getBranchesTaken() / branches);
+		out.printf("Loads: %d bytes, %d halfwords, %d words\n", loads[0], loads[1], loads[2]);
+		out.printf("Stores: %d bytes, %d halfwords, %d words\n", stores[0], stores[1], stores[2]);
+		out.printf("Instruction mix:\n");
+		for(Map.Entry<String, Long> entry : getInstructionMix().entrySet()) {
+			out.printf("  %-6s %12d %6.2f%%\n", entry.getKey(), entry.getValue(), 100.0 * entry.getValue() / instructions);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package app;
+
+import java.util.Map;
+
+/**
+ * The execution statistics of a simulator, as published through JMX. See {@link Statistics}
+ */
+public interface StatisticsMXBean {
+
+	/** @return The number of instructions retired */
+	long getInstructions();
+
+	/** @return The number of instructions retired per microsecond of time spent executing */
+	double getMips();
+
+	/** @return The time spent executing, in seconds */
+	double getSeconds();
+
+	/** @return The number of instructions retired, by operation */
+	Map<String, Long> getInstructionMix();
+
+	/** @return The number of conditional branches executed */
+	long getBranches();
+
+	/** @return The number of conditional branches taken */
+	long getBranchesTaken();
+
+	/** @return The number of byte, halfword and word loads */
+	long[] getLoadsByWidth();
+
+	/** @return The number of byte, halfword and word stores */
+	long[] getStoresByWidth();
+}
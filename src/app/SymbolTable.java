@@ -0,0 +1,140 @@
+package app;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The symbols of a program, as read from the symbol table of an ELF file.
+ * Symbols are sorted by address, such that the symbol containing an address can be found by binary search
+ */
+public class SymbolTable {
+
+	private final int[] addresses; //Sorted as unsigned values
+	private final int[] sizes;
+	private final String[] names;
+
+	/**
+	 * Creates a symbol table. The arrays must have the same length, and are sorted by address
+	 * @param addresses The address of each symbol
+	 * @param sizes The size of each symbol in bytes, 0 if unknown
+	 * @param names The name of each symbol
+	 */
+	public SymbolTable(int[] addresses, int[] sizes, String[] names) {
+		Integer[] order = new Integer[addresses.length];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compareUnsigned(addresses[a], addresses[b]));
+		this.addresses = new int[order.length];
+		this.sizes = new int[order.length];
+		this.names = new String[order.length];
+		for(int i = 0; i < order.length; i++) {
+			this.addresses[i] = addresses[order[i]];
+			this.sizes[i] = sizes[order[i]];
+			this.names[i] = names[order[i]];
+		}
+	}
+
+	/**
+	 * Finds the symbol containing an address. If several symbols start at the same address, the last one is used
+	 * @param addr The address to look up
+	 * @return The name of the symbol, or null if no symbol contains the address
+	 */
+	public String lookup(int addr) {
+		int index = indexOf(addr);
+		return index < 0 ? null : names[index];
+	}
+
+	/**
+	 * Finds the start address of the symbol containing an address
+	 * @param addr The address to look up
+	 * @return The address of the symbol, or {@code addr} itself if no symbol contains it
+	 */
+	public int startOf(int addr) {
+		int index = indexOf(addr);
+		return index < 0 ? addr : addresses[index];
+	}
+
+	/**
+	 * Finds the address of a symbol by its name
+	 * @param name The name of the symbol
+	 * @return The address of the symbol, or null if there is no symbol with that name
+	 */
+	public Integer getAddress(String name) {
+		for(int i = 0; i < names.length; i++) {
+			if(names[i].equals(name)) {
+				return addresses[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The number of symbols in the table
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Writes the symbols to a checkpoint
+	 * @param out The checkpoint to write to
+	 * @throws IOException If writing failed
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(names.length);
+		for(int i = 0; i < names.length; i++) {
+			out.writeInt(addresses[i]);
+			out.writeInt(sizes[i]);
+			out.writeUTF(names[i]);
+		}
+	}
+
+	/**
+	 * Reads symbols written by {@link #write(DataOutput)}
+	 * @param in The checkpoint to read from
+	 * @param maxCount The largest number of symbols the checkpoint can hold
+	 * @return The symbol table
+	 * @throws IOException If reading failed, or the number of symbols is negative or above maxCount
+	 */
+	static SymbolTable read(DataInput in, long maxCount) throws IOException {
+		int count = in.readInt();
+		if(count < 0 || count > maxCount) {
+			throw new IOException("Invalid number of symbols " + count + " in checkpoint");
+		}
+		int[] addresses = new int[count];
+		int[] sizes = new int[count];
+		String[] names = new String[count];
+		for(int i = 0; i < count; i++) {
+			addresses[i] = in.readInt();
+			sizes[i] = in.readInt();
+			names[i] = in.readUTF();
+		}
+		return new SymbolTable(addresses, sizes, names);
+	}
+
+	/**
+	 * Finds the index of the symbol containing an address
+	 * @return The index, or -1 if no symbol contains the address
+	 */
+	private int indexOf(int addr) {
+		int low = 0;
+		int high = addresses.length - 1;
+		int found = -1;
+		while(low <= high) { //Find the last symbol starting at or below addr
+			int mid = (low + high) >>> 1;
+			if(Integer.compareUnsigned(addresses[mid], addr) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if(found < 0 || (sizes[found] != 0 && Integer.compareUnsigned(addr - addresses[found], sizes[found]) >= 0)) {
+			return -1;
+		}
+		return found;
+	}
+}
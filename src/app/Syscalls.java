@@ -0,0 +1,282 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * The environment calls available to guest programs, using the numbering of the Venus simulator:
+ * The call is selected by a0, the arguments are in a1 to a3, and results are returned in a0.
+ * <pre>
+ *  1 print_int   a1 = integer, printed in decimal
+ *  4 print_string a1 = address of a NUL-terminated string
+ *  9 sbrk        a1 = bytes to add to the program break, returns the previous break
+ * 10 exit
+ * 11 print_char  a1 = character
+ * 13 open        a1 = address of a NUL-terminated file name, a2 = flags, returns the file descriptor or -1
+ * 14 read        a1 = file descriptor, a2 = buffer address, a3 = length, returns the bytes read, 0 at end of file, or -1
+ * 15 write       a1 = file descriptor, a2 = buffer address, a3 = length, returns the bytes written or -1
+ * 16 close       a1 = file descriptor, returns 0 or -1
+ * 17 exit2       a1 = exit code
+ * </pre>
+ * The flags of open are {@link #OPEN_READ}, {@link #OPEN_WRITE} and {@link #OPEN_APPEND}. Descriptors 0, 1 and 2 are
+ * the console. Exit is handled by {@link RiscV} itself, and unknown calls are ignored.
+ *
+ * Console output is collected in a large buffer and written in bulk when it fills up, before the program reads
+ * from the console, and whenever the simulator stops, such that printing programs are not bound by host writes
+ */
+public class Syscalls {
+
+	public static final int PRINT_INT = 1;
+	public static final int PRINT_STRING = 4;
+	public static final int SBRK = 9;
+	public static final int EXIT = 10;
+	public static final int PRINT_CHAR = 11;
+	public static final int OPEN = 13;
+	public static final int READ = 14;
+	public static final int WRITE = 15;
+	public static final int CLOSE = 16;
+	public static final int EXIT2 = 17;
+
+	public static final int OPEN_READ = 0;
+	public static final int OPEN_WRITE = 1; //Creates or truncates the file
+	public static final int OPEN_APPEND = 9; //Creates the file or writes at its end
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final RiscV rv;
+	private final Memory mem;
+	private final byte[] console = new byte[BUFFER_SIZE]; //Output not yet written to out
+	private int buffered;
+	private final byte[] scratch = new byte[BUFFER_SIZE]; //Data on its way between guest memory and a file
+	private final HashMap<Integer, FileChannel> files = new HashMap<Integer, FileChannel>();
+	private int nextFd = 3;
+
+	InputStream in; //Console input, or null if the console is always at end of file
+	OutputStream out; //Console output, or null to discard it
+	boolean fileAccess = true; //Whether open may touch the host file system
+	int brk; //The program break, ie. the end of the heap
+
+	/**
+	 * @param rv The simulator, which keeps its decoded code coherent with data read into memory
+	 * @param mem The memory of the simulator
+	 */
+	Syscalls(RiscV rv, Memory mem) {
+		this.rv = rv;
+		this.mem = mem;
+	}
+
+	/**
+	 * Performs the call selected by a0
+	 * @param reg The registers, holding the number and arguments of the call. The result is written to a0
+	 */
+	void call(int[] reg) {
+		switch(reg[10]) {
+			case PRINT_INT:
+				print(Integer.toString(reg[11]));
+				break;
+			case PRINT_STRING:
+				for(int addr = reg[11]; mem.loadByte(addr) != 0; addr++) {
+					printByte(mem.loadByte(addr));
+				}
+				break;
+			case SBRK:
+				reg[10] = brk;
+				brk += reg[11];
+				break;
+			case PRINT_CHAR:
+				printByte(reg[11]);
+				break;
+			case OPEN:
+				reg[10] = open(readString(reg[11]), reg[12]);
+				break;
+			case READ:
+				reg[10] = read(reg[11], reg[12], reg[13]);
+				break;
+			case WRITE:
+				reg[10] = write(reg[11], reg[12], reg[13]);
+				break;
+			case CLOSE:
+				reg[10] = close(reg[11]);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Writes the buffered console output
+	 */
+	void flush() {
+		if(buffered == 0) {
+			return;
+		}
+		try {
+			if(out != null) {
+				out.write(console, 0, buffered);
+				out.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			buffered = 0;
+		}
+	}
+
+	/**
+	 * Closes every file opened by the program
+	 */
+	void closeAll() {
+		for(FileChannel channel : files.values()) {
+			try {
+				channel.close();
+			} catch (IOException e) { //Nothing can be done about it, and the program has finished with the file
+			}
+		}
+		files.clear();
+	}
+
+	/**
+	 * Returns to the state before the program made any call, except for the program break, which is part of
+	 * the snapshot being restored: Closes every file, such that descriptors are numbered from 3 again,
+	 * and writes the console output not yet written
+	 */
+	void reset() {
+		flush();
+		closeAll();
+		nextFd = 3;
+	}
+
+	private void print(String text) {
+		for(int i = 0; i < text.length(); i++) {
+			printByte(text.charAt(i));
+		}
+	}
+
+	private void printByte(int value) {
+		if(buffered == console.length) {
+			flush();
+		}
+		console[buffered++] = (byte) value;
+	}
+
+	private String readString(int addr) {
+		StringBuilder sb = new StringBuilder();
+		for(; mem.loadByte(addr) != 0; addr++) {
+			sb.append((char) mem.loadByteUnsigned(addr));
+		}
+		return new String(sb.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+	}
+
+	private int open(String name, int flags) {
+		if(!fileAccess) {
+			return -1;
+		}
+		OpenOption[] options;
+		switch(flags) {
+			case OPEN_READ:
+				options = new OpenOption[] {StandardOpenOption.READ};
+				break;
+			case OPEN_WRITE:
+				options = new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+				break;
+			case OPEN_APPEND:
+				options = new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND};
+				break;
+			default:
+				return -1;
+		}
+		try {
+			files.put(nextFd, FileChannel.open(new File(name).toPath(), options));
+			return nextFd++;
+		} catch (IOException | RuntimeException e) { //Eg. a missing file or an invalid name
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads from a file or the console into guest memory. Like the read of POSIX, this may read less than asked for
+	 */
+	private int read(int fd, int addr, int length) {
+		if(length < 0) {
+			return -1;
+		}
+		int count;
+		try {
+			if(fd == 0) {
+				flush(); //Shows any prompt before waiting for input
+				count = in == null ? 0 : Math.max(0, in.read(scratch, 0, Math.min(length, scratch.length)));
+			} else {
+				FileChannel channel = files.get(fd);
+				if(channel == null) {
+					return -1;
+				}
+				count = Math.max(0, channel.read(ByteBuffer.wrap(scratch, 0, Math.min(length, scratch.length))));
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+		mem.write(addr, scratch, 0, count);
+		rv.invalidateCode(addr, count);
+		return count;
+	}
+
+	/**
+	 * Writes guest memory to a file or the console, in pieces of at most the size of the buffer
+	 */
+	private int write(int fd, int addr, int length) {
+		FileChannel channel = files.get(fd);
+		if(length < 0 || (channel == null && fd != 1 && fd != 2)) {
+			return -1;
+		}
+		try {
+			for(int done = 0; done < length; ) {
+				int count = Math.min(length - done, scratch.length);
+				mem.read(addr + done, scratch, 0, count);
+				if(channel != null) {
+					ByteBuffer data = ByteBuffer.wrap(scratch, 0, count);
+					while(data.hasRemaining()) {
+						channel.write(data);
+					}
+				} else if(fd == 1) {
+					if(count > console.length - buffered) {
+						flush();
+					}
+					System.arraycopy(scratch, 0, console, buffered, count);
+					buffered += count;
+				} else { //Standard error is not buffered, but keeps its order with the output before it
+					flush();
+					if(out != null) {
+						out.write(scratch, 0, count);
+						out.flush();
+					}
+				}
+				done += count;
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+		return length;
+	}
+
+	private int close(int fd) {
+		FileChannel channel = files.remove(fd);
+		if(channel == null) {
+			return -1;
+		}
+		try {
+			channel.close();
+			return 0;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a trace written by {@link TraceWriter}, one record at a time.
+ *
+ * Can also be run from the command line to print a trace as text, optionally filtered by PC, operation
+ * or memory address. Run without arguments for usage
+ */
+public class TraceReader implements Closeable {
+
+	private final DataInputStream in;
+	private final int recordSize;
+	private final byte[] record;
+	private final ByteBuffer fields;
+	private final Instruction inst = new Instruction();
+	private long index = -1;
+
+	/**
+	 * Opens a trace file and reads its header
+	 * @param file The trace file
+	 * @throws IOException If the file could not be read, or is not a trace of a supported version
+	 */
+	public TraceReader(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			if(header.hasRemaining() || header.getInt(0) != TraceWriter.MAGIC) {
+				throw new IOException(file + " is not a trace file");
+			}
+			if(header.getShort(4) != TraceWriter.VERSION) {
+				throw new IOException(file + " has unsupported trace version " + header.getShort(4));
+			}
+			recordSize = header.getShort(6);
+			InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+			if((header.getInt(8) & TraceWriter.FLAG_GZIP) != 0) {
+				stream = new GZIPInputStream(stream, 1 << 16);
+			}
+			in = new DataInputStream(stream);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		record = new byte[recordSize];
+		fields = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Checks whether a file is a trace
+	 * @param file The file to check
+	 * @return True if the file starts with {@link TraceWriter#MAGIC}
+	 * @throws IOException If the file cannot be read
+	 */
+	public static boolean isTrace(File file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			return !header.hasRemaining() && header.getInt(0) == TraceWriter.MAGIC;
+		}
+	}
+
+	/**
+	 * Reads the next record
+	 * @return False if there are no more records
+	 * @throws IOException If the file could not be read
+	 */
+	public boolean next() throws IOException {
+		try {
+			in.readFully(record);
+		} catch (EOFException e) {
+			return false;
+		}
+		inst.updateFields(getInstruction());
+		index++;
+		return true;
+	}
+
+	/** @return The number of the current record, counting from 0 */
+	public long getIndex() {
+		return index;
+	}
+
+	/** @return The address of the instruction */
+	public int getPC() {
+		return fields.getInt(0);
+	}
+
+	/** @return The instruction word */
+	public int getInstruction() {
+		return fields.getInt(4);
+	}
+
+	/** @return The decoded instruction. The same object is reused for every record */
+	public Instruction getDecoded() {
+		return inst;
+	}
+
+	/** @return The value written to rd, or 0 if nothing was written */
+	public int getRdValue() {
+		return fields.getInt(8);
+	}
+
+	/** @return The address of the load or store, or 0 if the instruction does not access memory */
+	public int getAddress() {
+		return fields.getInt(12);
+	}
+
+	/** @return The value loaded or stored, or 0 if the instruction does not access memory */
+	public int getValue() {
+		return fields.getInt(16);
+	}
+
+	/**
+	 * @return True if the instruction is a load or store
+	 */
+	public boolean isMemoryAccess() {
+		return inst.opcode == Instruction.Itype1 || inst.opcode == Instruction.Stype;
+	}
+
+	/**
+	 * @param addr An address
+	 * @return True if the instruction is a load or store accessing the address
+	 */
+	public boolean accesses(long addr) {
+		long first = Integer.toUnsignedLong(getAddress());
+		return isMemoryAccess() && addr >= first && addr < first + (1 << (inst.funct3 & 3)); //funct3 gives the width
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Prints a trace as text, one instruction per line
+	 * @param args The trace file, followed by any filters
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length == 0 || args.length % 2 == 0) {
+			System.out.println("Usage: java -cp out app.TraceReader <trace> [--pc X[:Y]] [--op NAME] [--addr X] [--skip N] [--limit N]");
+			System.out.println("  --pc X[:Y]: Only show instructions at address X, or in the range X to Y inclusive");
+			System.out.println("  --op NAME: Only show instructions of one operation, eg. SW");
+			System.out.println("  --addr X: Only show loads and stores accessing address X");
+			System.out.println("  --skip N: Skip the first N instructions of the trace");
+			System.out.println("  --limit N: Show at most N instructions");
+			System.exit(1);
+		}
+		long pcLow = 0, pcHigh = 0xFFFFFFFFL, skip = 0, limit = Long.MAX_VALUE;
+		Long addr = null;
+		RiscvOp op = null;
+		for(int i = 1; i < args.length; i += 2) {
+			switch(args[i]) {
+				case "--pc":
+					String[] range = args[i + 1].split(":");
+					pcLow = Long.decode(range[0]);
+					pcHigh = range.length > 1 ? Long.decode(range[1]) : pcLow;
+					break;
+				case "--op":
+					op = RiscvOp.valueOf(args[i + 1].toUpperCase());
+					break;
+				case "--addr":
+					addr = Long.decode(args[i + 1]);
+					break;
+				case "--skip":
+					skip = Long.parseLong(args[i + 1]);
+					break;
+				case "--limit":
+					limit = Long.parseLong(args[i + 1]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		try(TraceReader trace = new TraceReader(new File(args[0]))) {
+			StringBuilder line = new StringBuilder(128);
+			while(limit > 0 && trace.next()) {
+				long pc = Integer.toUnsignedLong(trace.getPC());
+				Instruction inst = trace.getDecoded();
+				if(trace.getIndex() < skip || pc < pcLow || pc > pcHigh || (op != null && inst.op != op)
+						|| (addr != null && !trace.accesses(addr))) {
+					continue;
+				}
+				line.setLength(0);
+				line.append(String.format("%d: pc=0x%08x inst=0x%08x %-6s", trace.getIndex(), pc, trace.getInstruction(), inst.op));
+				if(inst.rd != 0 && inst.opcode != Instruction.Stype && inst.opcode != Instruction.Btype) {
+					line.append(String.format(" x%d=0x%08x", inst.rd, trace.getRdValue()));
+				}
+				if(trace.isMemoryAccess()) {
+					line.append(String.format(" mem[0x%08x]=0x%08x", trace.getAddress(), trace.getValue()));
+				}
+				System.out.println(line);
+				limit--;
+			}
+		}
+	}
+}
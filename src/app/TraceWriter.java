@@ -0,0 +1,174 @@
+package app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a binary trace of every executed instruction, to be read by {@link TraceReader}.
+ *
+ * Each instruction is a fixed-size record of 5 little-endian words: PC, the instruction word, the value written to rd,
+ * and the address and value of the memory access. Fields which do not apply to an instruction are 0.
+ * The file starts with a header of 4 words: {@link #MAGIC}, the version and record size as two halfwords,
+ * the flags, and a reserved word. If {@link #FLAG_GZIP} is set, everything after the header is gzip compressed.
+ *
+ * Records are put in a ring of buffers by the simulator thread, and a background thread writes full buffers
+ * to the file, such that the simulator only waits for the disk if it gets a whole ring ahead of it
+ */
+public class TraceWriter implements Closeable {
+
+	public static final int MAGIC = 0x52545652; //"RVTR" in little-endian order
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 20;
+	public static final int FLAG_GZIP = 1;
+
+	private static final int RECORDS_PER_BUFFER = 4096;
+	private static final int BUFFERS = 8;
+	private static final ByteBuffer END = ByteBuffer.allocate(0); //Tells the writer thread to stop
+
+	private final FileChannel channel;
+	private final OutputStream compressed; //Null if not compressing
+	private final ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private final ArrayBlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+	private final Thread writer;
+	private volatile IOException error; //The first error of the writer thread
+	private ByteBuffer current;
+	private long records;
+
+	/**
+	 * Creates a trace file and starts the writer thread
+	 * @param file The file to write
+	 * @param compress True to gzip compress the records
+	 * @throws IOException If the file could not be created
+	 */
+	public TraceWriter(File file, boolean compress) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_SIZE).putInt(compress ? FLAG_GZIP : 0).putInt(0);
+		header.flip();
+		writeFully(header);
+		compressed = compress ? new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) : null;
+
+		for(int i = 0; i < BUFFERS; i++) {
+			free.add(ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_BUFFER).order(ByteOrder.LITTLE_ENDIAN));
+		}
+		current = free.poll();
+		writer = new Thread(this::drain, "trace-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Adds a record to the trace
+	 * @param pc The address of the instruction
+	 * @param inst The instruction word
+	 * @param rdValue The value written to rd, or 0 if nothing was written
+	 * @param address The address of the load or store, or 0
+	 * @param value The value loaded or stored, or 0
+	 */
+	void record(int pc, int inst, int rdValue, int address, int value) {
+		current.putInt(pc).putInt(inst).putInt(rdValue).putInt(address).putInt(value);
+		records++;
+		if(!current.hasRemaining()) {
+			current.flip();
+			current = handOver(current);
+		}
+	}
+
+	/**
+	 * @return The number of records written so far
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Writes the remaining records, waits for the writer thread and closes the file
+	 * @throws IOException If writing the trace failed at any point
+	 */
+	@Override
+	public void close() throws IOException {
+		current.flip();
+		handOver(current);
+		full.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if(compressed != null) {
+				compressed.close(); //Also closes the channel
+			}
+		} finally {
+			channel.close();
+		}
+		if(error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Gives a full buffer to the writer thread, and takes an empty one back
+	 * @param buffer The buffer to write, flipped
+	 * @return An empty buffer
+	 */
+	private ByteBuffer handOver(ByteBuffer buffer) {
+		if(error != null) {
+			throw new UncheckedIOException(error);
+		}
+		try {
+			full.put(buffer);
+			return free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes buffers to the file until told to stop. Runs on the writer thread
+	 */
+	private void drain() {
+		while(true) {
+			ByteBuffer buffer;
+			try {
+				buffer = full.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(buffer == END) {
+				return;
+			}
+			try {
+				if(error == null) {
+					if(compressed != null) {
+						compressed.write(buffer.array(), 0, buffer.limit());
+					} else {
+						writeFully(buffer);
+					}
+				}
+			} catch (IOException e) {
+				error = e; //Reported to the simulator thread, which stops on its next hand over
+			}
+			buffer.clear();
+			free.add(buffer);
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import app.*;
+
+/**
+ * Measures the time taken to decode an instruction with {@link Instruction#updateFields(int)},
+ * using the instructions of the programs in the asm folder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBench {
+
+	private static final int WORDS = 1024;
+
+	@Param({"loop", "branchmany", "addlarge", "mem"})
+	public String program;
+
+	private int[] words = new int[WORDS];
+	private Instruction inst = new Instruction();
+
+	/**
+	 * Fills the array of words to decode by repeating the instructions of the program
+	 */
+	@Setup
+	public void setup() throws Exception {
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(new File("asm/" + program + ".bin").toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		int count = data.remaining() / 4;
+		for(int i = 0; i < WORDS; i++) {
+			words[i] = data.getInt((i % count) * 4);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORDS)
+	public int decode() {
+		int sum = 0; //Combine the decoded fields, such that decoding cannot be optimized away
+		for(int i = 0; i < WORDS; i++) {
+			inst.updateFields(words[i]);
+			sum += inst.op.ordinal() + inst.rd + inst.rs1 + inst.rs2 + inst.imm;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,128 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import app.*;
+
+/**
+ * Measures the time taken by the load and store paths of {@link Memory}, for sequential accesses within a few pages,
+ * random accesses spread over many pages, and accesses crossing a page boundary
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryBench {
+
+	private static final int ACCESSES = 4096;
+	private static final int RANDOM_PAGES = 256;
+
+	private Memory mem = new Memory();
+	private int[] randomAddresses = new int[ACCESSES];
+
+	/**
+	 * Allocates the pages used by the benchmarks, such that allocation is not measured
+	 */
+	@Setup
+	public void setup() {
+		for(int i = 0; i < RANDOM_PAGES; i++) {
+			mem.storeWord(i * 0x10000, i); //Pages 64KiB apart, in several directory entries
+		}
+		for(int i = 0; i < ACCESSES * 4; i += 4) {
+			mem.storeWord(i, i);
+		}
+		Random random = new Random(42);
+		for(int i = 0; i < ACCESSES; i++) {
+			randomAddresses[i] = random.nextInt(RANDOM_PAGES) * 0x10000 + random.nextInt(Memory.PAGE_SIZE / 4) * 4;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public int loadWordSequential() {
+		int sum = 0;
+		for(int i = 0; i < ACCESSES; i++) {
+			sum += mem.loadWord(i * 4);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public int loadHalfSequential() {
+		int sum = 0;
+		for(int i = 0; i < ACCESSES; i++) {
+			sum += mem.loadHalf(i * 2);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public int loadByteSequential() {
+		int sum = 0;
+		for(int i = 0; i < ACCESSES; i++) {
+			sum += mem.loadByteUnsigned(i);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public int loadWordUnaligned() {
+		int sum = 0;
+		for(int i = 0; i < ACCESSES; i++) {
+			sum += mem.loadWord(i * 4 + 1);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public int loadWordRandom() {
+		int sum = 0;
+		for(int i = 0; i < ACCESSES; i++) {
+			sum += mem.loadWord(randomAddresses[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public int loadWordPageCrossing() {
+		int sum = 0;
+		for(int i = 0; i < ACCESSES; i++) {
+			sum += mem.loadWord((i & 3) * Memory.PAGE_SIZE + Memory.PAGE_SIZE - 2);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public void storeWordSequential() {
+		for(int i = 0; i < ACCESSES; i++) {
+			mem.storeWord(i * 4, i);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public void storeByteSequential() {
+		for(int i = 0; i < ACCESSES; i++) {
+			mem.storeByte(i, i);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACCESSES)
+	public void storeWordRandom() {
+		for(int i = 0; i < ACCESSES; i++) {
+			mem.storeWord(randomAddresses[i], i);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import app.*;
+
+/**
+ * Measures whole-program throughput, running the programs in the asm folder to completion.
+ * The "interpreter" mode executes every instruction through RiscV.exMemWb, "blocks" uses the basic block engine
+ * and "jit" also compiles hot blocks. The instructions counter gives the throughput in instructions per second
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgramBench {
+
+	@Param({"loop", "branchmany", "addlarge", "mem"})
+	public String program;
+
+	@Param({"interpreter", "blocks", "jit"})
+	public String mode;
+
+	private File file;
+
+	/**
+	 * Counts the instructions executed, reported by JMH as an additional throughput result
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			instructions = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		file = new File("asm/" + program + ".bin");
+	}
+
+	/**
+	 * Loads and runs the program once. Loading is included, as it is part of running a program
+	 */
+	@Benchmark
+	public int run(Counters counters) throws Exception {
+		RiscV rv = new RiscV(file);
+		if(!mode.equals("interpreter")) {
+			rv.setBlockMode(true);
+			rv.setJitThreshold(mode.equals("jit") ? RiscV.DEFAULT_JIT_THRESHOLD : -1);
+		}
+		counters.instructions += rv.runHeadless();
+		return rv.getReg()[10];
+	}
+}
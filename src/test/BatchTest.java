@@ -0,0 +1,64 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import app.*;
+
+/**
+ * Tests running many programs in parallel with the batch runner
+ */
+public class BatchTest {
+
+	/**
+	 * Runs every program in the asm folder. Programs with a .res file must pass, and all others must exit
+	 * @throws Exception
+	 */
+	@Test
+	public void testDirectory() throws Exception {
+		List<File> programs = BatchRunner.findPrograms(new File("asm"));
+		List<BatchRunner.Result> results = new BatchRunner(4, 1000000).run(programs);
+		assertEquals(programs.size(), results.size());
+		for(int i = 0; i < results.size(); i++) {
+			BatchRunner.Result result = results.get(i);
+			assertEquals(programs.get(i), result.program);
+			String name = result.program.getName().replace(".bin", "");
+			boolean hasRes = new File("asm", name + ".res").isFile();
+			assertEquals(name, hasRes ? BatchRunner.Status.PASS : BatchRunner.Status.DONE, result.status);
+		}
+	}
+
+	/**
+	 * Runs programs from a manifest, checking that a wrong .res file fails the program
+	 * and that a program exceeding the instruction limit is stopped
+	 * @throws Exception
+	 */
+	@Test
+	public void testManifest() throws Exception {
+		File dir = Files.createTempDirectory("batchtest").toFile();
+		File program = new File(dir, "addpos.bin");
+		File res = new File(dir, "addpos.res");
+		File manifest = new File(dir, "manifest");
+		try {
+			Files.copy(new File("asm/addpos.bin").toPath(), program.toPath());
+			Files.write(res.toPath(), new byte[128]); //All registers 0, which is wrong
+			Files.write(manifest.toPath(), Arrays.asList("# Programs to run", "addpos", "", new File("asm/loop.bin").getAbsolutePath()));
+
+			List<File> programs = BatchRunner.findPrograms(manifest);
+			assertEquals(Arrays.asList(program, new File("asm/loop.bin").getAbsoluteFile()), programs);
+			List<BatchRunner.Result> results = new BatchRunner(2, 10).run(programs);
+			assertEquals(BatchRunner.Status.FAIL, results.get(0).status);
+			assertEquals(BatchRunner.Status.TIMEOUT, results.get(1).status);
+			assertEquals(10, results.get(1).instructions);
+		} finally {
+			program.delete();
+			res.delete();
+			manifest.delete();
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import java.util.*;
+
+import app.*;
+
+/**
+ * Tests that the basic block engine gives the same results as the instruction-by-instruction interpreter
+ */
+@RunWith(Parameterized.class)
+public class BlockTest {
+
+	@Parameterized.Parameter(0)
+	public String program;
+
+	/**
+	 * All of the programs in the asm folder which run to completion
+	 * @return The test data used by JUnit
+	 */
+	@Parameterized.Parameters(name = "{index}: {0}")
+	public static Collection<Object[]> testData() {
+		Object[][] data = new Object[][] {
+			{"addlarge"},
+			{"addneg"},
+			{"addpos"},
+			{"arith"},
+			{"branchcnt"},
+			{"branches"},
+			{"branchmany"},
+			{"compressed"},
+			{"count"},
+			{"jump"},
+			{"loop"},
+			{"mem"},
+			{"memhigh"},
+			{"muldiv"},
+			{"selfmod"},
+			{"shift"},
+			{"slt"}
+		};
+		return Arrays.asList(data);
+	}
+
+	/**
+	 * Runs the program with and without the block engine, comparing the final register contents
+	 */
+	@Test
+	public void testBlockMode() throws Exception {
+		RiscV interpreted = new RiscV("asm/" + program);
+		interpreted.setDebugMode(true);
+		interpreted.run();
+
+		RiscV blocks = new RiscV("asm/" + program);
+		blocks.setDebugMode(true);
+		blocks.setBlockMode(true);
+		blocks.run();
+
+		assertArrayEquals(interpreted.getReg(), blocks.getReg());
+		assertEquals(interpreted.getInstructionCount(), blocks.getInstructionCount());
+	}
+
+	/**
+	 * Runs the program headless with the JIT compiling every block on its first execution, comparing the final register contents
+	 * and instruction count with those of the interpreter
+	 */
+	@Test
+	public void testJit() throws Exception {
+		RiscV interpreted = new RiscV("asm/" + program);
+		interpreted.setDebugMode(true);
+		interpreted.run();
+
+		RiscV compiled = new RiscV("asm/" + program);
+		compiled.setBlockMode(true);
+		compiled.setJitThreshold(0);
+		long executed = compiled.runHeadless();
+
+		assertArrayEquals(interpreted.getReg(), compiled.getReg());
+		assertEquals(interpreted.getInstructionCount(), executed);
+	}
+}
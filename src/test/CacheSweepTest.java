@@ -0,0 +1,120 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import app.*;
+
+/**
+ * Tests that a cache sweep gives the same results as simulating each configuration on its own
+ */
+public class CacheSweepTest {
+
+	private static final int[] SIZES = {256, 1 << 10, 4 << 10};
+	private static final int[] WAYS = {1, 2, 4, 8};
+	private static final int[] LINES = {16, 64};
+
+	/**
+	 * Tests LRU and PLRU sweeps against separate caches on a stream with some locality,
+	 * more than a chunk long and with accesses spanning two lines
+	 */
+	@Test
+	public void testSynthetic() {
+		for(Cache.Replacement policy : new Cache.Replacement[] {Cache.Replacement.LRU, Cache.Replacement.PLRU}) {
+			CacheSweep sweep = new CacheSweep(SIZES, WAYS, LINES, policy, CacheSweep.Stream.UNIFIED, 3);
+			List<Cache> caches = caches(policy);
+			Random random = new Random(1);
+			for(int i = 0; i < 200000; i++) {
+				int addr = random.nextInt(8) == 0 ? random.nextInt(1 << 16) : random.nextInt(1 << 11);
+				int width = 1 << random.nextInt(3);
+				boolean write = random.nextBoolean();
+				sweep.data(addr, width, write);
+				for(Cache cache : caches) {
+					cache.access(addr, width, write);
+				}
+			}
+			check(caches, sweep.finish());
+		}
+		assertEquals(15, new CacheSweep(SIZES, WAYS, LINES, Cache.Replacement.LRU, CacheSweep.Stream.DATA, 1).getPasses()); //One pass per line size and number of sets, for 23 configurations
+	}
+
+	/**
+	 * Tests that sweeping a running program gives the same results as replaying its trace, and as a single cache
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgram() throws Exception {
+		File traceFile = new File("sweep.trace");
+		try {
+			RiscV rv = new RiscV("asm/loop");
+			CacheSweep live = new CacheSweep(SIZES, WAYS, LINES, Cache.Replacement.LRU, CacheSweep.Stream.DATA, 2);
+			rv.setAccessObserver(live);
+			rv.startTrace(traceFile, false);
+			rv.runHeadless();
+			rv.stopTrace();
+			List<CacheSweep.Result> results = live.finish();
+
+			CacheSweep replayed = new CacheSweep(SIZES, WAYS, LINES, Cache.Replacement.LRU, CacheSweep.Stream.DATA, 2);
+			try(TraceReader trace = new TraceReader(traceFile)) {
+				replayed.replay(trace);
+			}
+			List<CacheSweep.Result> expected = replayed.finish();
+			assertEquals(expected.size(), results.size());
+			for(int i = 0; i < results.size(); i++) {
+				assertEquals(expected.get(i).accesses, results.get(i).accesses);
+				assertEquals(expected.get(i).misses, results.get(i).misses);
+			}
+
+			rv = new RiscV("asm/loop");
+			CacheHierarchy caches = new CacheHierarchy(new Cache("L1I", 1 << 10, 2, 16, Cache.Replacement.LRU, 1),
+				new Cache("L1D", 1 << 10, 2, 16, Cache.Replacement.LRU, 1), null, 100);
+			rv.setCaches(caches);
+			rv.runHeadless();
+			CacheSweep.Result result = find(results, 1 << 10, 2, 16);
+			assertTrue(result.accesses > 0);
+			assertEquals(caches.getL1d().getAccesses(), result.accesses);
+			assertEquals(caches.getL1d().getMisses(), result.misses);
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	private static List<Cache> caches(Cache.Replacement policy) {
+		List<Cache> caches = new ArrayList<Cache>();
+		for(int size : SIZES) {
+			for(int ways : WAYS) {
+				for(int line : LINES) {
+					if(size >= ways * line) { //The sweep leaves out caches holding less than one set
+						caches.add(new Cache("L1D", size, ways, line, policy, 1));
+					}
+				}
+			}
+		}
+		return caches;
+	}
+
+	private static void check(List<Cache> caches, List<CacheSweep.Result> results) {
+		assertEquals(caches.size(), results.size());
+		for(Cache cache : caches) {
+			CacheSweep.Result result = find(results, cache.getSize(), cache.getWays(), cache.getLineSize());
+			assertEquals(cache.getPolicy(), result.policy);
+			assertEquals(cache.toString(), cache.getAccesses(), result.accesses);
+			assertEquals(cache.toString(), cache.getMisses(), result.misses);
+		}
+	}
+
+	private static CacheSweep.Result find(List<CacheSweep.Result> results, int size, int ways, int line) {
+		for(CacheSweep.Result result : results) {
+			if(result.size == size && result.ways == ways && result.lineSize == line) {
+				return result;
+			}
+		}
+		fail("No result for " + size + " bytes, " + ways + " ways and " + line + " byte lines");
+		return null;
+	}
+}
@@ -0,0 +1,130 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import app.*;
+
+/**
+ * Tests the cache model: Replacement policies, write backs, AMAT, and the accesses made by a running program
+ */
+public class CacheTest {
+
+	private static final int LINE = 16;
+
+	/**
+	 * Tests that lines mapping to the same set evict each other in a direct-mapped cache
+	 */
+	@Test
+	public void testConflicts() {
+		Cache cache = new Cache("L1D", 256, 1, LINE, Cache.Replacement.LRU, 1);
+		for(int i = 0; i < 3; i++) {
+			cache.access(0x1000, 4, false);
+			cache.access(0x1100, 4, false); //256 bytes further, so the same set
+		}
+		assertEquals(6, cache.getMisses());
+		cache.access(0x1104, 4, false);
+		assertEquals(6, cache.getMisses());
+	}
+
+	/**
+	 * Tests that LRU evicts the least recently used line, and PLRU the line its tree points to
+	 */
+	@Test
+	public void testReplacement() {
+		Cache lru = new Cache("L1D", 4 * LINE, 4, LINE, Cache.Replacement.LRU, 1);
+		Cache plru = new Cache("L1D", 4 * LINE, 4, LINE, Cache.Replacement.PLRU, 1);
+		for(Cache cache : new Cache[] {lru, plru}) {
+			for(int line : new int[] {0, 1, 2, 3, 0, 4}) { //Fills the set, uses line 0 again, then evicts a line
+				cache.access(line * LINE, 4, false);
+			}
+			assertEquals(5, cache.getMisses());
+			cache.access(0, 4, false);
+			assertEquals(5, cache.getMisses());
+		}
+		lru.access(1 * LINE, 4, false); //Least recently used
+		assertEquals(6, lru.getMisses());
+		plru.access(1 * LINE, 4, false); //The tree points away from lines 0 and 3, so line 2 was evicted
+		plru.access(3 * LINE, 4, false);
+		assertEquals(5, plru.getMisses());
+		plru.access(2 * LINE, 4, false);
+		assertEquals(6, plru.getMisses());
+
+		Cache random = new Cache("L1D", 4 * LINE, 4, LINE, Cache.Replacement.RANDOM, 1);
+		for(int line = 0; line < 100; line++) {
+			random.access(line * LINE, 4, false);
+		}
+		assertEquals(100, random.getMisses());
+	}
+
+	/**
+	 * Tests that dirty lines are written back to the next level when evicted, and that accesses spanning two lines
+	 * access both
+	 */
+	@Test
+	public void testWriteback() {
+		Cache l1 = new Cache("L1D", 256, 1, LINE, Cache.Replacement.LRU, 1);
+		Cache l2 = new Cache("L2", 1024, 2, LINE, Cache.Replacement.LRU, 10);
+		CacheHierarchy caches = new CacheHierarchy(new Cache("L1I", 256, 1, LINE, Cache.Replacement.LRU, 1), l1, l2, 100);
+		assertSame(l2, caches.getL2());
+		l1.access(0x1000, 4, true);
+		l1.access(0x1100, 4, false);
+		assertEquals(1, l1.getWritebacks());
+		assertEquals(0, l2.getWriteMisses()); //The line was brought into the L2 by the first miss
+		assertEquals(3, l2.getAccesses());
+
+		l1.access(0x200e, 4, false);
+		assertEquals(4, l1.getAccesses());
+		assertEquals(4, l1.getMisses());
+	}
+
+	/**
+	 * Tests the average memory access time of a program, and that every fetch, load and store passes through the caches
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgram() throws Exception {
+		RiscV expected = new RiscV("asm/loop");
+		expected.runHeadless();
+
+		RiscV rv = new RiscV("asm/loop");
+		rv.setBlockMode(true);
+		rv.setJitThreshold(0);
+		CacheHierarchy caches = new CacheHierarchy(new Cache("L1I", 1 << 10, 2, LINE, Cache.Replacement.LRU, 1),
+			new Cache("L1D", 1 << 10, 2, LINE, Cache.Replacement.PLRU, 1), null, 100);
+		rv.setCaches(caches);
+		rv.runHeadless();
+		assertArrayEquals(expected.getReg(), rv.getReg());
+		assertEquals(expected.getInstructionCount(), rv.getInstructionCount());
+
+		Statistics stats = rv.getStatistics();
+		long accesses = 0;
+		for(int i = 0; i < 3; i++) {
+			accesses += stats.getLoadsByWidth()[i] + stats.getStoresByWidth()[i];
+		}
+		assertEquals(rv.getInstructionCount(), caches.getL1i().getAccesses()); //The program has no misaligned accesses
+		assertEquals(accesses, caches.getL1d().getAccesses());
+		double amat = 1 + 100.0 * caches.getL1d().getMisses() / accesses;
+		assertEquals(amat, caches.getDataAmat(), 1e-9);
+	}
+
+	/**
+	 * Tests parsing cache descriptions
+	 */
+	@Test
+	public void testParse() {
+		Cache cache = Cache.parse("L2", "256k:8:64:plru:12", 10);
+		assertEquals(256 << 10, cache.getSize());
+		assertEquals(8, cache.getWays());
+		assertEquals(64, cache.getLineSize());
+		assertEquals(Cache.Replacement.PLRU, cache.getPolicy());
+		assertEquals(12, cache.getLatency());
+		assertEquals(Cache.Replacement.LRU, Cache.parse("L1D", "512:1:16", 1).getPolicy());
+		try {
+			Cache.parse("L1D", "48K:8:64", 1);
+			fail("Accepted a size which is not a power of two");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("L1D"));
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import app.*;
+
+/**
+ * Saves checkpoints in the middle of programs and resumes them in a new simulator,
+ * which must finish with the same state as a simulator which was never stopped
+ */
+@RunWith(Parameterized.class)
+public class CheckpointTest {
+
+	@Parameterized.Parameter(0)
+	public String program;
+
+	@Parameterized.Parameter(1)
+	public boolean compress;
+
+	@Parameterized.Parameters(name = "{index}: {0}, compress={1}")
+	public static Collection<Object[]> testData() {
+		Object[][] data = new Object[][] {
+			{"mem", false},
+			{"mem", true},
+			{"selfmod", false},
+			{"loop", false},
+			{"loop", true},
+			{"count", true}
+		};
+		return Arrays.asList(data);
+	}
+
+	/**
+	 * Runs half of the program, saves a checkpoint, and compares finishing the run with resuming from the checkpoint
+	 * @throws Exception
+	 */
+	@Test
+	public void testResume() throws Exception {
+		RiscV full = new RiscV("asm/" + program);
+		full.runHeadless();
+		long total = full.getInstructionCount();
+
+		RiscV rv = new RiscV("asm/" + program);
+		rv.setBlockMode(true);
+		rv.setJitThreshold(0);
+		rv.runHeadless(total / 2);
+		File file = File.createTempFile("checkpoint", ".ckpt");
+		try {
+			rv.writeCheckpoint(file, compress);
+			assertTrue(Checkpoint.isCheckpoint(file));
+
+			RiscV resumed = new RiscV(file);
+			assertEquals(rv.getPC(), resumed.getPC());
+			assertArrayEquals(rv.getReg(), resumed.getReg());
+			assertEquals(total / 2, resumed.getInstructionCount());
+			assertEquals(total / 2, resumed.getStatistics().getInstructions());
+			assertTrue(resumed.isRunning());
+
+			resumed.setBlockMode(true);
+			resumed.runHeadless();
+			assertFalse(resumed.isRunning());
+			assertArrayEquals(full.getReg(), resumed.getReg());
+			assertEquals(total, resumed.getInstructionCount());
+			assertEquals(full.getStatistics().getInstructionMix(), resumed.getStatistics().getInstructionMix());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests that a checkpoint of another version is rejected instead of being loaded as a flat binary
+	 * @throws Exception
+	 */
+	@Test
+	public void testVersion() throws Exception {
+		RiscV rv = new RiscV("asm/" + program);
+		File file = File.createTempFile("checkpoint", ".ckpt");
+		try {
+			rv.writeCheckpoint(file, compress);
+			try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.seek(4);
+				raf.writeShort(Checkpoint.VERSION + 1);
+			}
+			new RiscV(file);
+			fail("Loaded a checkpoint of an unsupported version");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("version"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests that corrupt counts and a truncated file are reported with an IOException, rather than by allocating
+	 * arrays of the size read from the file
+	 * @throws Exception
+	 */
+	@Test
+	public void testCorrupt() throws Exception {
+		RiscV rv = new RiscV("asm/" + program);
+		rv.addBreakpoint(0x10);
+		File file = File.createTempFile("checkpoint", ".ckpt");
+		try {
+			rv.writeCheckpoint(file, compress);
+			byte[] data = Files.readAllBytes(file.toPath());
+			for(int pages : new int[] {-1, Integer.MAX_VALUE, 1 << 20}) { //The header is never compressed
+				ByteBuffer corrupt = ByteBuffer.wrap(data.clone());
+				corrupt.putInt(8, pages);
+				assertRejected(file, corrupt.array(), "Invalid number of pages " + pages);
+			}
+			if(!compress) {
+				int breakpoints = Checkpoint.HEADER_SIZE + 4 + 4 + 8 + 1 + 4 + 32 * 4; //After PC, entry, instret, running, brk and the registers
+				assertEquals(1, ByteBuffer.wrap(data).getInt(breakpoints));
+				for(int count : new int[] {-5, Integer.MAX_VALUE}) {
+					ByteBuffer corrupt = ByteBuffer.wrap(data.clone());
+					corrupt.putInt(breakpoints, count);
+					assertRejected(file, corrupt.array(), "Invalid number of breakpoints " + count);
+				}
+			}
+			assertRejected(file, Arrays.copyOf(data, data.length / 2), null); //In the pages, or the compressed stream
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Writes a damaged checkpoint and checks that loading it fails with an IOException
+	 * @param message The start of the expected message, or null to accept any
+	 */
+	private static void assertRejected(File file, byte[] data, String message) throws IOException {
+		Files.write(file.toPath(), data);
+		try {
+			new RiscV(file);
+			fail("Loaded a damaged checkpoint");
+		} catch (IOException e) {
+			if(message != null) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import app.*;
+
+/**
+ * Tests the compressed instructions of the C extension
+ */
+public class CompressedTest {
+
+	private static final int[] EXPECTED = {
+		0x0, 0x4e, 0x0, 0x0,
+		0x0, 0x0, 0x52, 0x7,
+		0x1200, 0xfffffffc, 0xa, 0x15,
+		0x2e, 0x37, 0x4, 0x1201f0,
+		0x37, 0x7, 0x0, 0x0,
+		0x0, 0x0, 0x0, 0x0,
+		0x0, 0x0, 0x0, 0x0,
+		0x0, 0x0, 0x0, 0x0
+	};
+
+	/**
+	 * Tests whether the "compressed" tester works appropriately, with the interpreter and with the JIT
+	 */
+	@Test
+	public void testCompressed() throws Exception {
+		RiscV rv = new RiscV("asm/compressed");
+		rv.setDebugMode(true);
+		rv.run();
+		assertArrayEquals(EXPECTED, rv.getReg());
+
+		RiscV compiled = new RiscV("asm/compressed");
+		compiled.setBlockMode(true);
+		compiled.setJitThreshold(0);
+		compiled.runHeadless();
+		assertArrayEquals(EXPECTED, compiled.getReg());
+		assertEquals(rv.getInstructionCount(), compiled.getInstructionCount());
+	}
+
+	/**
+	 * Tests the expansion of compressed instructions against the equivalent 32-bit instructions
+	 */
+	@Test
+	public void testExpand() {
+		int[][] pairs = {
+			{0x4501, 0x00000513}, //li a0, 0
+			{0x1141, 0xff010113}, //addi sp, sp, -16
+			{0xc606, 0x00112623}, //sw ra, 12(sp)
+			{0x40b2, 0x00c12083}, //lw ra, 12(sp)
+			{0x8082, 0x00008067}, //ret
+			{0x852e, 0x00b00533}, //mv a0, a1
+			{0x6105, 0x02010113}, //addi sp, sp, 32
+			{0x0001, 0x00000013}, //nop
+			{0x9002, 0x00100073} //ebreak
+		};
+		for(int[] pair : pairs) {
+			assertEquals(pair[1], Compressed.expand(pair[0]));
+			Instruction inst = new Instruction(pair[0] | 0xABCD0000); //The upper half belongs to the next instruction
+			assertEquals(2, inst.length);
+			assertEquals(pair[0], inst.source);
+			assertEquals(new Instruction(pair[1]).op, inst.op);
+		}
+		assertEquals(4, new Instruction(0x00000513).length);
+		assertEquals(RiscvOp.ERROR, new Instruction(0x0000).op); //The all-zero halfword is illegal
+		assertEquals(RiscvOp.ERROR, new Instruction(0x2000).op); //C.FLD is not supported
+	}
+
+	/**
+	 * Tests that a store into the second half of a 32-bit instruction invalidates it, but not a compressed instruction
+	 * before the store
+	 */
+	@Test
+	public void testInvalidate() {
+		DecodeCache cache = new DecodeCache();
+		cache.put(0, new Instruction(0x00000513));
+		cache.put(4, new Instruction(0x4501));
+		cache.put(0xffe, new Instruction(0x00000513));
+		assertTrue(cache.invalidate(2, 2));
+		assertNull(cache.get(0));
+		assertFalse(cache.invalidate(6, 2));
+		assertNotNull(cache.get(4));
+		assertTrue(cache.invalidate(0x1000, 1)); //The instruction starts on the previous page
+		assertNull(cache.get(0xffe));
+	}
+}
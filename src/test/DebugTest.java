@@ -0,0 +1,119 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import app.*;
+
+/**
+ * Tests the breakpoint and watchpoint support of the simulator
+ */
+public class DebugTest {
+
+	/**
+	 * Tests adding, removing and listing addresses, including addresses far apart in the address space
+	 */
+	@Test
+	public void testAddressSet() {
+		AddressSet set = new AddressSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(0x10));
+		assertFalse(set.add(0x10));
+		assertTrue(set.add(0xFFFFFFFC));
+		assertTrue(set.add(0x13F)); //Last bit of a 64-bit word
+		assertEquals(3, set.size());
+		assertTrue(set.contains(0x10));
+		assertFalse(set.contains(0x11));
+		assertFalse(set.contains(0x1010)); //Same offset on another page
+		assertTrue(set.containsAny(0xFFFFFFF8, 8));
+		assertFalse(set.containsAny(0x11, 0x12E));
+		assertArrayEquals(new int[] {0x10, 0x13F, 0xFFFFFFFC}, set.toArray());
+
+		assertTrue(set.remove(0x10));
+		assertFalse(set.remove(0x10));
+		assertFalse(set.contains(0x10));
+		assertArrayEquals(new int[] {0x13F, 0xFFFFFFFC}, set.toArray());
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(0x13F));
+	}
+
+	/**
+	 * Answers every prompt of the CLI with "r", recording the PC and instruction count of the simulator at each prompt.
+	 * A single line is given per read, such that the CLI never reads ahead of a stop
+	 */
+	private static class Prompts extends InputStream {
+
+		private final List<long[]> stops = new ArrayList<>();
+		private RiscV rv;
+
+		@Override
+		public int read() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) {
+			stops.add(new long[] {rv.getPC(), rv.getInstructionCount()});
+			buffer[offset] = 'r';
+			buffer[offset + 1] = '\n';
+			return 2;
+		}
+	}
+
+	/**
+	 * Runs a program with breakpoints and watchpoints set, which must stop at each of them and not change the result
+	 * @throws Exception
+	 */
+	@Test
+	public void testRunWithBreakpoints() throws Exception {
+		RiscV plain = new RiscV("asm/mem");
+		plain.setDebugMode(true);
+		plain.run();
+
+		RiscV checked = new RiscV("asm/mem");
+		checked.addBreakpoint(0x0);
+		checked.addBreakpoint(0x10);
+		checked.addWatchpoint(0xfffe4, 4); //The word stored first, at 0(sp)
+		Prompts prompts = new Prompts();
+		prompts.rv = checked;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream keyboard = System.in;
+		PrintStream console = System.out;
+		System.setIn(prompts);
+		System.setOut(new PrintStream(output));
+		try {
+			checked.run();
+		} finally {
+			System.setIn(keyboard);
+			System.setOut(console);
+		}
+
+		assertArrayEquals(plain.getReg(), checked.getReg());
+		assertEquals(plain.getInstructionCount(), checked.getInstructionCount());
+
+		//PC and instruction count at each read of the input
+		long[][] expected = {
+			{0x0, 0}, //The line discarded by run() as left over from choosing the program
+			{0x0, 0}, //Breakpoint at the first instruction
+			{0x10, 4}, //Breakpoint
+			{40, 10}, //After the SW at PC 36 to the watched word
+			{164, 41}, //After the LW at PC 160 of the watched word
+		};
+		assertEquals(expected.length, prompts.stops.size());
+		for(int i = 0; i < expected.length; i++) {
+			assertArrayEquals(expected[i], prompts.stops.get(i));
+		}
+		String printed = output.toString();
+		assertTrue(printed.contains("Breakpoint encountered at PC 0\n"));
+		assertTrue(printed.contains("Breakpoint encountered at PC 16\n"));
+		assertTrue(printed.contains("Watchpoint hit by SW of address 0x000fffe4 at PC 36\n"));
+		assertTrue(printed.contains("Watchpoint hit by LW of address 0x000fffe4 at PC 160\n"));
+	}
+}
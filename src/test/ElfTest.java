@@ -0,0 +1,194 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import app.*;
+
+/**
+ * Tests loading of ELF executables, using a small program that is assembled into an ELF file by the test
+ */
+public class ElfTest {
+
+	private static final int CODE_ADDR = 0x10000;
+	private static final int DATA_ADDR = 0x11000;
+
+	/**
+	 * Tests that the segments are loaded at their virtual addresses, that .bss is zeroed,
+	 * and that execution starts at the entry point
+	 * @throws Exception
+	 */
+	@Test
+	public void testLoad() throws Exception {
+		File file = writeElf();
+		try {
+			RiscV rv = new RiscV(file.getPath());
+			rv.setDebugMode(true);
+			rv.run();
+			int[] Reg = rv.getReg();
+			assertEquals(0xCAFEBABE, Reg[11]);
+			assertEquals(0x0, Reg[12]); //Not backed by the file
+			assertEquals(0xa, Reg[10]);
+			assertEquals(5, rv.getInstructionCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests that function and object symbols are read from the symbol table
+	 * @throws Exception
+	 */
+	@Test
+	public void testSymbols() throws Exception {
+		File file = writeElf();
+		try {
+			SymbolTable symbols = new RiscV(file.getPath()).getSymbols();
+			assertEquals(2, symbols.size());
+			assertEquals("_start", symbols.lookup(CODE_ADDR + 8));
+			assertEquals(CODE_ADDR, symbols.startOf(CODE_ADDR + 8));
+			assertNull(symbols.lookup(CODE_ADDR + 20));
+			assertEquals(Integer.valueOf(DATA_ADDR), symbols.getAddress("data"));
+			assertNull(symbols.getAddress("missing"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests loading an ELF executable which is already in memory
+	 * @throws Exception
+	 */
+	@Test
+	public void testBuffer() throws Exception {
+		File file = writeElf();
+		try {
+			RiscV rv = new RiscV(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+			assertEquals(CODE_ADDR, rv.getPC());
+			assertEquals(2, rv.getSymbols().size());
+			rv.runHeadless();
+			assertEquals(0xCAFEBABE, rv.getReg()[11]);
+			assertEquals(5, rv.getInstructionCount());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tests that a truncated file is reported with an IOException naming what lies past its end, whether it is cut
+	 * in the program headers, a segment or the section headers
+	 * @throws Exception
+	 */
+	@Test
+	public void testTruncated() throws Exception {
+		File file = writeElf();
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			String[] expected = {"The program header table", "Segment 0", "The section header table"};
+			int[] lengths = {60, 52 + 2 * 32 + 8, data.length - 1};
+			for(int i = 0; i < lengths.length; i++) {
+				Files.write(file.toPath(), Arrays.copyOf(data, lengths[i]));
+				try {
+					new RiscV(file.getPath());
+					fail("Loaded a file truncated to " + lengths[i] + " bytes");
+				} catch (IOException e) {
+					assertTrue(e.getMessage(), e.getMessage().startsWith(expected[i] + " of " + file.getPath()));
+					assertTrue(e.getMessage(), e.getMessage().endsWith("The file may be truncated"));
+				}
+				try {
+					new RiscV(ByteBuffer.wrap(data, 0, lengths[i]));
+					fail("Loaded a buffer truncated to " + lengths[i] + " bytes");
+				} catch (IOException e) {
+					assertTrue(e.getMessage(), e.getMessage().startsWith(expected[i]));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Writes an ELF file with a code segment, a data segment with .bss, and a symbol table
+	 * @return The file
+	 * @throws Exception
+	 */
+	private static File writeElf() throws Exception {
+		int[] code = {
+			0x000112B7, //lui t0, 0x11
+			0x0002A583, //lw a1, 0(t0)
+			0x0042A603, //lw a2, 4(t0)
+			0x00A00513, //addi a0, zero, 10
+			0x00000073  //ecall
+		};
+		byte[] strtab = "\0_start\0data\0".getBytes("US-ASCII");
+		int phoff = 52, codeOff = phoff + 2 * 32, dataOff = codeOff + 4 * code.length;
+		int symOff = dataOff + 4, strOff = symOff + 3 * 16, shoff = strOff + strtab.length;
+		ByteBuffer buf = ByteBuffer.allocate(shoff + 3 * 40).order(ByteOrder.LITTLE_ENDIAN);
+
+		//ELF header
+		buf.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 1, 1});
+		buf.putShort(16, (short) 2); //ET_EXEC
+		buf.putShort(18, (short) 243); //EM_RISCV
+		buf.putInt(20, 1);
+		buf.putInt(24, CODE_ADDR);
+		buf.putInt(28, phoff);
+		buf.putInt(32, shoff);
+		buf.putShort(40, (short) 52);
+		buf.putShort(42, (short) 32);
+		buf.putShort(44, (short) 2);
+		buf.putShort(46, (short) 40);
+		buf.putShort(48, (short) 3);
+
+		//Program headers: code, then data with 4 bytes of .bss
+		putSegment(buf, phoff, codeOff, CODE_ADDR, 4 * code.length, 4 * code.length);
+		putSegment(buf, phoff + 32, dataOff, DATA_ADDR, 4, 8);
+		for(int i = 0; i < code.length; i++) {
+			buf.putInt(codeOff + 4 * i, code[i]);
+		}
+		buf.putInt(dataOff, 0xCAFEBABE);
+
+		//Symbols, the first one is the undefined symbol
+		putSymbol(buf, symOff + 16, 1, CODE_ADDR, 4 * code.length, 2);
+		putSymbol(buf, symOff + 32, 8, DATA_ADDR, 8, 1);
+		buf.position(strOff);
+		buf.put(strtab);
+
+		//Section headers: null, .symtab linked to .strtab, .strtab
+		buf.putInt(shoff + 40 + 4, 2); //SHT_SYMTAB
+		buf.putInt(shoff + 40 + 16, symOff);
+		buf.putInt(shoff + 40 + 20, 3 * 16);
+		buf.putInt(shoff + 40 + 24, 2);
+		buf.putInt(shoff + 40 + 36, 16);
+		buf.putInt(shoff + 80 + 4, 3); //SHT_STRTAB
+		buf.putInt(shoff + 80 + 16, strOff);
+		buf.putInt(shoff + 80 + 20, strtab.length);
+
+		File file = File.createTempFile("elftest", ".elf");
+		Files.write(file.toPath(), buf.array());
+		return file;
+	}
+
+	private static void putSegment(ByteBuffer buf, int header, int offset, int vaddr, int filesz, int memsz) {
+		buf.putInt(header, 1); //PT_LOAD
+		buf.putInt(header + 4, offset);
+		buf.putInt(header + 8, vaddr);
+		buf.putInt(header + 12, vaddr);
+		buf.putInt(header + 16, filesz);
+		buf.putInt(header + 20, memsz);
+	}
+
+	private static void putSymbol(ByteBuffer buf, int sym, int name, int value, int size, int type) {
+		buf.putInt(sym, name);
+		buf.putInt(sym + 4, value);
+		buf.putInt(sym + 8, size);
+		buf.put(sym + 12, (byte) (0x10 | type)); //STB_GLOBAL
+		buf.putShort(sym + 14, (short) 1);
+	}
+}
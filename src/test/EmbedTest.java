@@ -0,0 +1,97 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+
+import app.*;
+
+/**
+ * Tests using the simulator as a library: Loading programs from memory, running them without any console output,
+ * and reading and writing registers and memory
+ */
+public class EmbedTest {
+
+	/**
+	 * Tests that a program loaded from a buffer gives the same result as when it is loaded from its file
+	 * @throws Exception
+	 */
+	@Test
+	public void testBuffer() throws Exception {
+		for(String program : new String[] {"loop", "mem", "selfmod"}) {
+			File file = new File("asm/" + program + ".bin");
+			RiscV expected = new RiscV(file);
+			expected.runHeadless();
+
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+			buffer.position(3);
+			buffer.put(bytes);
+			buffer.position(3); //Only the bytes after the position are loaded
+			RiscV rv = new RiscV(buffer);
+			assertEquals(3, buffer.position());
+			rv.setBlockMode(true);
+			rv.runHeadless();
+			assertFalse(rv.isRunning());
+			assertArrayEquals(program, expected.getReg(), rv.getReg());
+		}
+	}
+
+	/**
+	 * Tests that nothing is printed when running a program loaded from a buffer
+	 * @throws Exception
+	 */
+	@Test
+	public void testQuiet() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(output));
+		try {
+			RiscV rv = new RiscV(ByteBuffer.wrap(Files.readAllBytes(new File("asm/loop.bin").toPath())));
+			rv.setBlockMode(true);
+			rv.setJitThreshold(0);
+			rv.runHeadless();
+		} finally {
+			System.setOut(console);
+		}
+		assertEquals("", output.toString());
+	}
+
+	/**
+	 * Tests that the register view follows execution, and that writing memory replaces code which has already run
+	 * @throws Exception
+	 */
+	@Test
+	public void testViews() throws Exception {
+		ByteBuffer program = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		program.putInt(0x00100593); //addi a1, zero, 1
+		program.putInt(0x00A00513); //addi a0, zero, 10
+		program.putInt(0x00000073); //ecall
+		program.flip();
+		RiscV rv = new RiscV(program);
+		rv.setBlockMode(true);
+		rv.setJitThreshold(0);
+		IntBuffer reg = rv.getRegisters();
+		Snapshot start = rv.snapshot();
+
+		rv.runHeadless();
+		assertEquals(1, reg.get(11));
+		assertEquals(10, reg.get(10));
+		assertEquals(0x00100593, rv.getMemory().loadWord(0));
+
+		rv.restore(start);
+		assertEquals(0, reg.get(11)); //The view is still that of the registers
+		ByteBuffer patch = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0x00200593); //addi a1, zero, 2
+		patch.flip();
+		rv.writeMemory(0, patch);
+		rv.runHeadless();
+		assertEquals(2, reg.get(11));
+	}
+}
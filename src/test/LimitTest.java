@@ -0,0 +1,91 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import app.*;
+
+/**
+ * Tests the instruction and time limits which stop programs that never exit
+ */
+public class LimitTest {
+
+	/**
+	 * @return A simulator running a program which loops forever
+	 */
+	private static RiscV loopForever() throws Exception {
+		ByteBuffer program = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		program.putInt(0x00158593); //addi a1, a1, 1
+		program.putInt(0x00000013); //nop
+		program.putInt(0xFF9FF06F); //jal zero, -8
+		program.flip();
+		return new RiscV(program);
+	}
+
+	/**
+	 * Tests that the instruction limit stops the program after exactly that many instructions, with every execution engine
+	 * @throws Exception
+	 */
+	@Test
+	public void testInstructionLimit() throws Exception {
+		for(int threshold = -2; threshold <= 0; threshold++) { //Interpreter, blocks, JIT
+			RiscV rv = loopForever();
+			rv.setBlockMode(threshold > -2);
+			rv.setJitThreshold(threshold);
+			rv.setInstructionLimit(3001);
+			assertEquals(1000, rv.runHeadless(1000));
+			assertEquals(RiscV.Status.RUNNING, rv.getStatus());
+			assertEquals(2001, rv.runHeadless());
+			assertEquals(RiscV.Status.INSTRUCTION_LIMIT, rv.getStatus());
+			assertTrue(rv.isRunning());
+			assertEquals(3001, rv.getInstructionCount());
+			assertEquals(1001, rv.getReg()[11]);
+			assertEquals(4, rv.getPC()); //Stopped in the middle of the loop
+
+			assertEquals(0, rv.runHeadless()); //The limit counts every instruction retired
+			rv.setInstructionLimit(3003);
+			assertEquals(2, rv.runHeadless());
+			assertEquals(0, rv.getPC());
+			assertEquals(1001, rv.getReg()[11]);
+		}
+	}
+
+	/**
+	 * Tests that the time limit stops a program which would otherwise run for a very long time
+	 * @throws Exception
+	 */
+	@Test
+	public void testTimeLimit() throws Exception {
+		RiscV rv = loopForever();
+		rv.setBlockMode(true);
+		rv.setJitThreshold(RiscV.DEFAULT_JIT_THRESHOLD);
+		rv.setTimeLimit(100);
+		long start = System.nanoTime();
+		long executed = rv.runHeadless();
+		assertEquals(RiscV.Status.TIME_LIMIT, rv.getStatus());
+		assertTrue(rv.isRunning());
+		assertTrue(System.nanoTime() - start < 10000000000L);
+		assertEquals(executed, rv.getInstructionCount());
+	}
+
+	/**
+	 * Tests that a program which exits within the limits is not affected by them
+	 * @throws Exception
+	 */
+	@Test
+	public void testExit() throws Exception {
+		RiscV expected = new RiscV("asm/loop");
+		expected.runHeadless();
+
+		RiscV rv = new RiscV("asm/loop");
+		rv.setBlockMode(true);
+		rv.setInstructionLimit(expected.getInstructionCount());
+		rv.setTimeLimit(60000);
+		rv.runHeadless();
+		assertEquals(RiscV.Status.EXITED, rv.getStatus());
+		assertArrayEquals(expected.getReg(), rv.getReg());
+	}
+}
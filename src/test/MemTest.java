@@ -33,4 +33,51 @@ public class MemTest {
 		};
 		assertArrayEquals(expected, Reg);		
 	}
+
+	/**
+	 * Tests whether an instruction that is overwritten by a store is executed in its new form,
+	 * and not as the stale instruction that was decoded on the first pass
+	 * @throws Exception
+	 */
+	@Test
+	public void testSelfModifying() throws Exception {
+		RiscV rv = new RiscV("asm/selfmod");
+		rv.setDebugMode(true);
+		rv.run();
+		int[] Reg = rv.getReg();
+		int[] expected = {
+			0x0, 0x0, 0x0, 0x0,
+			0x0, 0x2, 0x14, 0x00558593,
+			0x0, 0x0, 0xa, 0x6,
+			0x0, 0x0, 0x0, 0x0,
+			0x0, 0x0, 0x0, 0x0,
+			0x0, 0x0, 0x0, 0x0,
+			0x0, 0x0, 0x0, 0x0,
+			0x2, 0x0, 0x0, 0x0
+		};
+		assertArrayEquals(expected, Reg);
+	}
+
+	/**
+	 * Tests loads and stores at addresses far above the first MiB of memory, and across a page boundary
+	 * @throws Exception
+	 */
+	@Test
+	public void testHighAddresses() throws Exception {
+		RiscV rv = new RiscV("asm/memhigh");
+		rv.setDebugMode(true);
+		rv.run();
+		int[] Reg = rv.getReg();
+		int[] expected = {
+			0x0, 0x0, 0x80000000, 0x0,
+			0x0, 0x12345678, 0xfffffffc, 0x0,
+			0x10001000, 0x0, 0xa, 0x12345678,
+			0x1234, 0x12345678, 0x12, 0x12345678,
+			0x1234, 0x0, 0x0, 0x0,
+			0x0, 0x0, 0x0, 0x0,
+			0x0, 0x0, 0x0, 0x0,
+			0x0, 0x0, 0x0, 0x0
+		};
+		assertArrayEquals(expected, Reg);
+	}
 }
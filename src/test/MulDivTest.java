@@ -0,0 +1,55 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import app.*;
+
+/**
+ * Tests the multiplication and division instructions of the M extension
+ */
+public class MulDivTest {
+
+	private static final int[] EXPECTED = {
+		0x0, 0x0, 0x0, 0x0,
+		0x0, 0xffffffeb, 0x40000000, 0xfffffffe,
+		0x7, 0xfffffffd, 0xa, 0x3,
+		0xffffffff, 0xffffffff, 0x7, 0xfffffffd,
+		0x80000000, 0x0, 0x80000000, 0xffffffff,
+		0xffffffff, 0x3, 0x80000000, 0x0,
+		0x0, 0x0, 0x0, 0x0,
+		0xffffffff, 0xfffffffe, 0x1, 0x24924924
+	};
+
+	/**
+	 * Tests whether the "muldiv" tester works appropriately, with the interpreter and with the JIT
+	 */
+	@Test
+	public void testMulDiv() throws Exception {
+		RiscV rv = new RiscV("asm/muldiv");
+		rv.setDebugMode(true);
+		rv.run();
+		assertArrayEquals(EXPECTED, rv.getReg());
+
+		RiscV compiled = new RiscV("asm/muldiv");
+		compiled.setBlockMode(true);
+		compiled.setJitThreshold(0);
+		compiled.runHeadless();
+		assertArrayEquals(EXPECTED, compiled.getReg());
+	}
+
+	/**
+	 * Tests that the M extension is decoded from funct7 = 0000001, without changing the RV32I operations
+	 */
+	@Test
+	public void testDecode() {
+		RiscvOp[] ops = {RiscvOp.MUL, RiscvOp.MULH, RiscvOp.MULHSU, RiscvOp.MULHU, RiscvOp.DIV, RiscvOp.DIVU, RiscvOp.REM, RiscvOp.REMU};
+		for(int funct3 = 0; funct3 < 8; funct3++) {
+			assertEquals(ops[funct3], new Instruction(0x02000033 | (funct3 << 12)).op);
+		}
+		assertEquals(RiscvOp.ADD, new Instruction(0x00000033).op);
+		assertEquals(RiscvOp.SUB, new Instruction(0x40000033).op);
+		assertEquals(RiscvOp.SRA, new Instruction(0x40005033).op);
+		assertEquals(RiscvOp.SRAI, new Instruction(0x40005013).op);
+	}
+}
@@ -0,0 +1,62 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import app.*;
+
+/**
+ * Tests the pipeline timing model: The stalls of each hazard, and that every cycle is accounted for
+ */
+public class PipelineTest {
+
+	/**
+	 * Runs a program with a pipeline model, in block mode, which the model must turn off
+	 */
+	private static PipelineModel run(String program, PipelineModel pipeline) throws Exception {
+		RiscV rv = new RiscV(program);
+		rv.setBlockMode(true);
+		rv.setJitThreshold(0);
+		rv.setPipelineModel(pipeline);
+		rv.runHeadless();
+		assertEquals(rv.getInstructionCount(), pipeline.getInstructions());
+		long stalls = pipeline.getLoadUseStalls() + pipeline.getExecuteStalls() + pipeline.getBranchStalls()
+			+ pipeline.getFetchStalls() + pipeline.getMemoryStalls();
+		assertEquals(pipeline.getInstructions() + 4 + stalls, pipeline.getCycles());
+		return pipeline;
+	}
+
+	/**
+	 * Tests the cycles of a loop with a load-use hazard, a multiplication and a loop branch, followed by a jump
+	 * @throws Exception
+	 */
+	@Test
+	public void testHazards() throws Exception {
+		PipelineModel pipeline = run("asm/pipeline", new PipelineModel(null, null));
+		assertEquals(54, pipeline.getInstructions());
+		assertEquals(10, pipeline.getLoadUseStalls());
+		assertEquals(10 * (PipelineModel.MUL_LATENCY - 1), pipeline.getExecuteStalls());
+		assertEquals(9, pipeline.getMispredictions()); //Taken every time but the last
+		assertEquals(9 * PipelineModel.BRANCH_PENALTY + PipelineModel.JUMP_PENALTY, pipeline.getBranchStalls());
+		assertEquals(107, pipeline.getCycles());
+
+		pipeline = run("asm/pipeline", new PipelineModel(null, new BranchPredictor.Static()));
+		assertEquals(1, pipeline.getMispredictions()); //The loop exit
+		assertEquals(91, pipeline.getCycles());
+	}
+
+	/**
+	 * Tests that cache misses stall the pipeline for the cycles they take beyond a hit
+	 * @throws Exception
+	 */
+	@Test
+	public void testCaches() throws Exception {
+		CacheHierarchy caches = new CacheHierarchy(new Cache("L1I", 1 << 10, 2, 16, Cache.Replacement.LRU, 1),
+			new Cache("L1D", 1 << 10, 2, 16, Cache.Replacement.LRU, 1), null, 100);
+		PipelineModel pipeline = run("asm/loop", new PipelineModel(caches, BranchPredictor.parse("gshare:10")));
+		assertEquals(100 * caches.getL1i().getMisses(), pipeline.getFetchStalls()); //No access spans two lines
+		assertEquals(100 * caches.getL1d().getMisses(), pipeline.getMemoryStalls());
+		assertTrue(pipeline.getFetchStalls() > 0);
+		assertTrue(pipeline.getCPI() > 1);
+	}
+}
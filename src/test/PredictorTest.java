@@ -0,0 +1,87 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import app.*;
+
+/**
+ * Tests the branch predictors on synthetic patterns, and the branch model on a running program
+ */
+public class PredictorTest {
+
+	private static final int PC = 0x1000;
+	private static final int TARGET = 0xf00; //Backward, like a loop
+
+	/**
+	 * Runs a repeating pattern of outcomes through a predictor
+	 * @return The number of mispredictions after the first repetitions, which train the predictor
+	 */
+	private static int mispredictions(BranchPredictor predictor, boolean[] pattern, int repetitions) {
+		int missed = 0;
+		for(int r = 0; r < repetitions; r++) {
+			for(boolean taken : pattern) {
+				if(predictor.predict(PC, TARGET) != taken && r >= 10) {
+					missed++;
+				}
+				predictor.update(PC, TARGET, taken);
+			}
+		}
+		return missed;
+	}
+
+	/**
+	 * Tests that a loop exit is only predicted by the predictors using history, and that a predictor without
+	 * history mispredicts an alternating branch
+	 */
+	@Test
+	public void testPatterns() {
+		boolean[] loop = {true, true, true, true, true, true, true, false};
+		assertEquals(990, mispredictions(BranchPredictor.parse("static"), loop, 1000));
+		assertEquals(990, mispredictions(BranchPredictor.parse("bimodal"), loop, 1000));
+		for(String spec : new String[] {"gshare", "tournament", "tage"}) {
+			assertEquals(spec, 0, mispredictions(BranchPredictor.parse(spec), loop, 1000));
+		}
+
+		boolean[] alternating = {true, false};
+		assertTrue(mispredictions(new BranchPredictor.Bimodal(10), alternating, 1000) >= 990);
+		assertEquals(0, mispredictions(new BranchPredictor.Gshare(10, 4), alternating, 1000));
+		assertEquals(0, mispredictions(new BranchPredictor.Tage(8), alternating, 1000));
+
+		BranchPredictor[] predictors = BranchPredictor.parseList("gshare:14:10, tage:9");
+		assertEquals("gshare:14:10", predictors[0].getName());
+		assertEquals("tage:9", predictors[1].getName());
+		try {
+			BranchPredictor.parse("perceptron");
+			fail("Accepted an unknown predictor");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/**
+	 * Tests that the branch model sees the same branches with the interpreter as with the block engine and JIT,
+	 * and predicts the returns of the program with the RAS
+	 * @throws Exception
+	 */
+	@Test
+	public void testProgram() throws Exception {
+		BranchModel[] models = new BranchModel[2];
+		for(int i = 0; i < models.length; i++) {
+			RiscV rv = new RiscV("asm/loop");
+			rv.setBlockMode(i == 1);
+			rv.setJitThreshold(0);
+			models[i] = new BranchModel(BranchPredictor.parseList(BranchModel.DEFAULT_PREDICTORS), BranchModel.DEFAULT_BTB_BITS);
+			rv.setBranchModel(models[i]);
+			rv.runHeadless();
+			assertEquals(rv.getStatistics().getBranches(), models[i].getBranches());
+			assertEquals(rv.getStatistics().getBranchesTaken(), models[i].getTakenBranches());
+		}
+		assertTrue(models[0].getBranches() > 0);
+		for(int p = 0; p < models[0].getPredictors().length; p++) {
+			assertEquals(models[0].getMispredictions(p), models[1].getMispredictions(p));
+		}
+		assertEquals(models[0].getBtbMisses(), models[1].getBtbMisses());
+		assertTrue(models[0].getReturns() > 0);
+		assertEquals(0, models[0].getReturnMisses());
+	}
+}
@@ -0,0 +1,73 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import app.*;
+
+/**
+ * Tests the profiler, using the loop program which calls main, which calls sum with a loop of 100 iterations
+ */
+public class ProfilerTest {
+
+	/**
+	 * Profiles the program with the interpreter, the block engine and the JIT, which must give the same counts
+	 * @throws Exception
+	 */
+	@Test
+	public void testCounts() throws Exception {
+		for(int mode = 0; mode < 3; mode++) {
+			RiscV rv = new RiscV("asm/loop");
+			rv.setBlockMode(mode > 0);
+			rv.setJitThreshold(mode == 2 ? 0 : -1);
+			rv.setProfiling(true);
+			long executed = rv.runHeadless();
+			Profiler profiler = rv.getProfiler();
+
+			assertEquals(1, profiler.getCount(0x0));
+			assertEquals(100, profiler.getCount(0x34)); //Body of the loop in sum
+			assertEquals(101, profiler.getCount(0x68)); //Loop condition
+			assertEquals(100, profiler.getTaken(0x68));
+			assertEquals(1, profiler.getNotTaken(0x68));
+			assertEquals(1, profiler.getCalls(0x80)); //main
+			assertEquals(1, profiler.getCalls(0x14)); //sum
+			assertEquals(0, profiler.getCalls(0x34));
+
+			long total = 0;
+			for(int pc = 0; pc < 0x200; pc += 4) {
+				total += profiler.getCount(pc);
+			}
+			assertEquals(executed, total);
+		}
+	}
+
+	/**
+	 * Tests that the collapsed call stacks attribute every instruction to the right call path
+	 * @throws Exception
+	 */
+	@Test
+	public void testCollapsedStacks() throws Exception {
+		RiscV rv = new RiscV("asm/loop");
+		rv.setBlockMode(true);
+		rv.setProfiling(true);
+		long executed = rv.runHeadless();
+		File file = File.createTempFile("profile", ".folded");
+		try {
+			rv.getProfiler().writeCollapsedStacks(file);
+			List<String> lines = Files.readAllLines(file.toPath());
+			assertEquals(3, lines.size());
+			long total = 0;
+			for(String line : lines) {
+				total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+			}
+			assertEquals(executed, total);
+			assertTrue(lines.get(2).startsWith("0x00000000;0x00000080;0x00000014 "));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import app.*;
+
+/**
+ * Tests taking and restoring snapshots of memory and of the whole simulator
+ */
+public class SnapshotTest {
+
+	/**
+	 * Tests that written pages are copied, and that restoring brings back the old contents
+	 */
+	@Test
+	public void testMemory() {
+		Memory mem = new Memory();
+		mem.storeWord(0x1000, 0x11111111);
+		mem.storeWord(0x2000, 0x22222222);
+		Memory.Snapshot first = mem.snapshot();
+
+		mem.storeWord(0x1000, 0xAAAAAAAA);
+		mem.storeWord(0x80000000, 0xBBBBBBBB); //New page
+		mem.zero(0x2000, 4);
+		assertEquals(3, mem.getPageCount());
+		Memory.Snapshot second = mem.snapshot();
+		mem.storeWord(0x1000, 0xCCCCCCCC);
+
+		int[] changed = mem.restore(first);
+		assertEquals(3, changed.length); //Full comparison, since second was the most recent snapshot
+		assertEquals(0x11111111, mem.loadWord(0x1000));
+		assertEquals(0x22222222, mem.loadWord(0x2000));
+		assertEquals(0, mem.loadWord(0x80000000));
+		assertEquals(2, mem.getPageCount());
+
+		mem.storeWord(0x2004, 5);
+		changed = mem.restore(first);
+		assertArrayEquals(new int[] {0x2}, changed); //Only the page written since the restore
+		assertEquals(0, mem.loadWord(0x2004));
+
+		mem.restore(second);
+		assertEquals(0xAAAAAAAA, mem.loadWord(0x1000));
+		assertEquals(0, mem.loadWord(0x2000));
+		assertEquals(0xBBBBBBBB, mem.loadWord(0x80000000));
+		mem.restore(first);
+		mem.restore(second);
+		assertEquals(0xAAAAAAAA, mem.loadWord(0x1000)); //The snapshots were not modified by the writes
+	}
+
+	/**
+	 * Runs a program, restores the snapshot taken after loading and runs it again, which must give the same result
+	 * @throws Exception
+	 */
+	@Test
+	public void testRerun() throws Exception {
+		for(String program : new String[] {"mem", "selfmod", "loop"}) {
+			RiscV rv = new RiscV("asm/" + program);
+			rv.setBlockMode(true);
+			rv.setJitThreshold(0);
+			Snapshot start = rv.snapshot();
+			rv.runHeadless();
+			int[] expected = rv.getReg().clone();
+			long count = rv.getInstructionCount();
+
+			for(int i = 0; i < 3; i++) {
+				rv.restore(start);
+				assertEquals(0, rv.getInstructionCount());
+				assertEquals(0, rv.getPC());
+				rv.runHeadless();
+				assertArrayEquals(program, expected, rv.getReg());
+				assertEquals(count, rv.getInstructionCount());
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot in the middle of a program, and resumes from it
+	 * @throws Exception
+	 */
+	@Test
+	public void testResume() throws Exception {
+		RiscV rv = new RiscV("asm/loop");
+		rv.runHeadless(1000);
+		Snapshot middle = rv.snapshot();
+		rv.runHeadless();
+		int[] expected = rv.getReg().clone();
+
+		rv.restore(middle);
+		assertEquals(1000, rv.getInstructionCount());
+		assertTrue(rv.isRunning());
+		rv.runHeadless();
+		assertArrayEquals(expected, rv.getReg());
+	}
+
+	/**
+	 * Tests that restoring closes the files opened by the program, such that their descriptors are reused
+	 * and no file handle is left open by a run which stopped before the program exited
+	 * @throws Exception
+	 */
+	@Test
+	public void testRestoreFiles() throws Exception {
+		File file = File.createTempFile("snapshottest", ".txt");
+		try {
+			int[] code = {
+				0x000015B7, //lui a1, 0x1, the name of the file
+				0x00000613, //addi a2, zero, 0 (OPEN_READ)
+				0x00D00513, //addi a0, zero, 13 (open)
+				0x00000073, //ecall
+				0x00A00513, //addi a0, zero, 10
+				0x00000073  //ecall
+			};
+			byte[] name = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+			ByteBuffer program = ByteBuffer.allocate(0x1000 + name.length + 1).order(ByteOrder.LITTLE_ENDIAN);
+			for(int i = 0; i < code.length; i++) {
+				program.putInt(4 * i, code[i]);
+			}
+			program.position(0x1000);
+			program.put(name);
+			program.clear();
+
+			RiscV rv = new RiscV(program);
+			rv.setFileAccess(true);
+			Snapshot start = rv.snapshot();
+			boolean listed = openCount(file) >= 0; //Whether the host lets the test see which files are open
+			for(int i = 0; i < 3; i++) {
+				rv.restore(start);
+				assertTrue(!listed || openCount(file) == 0);
+				rv.runHeadless(4); //Stopped right after the open
+				assertEquals(3, rv.getReg()[10]);
+				assertTrue(!listed || openCount(file) == 1);
+			}
+			rv.runHeadless();
+			assertFalse(rv.isRunning());
+			assertTrue(!listed || openCount(file) == 0);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return The number of descriptors of this process open on a file, or -1 if they cannot be listed
+	 */
+	private static int openCount(File file) throws IOException {
+		Path fds = Paths.get("/proc/self/fd");
+		if(!Files.isDirectory(fds)) {
+			return -1;
+		}
+		Path target = file.toPath().toRealPath();
+		int count = 0;
+		try(Stream<Path> links = Files.list(fds)) {
+			for(Path link : (Iterable<Path>) links::iterator) {
+				try {
+					if(Files.readSymbolicLink(link).equals(target)) {
+						count++;
+					}
+				} catch (IOException e) { //Closed while listing, eg. the descriptor of the listing itself
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,103 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import app.*;
+
+/**
+ * Tests that the execution statistics are the same no matter how a program is executed
+ */
+@RunWith(Parameterized.class)
+public class StatisticsTest {
+
+	@Parameterized.Parameter(0)
+	public String program;
+
+	@Parameterized.Parameters(name = "{index}: {0}")
+	public static Collection<Object[]> testData() {
+		Object[][] data = new Object[][] {
+			{"branchmany"},
+			{"compressed"},
+			{"jump"},
+			{"loop"},
+			{"mem"},
+			{"selfmod"}
+		};
+		return Arrays.asList(data);
+	}
+
+	/**
+	 * Runs the program with the interpreter, the block engine and the JIT, comparing the instruction mix
+	 */
+	@Test
+	public void testModes() throws Exception {
+		RiscV interpreted = new RiscV("asm/" + program);
+		interpreted.runHeadless();
+		Statistics expected = interpreted.getStatistics();
+		assertEquals(interpreted.getInstructionCount(), expected.getInstructions());
+
+		for(int threshold = -1; threshold <= 0; threshold++) {
+			RiscV blocks = new RiscV("asm/" + program);
+			blocks.setBlockMode(true);
+			blocks.setJitThreshold(threshold);
+			blocks.runHeadless();
+			Statistics actual = blocks.getStatistics();
+			assertEquals(expected.getInstructionMix(), actual.getInstructionMix());
+			assertEquals(expected.getBranchesTaken(), actual.getBranchesTaken());
+			assertArrayEquals(expected.getLoadsByWidth(), actual.getLoadsByWidth());
+			assertArrayEquals(expected.getStoresByWidth(), actual.getStoresByWidth());
+		}
+	}
+
+	/**
+	 * Reads the statistics through JMX
+	 */
+	@Test
+	public void testMBean() throws Exception {
+		RiscV rv = new RiscV("asm/" + program);
+		rv.runHeadless();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("test:type=Statistics,name=" + program);
+		server.registerMBean(rv.getStatistics(), name);
+		try {
+			assertEquals(rv.getInstructionCount(), server.getAttribute(name, "Instructions"));
+			assertEquals(rv.getStatistics().getBranches(), server.getAttribute(name, "Branches"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	/**
+	 * Runs the program in small steps, which leave the statistics to be published by the first read after each step,
+	 * reading them from another thread every other step, like a JMX client would
+	 */
+	@Test
+	public void testSteps() throws Exception {
+		RiscV interpreted = new RiscV("asm/" + program);
+		interpreted.runHeadless();
+
+		RiscV rv = new RiscV("asm/" + program);
+		rv.setBlockMode(true);
+		rv.setJitThreshold(0);
+		for(int step = 0; rv.isRunning(); step++) {
+			rv.runHeadless(7);
+			long[] read = new long[1];
+			if(step % 2 == 0) {
+				Thread reader = new Thread(() -> read[0] = rv.getStatistics().getInstructions());
+				reader.start();
+				reader.join();
+			} else {
+				read[0] = rv.getStatistics().getInstructions();
+			}
+			assertEquals(rv.getInstructionCount(), read[0]);
+		}
+		assertEquals(interpreted.getStatistics().getInstructionMix(), rv.getStatistics().getInstructionMix());
+	}
+}
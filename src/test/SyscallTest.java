@@ -0,0 +1,156 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import app.*;
+
+/**
+ * Tests the environment calls of the "syscalls" program: console output, sbrk, file I/O and exit2
+ */
+public class SyscallTest {
+
+	private static final File FILE = new File("syscalls.tmp"); //Written by the program
+
+	@After
+	public void deleteFile() {
+		FILE.delete();
+	}
+
+	/**
+	 * Tests the console output, the heap and a file which is written and read back, with the interpreter and with the JIT
+	 * @throws Exception
+	 */
+	@Test
+	public void testSyscalls() throws Exception {
+		for(int threshold = -1; threshold <= 0; threshold++) {
+			RiscV rv = new RiscV(new File("asm/syscalls.bin"));
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			rv.setConsole(null, output);
+			rv.setFileAccess(true);
+			rv.setBlockMode(threshold == 0);
+			rv.setJitThreshold(threshold);
+			rv.runHeadless();
+			assertFalse(rv.isRunning());
+			assertEquals(3, rv.getExitCode());
+			assertEquals("Hello\n-42\nHello\n", output.toString("UTF-8"));
+			assertEquals("Hello\n", new String(Files.readAllBytes(FILE.toPath()), "UTF-8"));
+
+			int[] reg = rv.getReg();
+			assertEquals(0x1000, reg[8]); //The heap starts on the page after the program
+			assertEquals(0x1010, reg[9]);
+			assertEquals(3, reg[18]); //The first file descriptor
+			assertEquals(6, reg[19]);
+			assertEquals(0, reg[20]);
+			assertEquals(6, reg[22]);
+			assertEquals(0x6c6c6548, reg[23]); //"Hell"
+		}
+	}
+
+	/**
+	 * Tests that the console output is written in one piece when the program exits, instead of once per call
+	 * @throws Exception
+	 */
+	@Test
+	public void testBuffered() throws Exception {
+		int[] writes = new int[1];
+		OutputStream counter = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				writes[0]++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writes[0]++;
+			}
+		};
+		RiscV rv = new RiscV(new File("asm/syscalls.bin"));
+		rv.setConsole(null, counter);
+		rv.runHeadless();
+		assertEquals(1, writes[0]);
+	}
+
+	/**
+	 * Tests that an embedded program cannot open files unless allowed, and prints nothing until given a console
+	 * @throws Exception
+	 */
+	@Test
+	public void testEmbedded() throws Exception {
+		RiscV rv = new RiscV(ByteBuffer.wrap(Files.readAllBytes(new File("asm/syscalls.bin").toPath())));
+		rv.runHeadless();
+		assertEquals(-1, rv.getReg()[18]);
+		assertFalse(FILE.exists());
+		assertEquals(3, rv.getExitCode());
+	}
+
+	/**
+	 * Tests that the heap of a program loaded into the last page of the address space starts in that page,
+	 * rather than at address 0 on top of other code
+	 * @throws Exception
+	 */
+	@Test
+	public void testBreakAtTop() throws Exception {
+		int[] code = {
+			0x00900513, //addi a0, zero, 9
+			0x00000593, //addi a1, zero, 0
+			0x00000073, //ecall, sbrk
+			0x00050613, //addi a2, a0, 0
+			0x00A00513, //addi a0, zero, 10
+			0x00000073  //ecall
+		};
+		int addr = 0xFFFFF000;
+		ByteBuffer elf = ByteBuffer.allocate(52 + 32 + 4 * code.length).order(ByteOrder.LITTLE_ENDIAN);
+		elf.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 1, 1});
+		elf.putShort(16, (short) 2); //ET_EXEC
+		elf.putShort(18, (short) 243); //EM_RISCV
+		elf.putInt(24, addr);
+		elf.putInt(28, 52);
+		elf.putShort(42, (short) 32);
+		elf.putShort(44, (short) 1);
+		elf.putInt(52, 1); //PT_LOAD
+		elf.putInt(56, 84);
+		elf.putInt(60, addr);
+		elf.putInt(68, 4 * code.length);
+		elf.putInt(72, 4 * code.length);
+		for(int i = 0; i < code.length; i++) {
+			elf.putInt(84 + 4 * i, code[i]);
+		}
+		RiscV rv = new RiscV(ByteBuffer.wrap(elf.array()));
+		rv.runHeadless();
+		assertFalse(rv.isRunning());
+		assertEquals(addr, rv.getReg()[12]);
+	}
+
+	/**
+	 * Tests reading an instruction over code which has already been translated and compiled, right after the read call,
+	 * such that the block following the call must be translated again
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadOverCode() throws Exception {
+		byte[] input = {0, 0, 0, 0, (byte) 0x93, 0x02, 0x50, 0x00}; //4 bytes of data, then addi t0, zero, 5
+		for(int threshold = -1; threshold <= 1; threshold++) {
+			RiscV rv = new RiscV(new File("asm/readcode.bin"));
+			rv.setConsole(new ByteArrayInputStream(input), null);
+			rv.setBlockMode(threshold >= 0);
+			rv.setJitThreshold(threshold);
+			rv.runHeadless();
+			assertFalse(rv.isRunning());
+			assertEquals(1 + 5, rv.getReg()[9]);
+			assertEquals(26, rv.getInstructionCount());
+			assertEquals(26, rv.getStatistics().getInstructions());
+			assertEquals(2, rv.getStatistics().getCount(RiscvOp.ADD));
+		}
+	}
+}
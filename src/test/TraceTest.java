@@ -0,0 +1,85 @@
+package test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.File;
+
+import app.*;
+
+/**
+ * Tests writing and reading binary execution traces
+ */
+public class TraceTest {
+
+	/**
+	 * Traces the mem program, and replays the register writes of the trace, which must give the final registers
+	 * @throws Exception
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		for(boolean compress : new boolean[] {false, true}) {
+			File file = File.createTempFile("trace", ".bin");
+			try {
+				RiscV rv = new RiscV("asm/mem");
+				rv.setBlockMode(true);
+				rv.startTrace(file, compress);
+				long executed = rv.runHeadless();
+				rv.stopTrace();
+
+				int[] reg = new int[32];
+				reg[2] = RiscV.INITIAL_SP;
+				long records = 0;
+				int stores = 0;
+				try(TraceReader trace = new TraceReader(file)) {
+					while(trace.next()) {
+						Instruction inst = trace.getDecoded();
+						if(records == 0) {
+							assertEquals(0x0, trace.getPC());
+						}
+						if(inst.opcode == Instruction.Stype) {
+							stores++;
+							assertEquals(0, trace.getRdValue());
+						} else if(inst.opcode != Instruction.Btype && inst.op != RiscvOp.ECALL && inst.rd != 0) {
+							reg[inst.rd] = trace.getRdValue();
+						}
+						records++;
+					}
+				}
+				assertEquals(executed, records);
+				assertEquals(rv.getStatistics().getStoresByWidth()[0] + rv.getStatistics().getStoresByWidth()[1]
+					+ rv.getStatistics().getStoresByWidth()[2], stores);
+				assertArrayEquals(rv.getReg(), reg);
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Traces a program which is longer than the buffers of the trace writer
+	 * @throws Exception
+	 */
+	@Test
+	public void testLong() throws Exception {
+		File file = File.createTempFile("trace", ".bin");
+		try {
+			RiscV rv = new RiscV("asm/count");
+			rv.startTrace(file, false);
+			long executed = rv.runHeadless();
+			rv.stopTrace();
+			assertEquals(TraceWriter.HEADER_SIZE + executed * TraceWriter.RECORD_SIZE, file.length());
+
+			long records = 0;
+			try(TraceReader trace = new TraceReader(file)) {
+				while(trace.next()) {
+					assertEquals(records++, trace.getIndex());
+				}
+			}
+			assertEquals(executed, records);
+			assertEquals(2 + 2 * 0x3000 + 2, executed);
+		} finally {
+			file.delete();
+		}
+	}
+}